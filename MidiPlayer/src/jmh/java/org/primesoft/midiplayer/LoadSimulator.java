@@ -0,0 +1,398 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.UUID;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+import org.primesoft.midiplayer.configuration.ConfigProvider;
+import org.primesoft.midiplayer.instruments.MapFileParser;
+import org.primesoft.midiplayer.midiparser.IFrameSource;
+import org.primesoft.midiplayer.midiparser.MidiParser;
+import org.primesoft.midiplayer.midiparser.NoteTrack;
+import org.primesoft.midiplayer.midiparser.SmfGenerator;
+import org.primesoft.midiplayer.sound.CountingNoteSink;
+import org.primesoft.midiplayer.sound.SoundPlayer;
+import org.primesoft.midiplayer.track.BaseTrack;
+import org.primesoft.midiplayer.track.GlobalTrack;
+import org.primesoft.midiplayer.track.LocationTrack;
+import org.primesoft.midiplayer.track.PlayerTrack;
+
+/**
+ * Headless load simulator of the playback engine. Drives the music
+ * player with a virtual clock, synthetic players and generated songs,
+ * without a server. The same seed and options always produce the same
+ * tracks, players and ticks, so the engine changes can be compared.
+ * Run with:
+ * mvn -P benchmark test-compile exec:exec@simulate -Dsim.args="--players 500 --player-tracks 200"
+ * @author SBPrime
+ */
+public class LoadSimulator {
+
+    /**
+     * The tick length in nanoseconds
+     */
+    private static final long TICK_NANOS = 1000000000L / ConfigProvider.TICKS_PER_SECOND;
+
+    /**
+     * The simulation options with the default values
+     */
+    private final Map<String, Long> m_options = new HashMap<String, Long>();
+
+    /**
+     * The virtual time (nanoseconds)
+     */
+    private long m_now = 1000000000L;
+
+    private LoadSimulator() {
+        m_options.put("seed", 1L);
+        m_options.put("players", 500L);
+        m_options.put("player-tracks", 200L);
+        m_options.put("location-tracks", 90L);
+        m_options.put("global-tracks", 10L);
+        m_options.put("listeners", 20L);
+        m_options.put("songs", 8L);
+        m_options.put("density", 4L);
+        m_options.put("seconds", 300L);
+        m_options.put("warmup", 30L);
+        m_options.put("max-sounds", 0L);
+        m_options.put("jitter", 5L);
+        m_options.put("quantize", 0L);
+    }
+
+    public static void main(String[] args) {
+        LoadSimulator simulator = new LoadSimulator();
+        if (!simulator.parse(args)) {
+            System.out.println("Usage: LoadSimulator [--option value]...");
+            System.out.println("Options (default value):");
+            for (Map.Entry<String, Long> option : new TreeMap<String, Long>(simulator.m_options).entrySet()) {
+                System.out.println(String.format("  --%1$s (%2$s)", option.getKey(), option.getValue()));
+            }
+            return;
+        }
+
+        simulator.run();
+    }
+
+    private boolean parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                return false;
+            }
+
+            final String name = args[i].substring(2);
+            if (!m_options.containsKey(name)) {
+                return false;
+            }
+
+            try {
+                m_options.put(name, Long.parseLong(args[++i]));
+            } catch (NumberFormatException ex) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private int get(String name) {
+        return (int) (long) m_options.get(name);
+    }
+
+    private void run() {
+        final Random random = new Random(m_options.get("seed"));
+        MapFileParser.loadDefaultMap();
+        MapFileParser.loadDefaultDrumMap();
+        MidiParser.setStore(null);
+        MidiParser.setTickQuantized(get("quantize") != 0);
+
+        final IFrameSource[] songs = generateSongs(random);
+        final Player[] players = createPlayers(random);
+        final List<Player> online = Collections.unmodifiableList(Arrays.asList(players));
+
+        final CountingNoteSink sink = new CountingNoteSink();
+        SoundPlayer.setSink(sink);
+
+        final MusicPlayer player = new MusicPlayer(null, createScheduler(), () -> m_now);
+        player.getSoundBudget().configure(get("max-sounds"), 0);
+
+        //The tracks start during the first 10 seconds
+        final List<BaseTrack> tracks = createTracks(random, songs, players, online);
+        final int[] startTicks = new int[tracks.size()];
+        for (int i = 0; i < startTicks.length; i++) {
+            startTicks[i] = random.nextInt(10 * ConfigProvider.TICKS_PER_SECOND);
+        }
+
+        final int warmupTicks = get("warmup") * ConfigProvider.TICKS_PER_SECOND;
+        final int ticks = get("seconds") * ConfigProvider.TICKS_PER_SECOND;
+        final long jitter = get("jitter") * 1000000L;
+
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final boolean hasCpuTime = threads.isCurrentThreadCpuTimeSupported();
+        final com.sun.management.ThreadMXBean allocations = threads instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) threads : null;
+        final long threadId = Thread.currentThread().getId();
+
+        final long[] wallTimes = new long[ticks];
+        final long[] cpuTimes = new long[ticks];
+        long allocated = 0;
+
+        System.out.println(String.format("Simulating %1$s tracks, %2$s players, %3$s songs, %4$s s (seed %5$s)",
+                tracks.size(), players.length, songs.length, get("seconds"), m_options.get("seed")));
+
+        for (int tick = 0; tick < warmupTicks + ticks; tick++) {
+            for (int i = 0; i < startTicks.length; i++) {
+                if (startTicks[i] == tick) {
+                    player.playTrack(tracks.get(i));
+                }
+            }
+
+            final int measured = tick - warmupTicks;
+            if (measured == 0) {
+                sink.clear();
+            }
+
+            final long allocatedStart = allocations != null ? allocations.getThreadAllocatedBytes(threadId) : 0;
+            final long cpuStart = hasCpuTime ? threads.getCurrentThreadCpuTime() : 0;
+            final long wallStart = System.nanoTime();
+
+            player.run();
+
+            final long wall = System.nanoTime() - wallStart;
+            final long cpu = hasCpuTime ? threads.getCurrentThreadCpuTime() - cpuStart : wall;
+            final long bytes = allocations != null ? allocations.getThreadAllocatedBytes(threadId) - allocatedStart : 0;
+            if (measured >= 0) {
+                wallTimes[measured] = wall;
+                cpuTimes[measured] = cpu;
+                allocated += bytes;
+            }
+
+            m_now += TICK_NANOS + (jitter > 0 ? (long) (random.nextDouble() * 2 * jitter) - jitter : 0);
+        }
+        final long sounds = sink.getNotes();
+
+        System.out.println(String.format("Playing tracks: %1$s", player.getTrackCount()));
+        System.out.println("Tick CPU time:  " + formatPercentiles(cpuTimes) + (hasCpuTime ? "" : " (wall time)"));
+        System.out.println("Tick wall time: " + formatPercentiles(wallTimes));
+        System.out.println(String.format("Sounds: %1$s total, %2$.1f per tick",
+                sounds, sounds / (double) ticks));
+        System.out.println(String.format("Sound budget: %1$s limited ticks, %2$s frames deferred, %3$s frames dropped",
+                player.getSoundBudget().getExhaustedTicks(), player.getSoundBudget().getDeferred(),
+                player.getSoundBudget().getDropped()));
+        if (allocations != null) {
+            System.out.println(String.format("Allocated: %1$s bytes total, %2$.1f bytes per tick",
+                    allocated, allocated / (double) ticks));
+        }
+
+        player.stop();
+    }
+
+    /**
+     * Format the tick time percentiles in microseconds
+     *
+     * @param times The tick times in nanoseconds
+     * @return The percentiles text
+     */
+    private static String formatPercentiles(long[] times) {
+        final long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        if (sorted.length == 0) {
+            return "no ticks";
+        }
+
+        final double[] percentiles = new double[]{50, 90, 99, 99.9};
+        StringBuilder result = new StringBuilder();
+        for (double p : percentiles) {
+            final int index = Math.min(sorted.length - 1, (int) Math.ceil(p / 100 * sorted.length) - 1);
+            result.append(String.format("p%1$s %2$.1fus, ", p == (int) p ? Integer.toString((int) p) : Double.toString(p),
+                    sorted[Math.max(0, index)] / 1000.0));
+        }
+        result.append(String.format("max %1$.1fus", sorted[sorted.length - 1] / 1000.0));
+
+        return result.toString();
+    }
+
+    private IFrameSource[] generateSongs(Random random) {
+        final IFrameSource[] result = new IFrameSource[Math.max(1, get("songs"))];
+        final int density = Math.max(1, get("density"));
+        for (int i = 0; i < result.length; i++) {
+            final byte[] data = new SmfGenerator(1 + random.nextInt(8), density,
+                    200 + random.nextInt(400), random.nextInt(3) * 8, random.nextLong()).generate();
+            final NoteTrack track;
+            try {
+                track = MidiParser.loadData(ByteBuffer.wrap(data), null);
+            } catch (Exception ex) {
+                throw new IllegalStateException("Unable to parse the generated song", ex);
+            }
+
+            result[i] = track.getSource();
+        }
+
+        return result;
+    }
+
+    private Player[] createPlayers(Random random) {
+        final Player[] result = new Player[get("players")];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = createPlayer(new UUID(random.nextLong(), random.nextLong()),
+                    new Location(null, random.nextInt(2000) - 1000, 64, random.nextInt(2000) - 1000));
+        }
+
+        return result;
+    }
+
+    private List<BaseTrack> createTracks(Random random, IFrameSource[] songs, Player[] players,
+            final Collection<? extends Player> online) {
+        final List<BaseTrack> result = new ArrayList<BaseTrack>();
+        if (players.length == 0) {
+            return result;
+        }
+
+        for (int i = 0; i < get("player-tracks"); i++) {
+            result.add(new PlayerTrack(players[random.nextInt(players.length)],
+                    songs[random.nextInt(songs.length)], true));
+        }
+
+        for (int i = 0; i < get("location-tracks"); i++) {
+            final Player[] listeners = new Player[Math.min(players.length, get("listeners"))];
+            for (int j = 0; j < listeners.length; j++) {
+                listeners[j] = players[random.nextInt(players.length)];
+            }
+
+            result.add(new LocationTrack(new Location(null, random.nextInt(2000) - 1000, 64, random.nextInt(2000) - 1000),
+                    listeners, songs[random.nextInt(songs.length)], true));
+        }
+
+        for (int i = 0; i < get("global-tracks"); i++) {
+            result.add(new GlobalTrack(null, songs[random.nextInt(songs.length)], true) {
+                @Override
+                protected Collection<? extends Player> getPlayers() {
+                    return online;
+                }
+            });
+        }
+
+        return result;
+    }
+
+    /**
+     * Create the synthetic player
+     *
+     * @param uuid The player id
+     * @param location The player location
+     * @return The player stand-in
+     */
+    private static Player createPlayer(UUID uuid, Location location) {
+        return (Player) Proxy.newProxyInstance(Player.class.getClassLoader(), new Class<?>[]{Player.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isOnline":
+                            return true;
+                        case "getUniqueId":
+                            return uuid;
+                        case "getName":
+                            return uuid.toString();
+                        case "getLocation":
+                            return location.clone();
+                        case "hashCode":
+                            return uuid.hashCode();
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "SimulatedPlayer " + uuid;
+                        default:
+                            return defaultValue(method.getReturnType());
+                    }
+                });
+    }
+
+    /**
+     * The server scheduler stand-in, the simulator runs the ticks
+     *
+     * @return The scheduler
+     */
+    private static BukkitScheduler createScheduler() {
+        final BukkitTask task = (BukkitTask) Proxy.newProxyInstance(BukkitTask.class.getClassLoader(),
+                new Class<?>[]{BukkitTask.class}, (proxy, method, args) -> defaultValue(method.getReturnType()));
+
+        return (BukkitScheduler) Proxy.newProxyInstance(BukkitScheduler.class.getClassLoader(),
+                new Class<?>[]{BukkitScheduler.class},
+                (proxy, method, args) -> BukkitTask.class.equals(method.getReturnType())
+                        ? task : defaultValue(method.getReturnType()));
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        } else if (type == boolean.class) {
+            return false;
+        } else if (type == char.class) {
+            return '\0';
+        } else if (type == float.class) {
+            return 0f;
+        } else if (type == double.class) {
+            return 0d;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == short.class) {
+            return (short) 0;
+        }
+
+        return 0;
+    }
+}
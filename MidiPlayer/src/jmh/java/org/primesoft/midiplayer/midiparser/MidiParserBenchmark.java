@@ -0,0 +1,261 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.midiparser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.sound.midi.InvalidMidiDataException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.primesoft.midiplayer.instruments.MapFileParser;
+
+/**
+ * Benchmarks of the MIDI parsing pipeline. The end to end load is measured
+ * together with each of the parser stages in isolation:
+ * decode, merge and resolve, note aggregation and frame conversion.
+ * Run with -prof gc to get the allocation rate of each stage.
+ * @author SBPrime
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MidiParserBenchmark {
+    /**
+     * The number of note tracks
+     */
+    @Param({"4", "16"})
+    public int tracks;
+
+    /**
+     * The number of notes per beat in each track
+     */
+    @Param({"2", "8"})
+    public int density;
+
+    /**
+     * The number of beats between tempo changes, 0 for a constant tempo
+     */
+    @Param({"0", "4"})
+    public int tempoInterval;
+
+    /**
+     * The song length in beats
+     */
+    @Param({"1000"})
+    public int beats;
+
+    private byte[] m_data;
+
+    private File m_file;
+
+    private int m_resolution;
+
+    private List<TrackEvents> m_events;
+
+    private TempoMap m_tempoMap;
+
+    private CompiledTrack m_track;
+
+    private NoteFrame[] m_frames;
+
+    /**
+     * The aggregator input recorded from the compiled track
+     */
+    private long[] m_millis;
+
+    private int[] m_patchIds;
+
+    private float[] m_pitches;
+
+    private float[] m_volumes;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, InvalidMidiDataException {
+        MapFileParser.loadDefaultMap();
+        MapFileParser.loadDefaultDrumMap();
+        MidiParser.setStore(null);
+
+        m_data = new SmfGenerator(tracks, density, beats, tempoInterval, 0x4d505442L).generate();
+        m_file = File.createTempFile("MidiPlayer", ".mid");
+        try (OutputStream out = new FileOutputStream(m_file)) {
+            out.write(m_data);
+        }
+
+        SmfReader reader = SmfReader.open(ByteBuffer.wrap(m_data));
+        m_resolution = reader.getResolution();
+        m_events = decode();
+        m_tempoMap = new TempoMap(m_resolution, m_events);
+        TrackDecoder.resolveMillis(m_events, m_tempoMap, false);
+
+        NoteAggregator notes = merge();
+        m_track = notes.toTrack();
+        m_frames = m_track.toFrames();
+
+        int count = m_track.getNoteCount();
+        m_millis = new long[count];
+        m_patchIds = new int[count];
+        m_pitches = new float[count];
+        m_volumes = new float[count];
+
+        long millis = 0;
+        for (int frame = 0; frame < m_track.getFrameCount(); frame++) {
+            millis += m_track.getWait(frame);
+            for (int note = m_track.getOffset(frame); note < m_track.getOffset(frame + 1); note++) {
+                m_millis[note] = millis;
+                m_patchIds[note] = m_track.getPatchId(note);
+                m_pitches[note] = m_track.getPitch(note);
+                m_volumes[note] = m_track.getVolume(note);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        MidiParser.getCache().clear();
+        m_file.delete();
+    }
+
+    /**
+     * Load the file from disk, without the cache and the track store
+     * @return The loaded track
+     */
+    @Benchmark
+    public NoteTrack loadFile() {
+        MidiParser.getCache().clear();
+        return MidiParser.loadFile(m_file);
+    }
+
+    /**
+     * Decode the file content to the per track event columns
+     * @return The decoded tracks
+     * @throws InvalidMidiDataException
+     */
+    @Benchmark
+    public List<TrackEvents> decode() throws InvalidMidiDataException {
+        MidiEventCollector collector = new MidiEventCollector();
+        SmfReader.open(ByteBuffer.wrap(m_data)).readTracks(collector);
+
+        return collector.getTracks();
+    }
+
+    /**
+     * Decode the file content on the fork-join pool
+     * @return The decoded tracks
+     * @throws InvalidMidiDataException
+     */
+    @Benchmark
+    public List<TrackEvents> decodeParallel() throws InvalidMidiDataException {
+        return TrackDecoder.decode(SmfReader.open(ByteBuffer.wrap(m_data)), true);
+    }
+
+    /**
+     * Convert the event ticks to milliseconds
+     * @return The decoded tracks
+     */
+    @Benchmark
+    public List<TrackEvents> resolveMillis() {
+        TrackDecoder.resolveMillis(m_events, m_tempoMap, false);
+        return m_events;
+    }
+
+    /**
+     * Merge the decoded tracks and resolve the notes
+     * @return The collected notes
+     */
+    @Benchmark
+    public NoteAggregator merge() {
+        NoteAggregator notes = new NoteAggregator();
+        TrackMerger.merge(m_events, new NoteResolver(notes));
+
+        return notes;
+    }
+
+    /**
+     * Aggregate the resolved notes to frames
+     * @return The compiled track
+     */
+    @Benchmark
+    public CompiledTrack aggregate() {
+        NoteAggregator notes = new NoteAggregator();
+        for (int i = 0; i < m_millis.length; i++) {
+            notes.add(m_millis[i], 0, m_patchIds[i], m_pitches[i], m_volumes[i]);
+        }
+
+        return notes.toTrack();
+    }
+
+    /**
+     * Convert the compiled track to note frames
+     * @return The note frames
+     */
+    @Benchmark
+    public NoteFrame[] convertToNoteFrames() {
+        return m_track.toFrames();
+    }
+
+    /**
+     * Compile the note frames to the columnar track
+     * @return The compiled track
+     */
+    @Benchmark
+    public CompiledTrack compile() {
+        return CompiledTrack.compile(m_frames);
+    }
+}
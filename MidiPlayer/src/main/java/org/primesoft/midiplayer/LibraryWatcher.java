@@ -0,0 +1,544 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import org.primesoft.midiplayer.midiparser.MidiParser;
+import org.primesoft.midiplayer.midiparser.NoteTrack;
+import org.primesoft.midiplayer.midiparser.NoteTrackStore;
+import org.primesoft.midiplayer.midiparser.SongPackProvider;
+import static org.primesoft.midiplayer.MidiPlayerMain.log;
+
+/**
+ * Watches the plugin folder and precompiles the new and changed MIDI
+ * files and song packs in the background, so the files are stored before they are played.
+ * @author SBPrime
+ */
+public class LibraryWatcher implements Runnable {
+
+    /**
+     * Time to wait for the file to stop changing before it is compiled
+     */
+    private static final long DEBOUNCE_MS = 1000;
+
+    /**
+     * The watched folder
+     */
+    private final File m_folder;
+
+    /**
+     * The watcher thread
+     */
+    private final Thread m_thread;
+
+    /**
+     * The file system watch service
+     */
+    private final WatchService m_watchService;
+
+    /**
+     * The registered directories
+     */
+    private final Map<WatchKey, Path> m_directories;
+
+    /**
+     * Changed files and the time when they should be compiled
+     */
+    private final Map<Path, Long> m_pending;
+
+    /**
+     * The track store keys of the compiled files
+     */
+    private final Map<Path, String> m_storeKeys;
+
+    /**
+     * The song index
+     */
+    private final SongIndex m_index;
+
+    /**
+     * Is the watcher running
+     */
+    private volatile boolean m_isRunning;
+
+    /**
+     * Start watching the folder
+     *
+     * @param folder The folder to watch
+     * @param index The song index to update
+     * @return The started watcher or null if the folder can't be watched
+     */
+    public static LibraryWatcher start(File folder, SongIndex index) {
+        try {
+            LibraryWatcher result = new LibraryWatcher(folder, index);
+            result.m_thread.start();
+            return result;
+        } catch (IOException ex) {
+            log(Level.WARNING, "Unable to watch the MIDI library: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    private LibraryWatcher(File folder, SongIndex index) throws IOException {
+        m_folder = folder;
+        m_index = index;
+        m_watchService = FileSystems.getDefault().newWatchService();
+        m_directories = new HashMap<WatchKey, Path>();
+        m_pending = new HashMap<Path, Long>();
+        m_storeKeys = new HashMap<Path, String>();
+        m_isRunning = true;
+
+        m_thread = new Thread(this, "MidiPlayer library watcher");
+        m_thread.setDaemon(true);
+        m_thread.setPriority(Thread.MIN_PRIORITY);
+    }
+
+    /**
+     * Stop watching the folder
+     */
+    public void stop() {
+        m_isRunning = false;
+        m_thread.interrupt();
+
+        try {
+            m_watchService.close();
+        } catch (IOException ex) {
+            //Ignore
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            scan();
+
+            while (m_isRunning) {
+                WatchKey key = m_watchService.poll(getTimeout(), TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    processEvents(key);
+                    key = m_watchService.poll();
+                }
+
+                compilePending();
+            }
+        } catch (InterruptedException ex) {
+            //Watcher stopped
+        } catch (ClosedWatchServiceException ex) {
+            //Watcher stopped
+        }
+    }
+
+    /**
+     * Register all folders and compile all MIDI files
+     */
+    private void scan() {
+        List<Path> files = new ArrayList<Path>();
+        register(m_folder.toPath(), files);
+
+        log(Level.INFO, String.format("Precompiling %1$s MIDI files...", files.size()));
+
+        int compiled = 0;
+        for (Path file : files) {
+            if (!m_isRunning) {
+                return;
+            }
+
+            if (compile(file)) {
+                compiled++;
+            }
+        }
+
+        m_index.retain(files);
+        m_index.save();
+
+        log(Level.INFO, String.format("Precompiled %1$s of %2$s MIDI files.", compiled, files.size()));
+
+        final NoteTrackStore store = MidiParser.getStore();
+        if (store != null) {
+            int removed = store.retain(new HashSet<String>(m_storeKeys.values())) + store.trim();
+            if (removed > 0) {
+                log(Level.INFO, String.format("Removed %1$s unused precompiled tracks.", removed));
+            }
+        }
+    }
+
+    /**
+     * Register the folder and its subfolders
+     *
+     * @param folder The folder to register
+     * @param files The found MIDI files
+     */
+    private void register(Path folder, List<Path> files) {
+        if (isStoreFolder(folder)) {
+            return;
+        }
+
+        File[] entries = folder.toFile().listFiles();
+        if (entries == null) {
+            return;
+        }
+
+        try {
+            WatchKey key = folder.register(m_watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            m_directories.put(key, folder);
+        } catch (IOException ex) {
+            log(Level.WARNING, "Unable to watch folder " + folder + ": " + ex.getMessage());
+        }
+
+        for (File entry : entries) {
+            if (entry.isDirectory()) {
+                register(entry.toPath(), files);
+            } else {
+                addSongs(entry.toPath(), files);
+            }
+        }
+    }
+
+    /**
+     * Process the file system events
+     *
+     * @param key The signalled key
+     */
+    private void processEvents(WatchKey key) {
+        Path folder = m_directories.get(key);
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                log(Level.INFO, "Too many changes in the MIDI library, rescanning...");
+                scan();
+                continue;
+            }
+
+            if (folder == null) {
+                continue;
+            }
+
+            Path path = folder.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                m_pending.remove(path);
+                if (isSong(path)) {
+                    remove(path);
+                    m_index.save();
+                    log(Level.INFO, "Removed " + getName(path) + " from the cache");
+                } else if (isArchive(path)) {
+                    removeFolder(getEntriesFolder(path));
+                } else {
+                    removeFolder(path);
+                }
+            } else if (Files.isDirectory(path)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    List<Path> files = new ArrayList<Path>();
+                    register(path, files);
+                    for (Path file : files) {
+                        m_pending.put(file, System.currentTimeMillis() + DEBOUNCE_MS);
+                    }
+                }
+            } else if (isSong(path) || isArchive(path)) {
+                m_pending.put(path, System.currentTimeMillis() + DEBOUNCE_MS);
+            }
+        }
+
+        if (!key.reset()) {
+            m_directories.remove(key);
+        }
+    }
+
+    /**
+     * Compile the files that stopped changing
+     */
+    private void compilePending() {
+        final long now = System.currentTimeMillis();
+        List<Path> ready = new ArrayList<Path>();
+        for (Iterator<Map.Entry<Path, Long>> it = m_pending.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Path, Long> entry = it.next();
+            if (entry.getValue() <= now) {
+                ready.add(entry.getKey());
+                it.remove();
+            }
+        }
+
+        for (Path file : ready) {
+            if (isArchive(file)) {
+                compileArchive(file);
+            } else if (compile(file)) {
+                log(Level.INFO, "Precompiled " + getName(file));
+            }
+        }
+
+        if (!ready.isEmpty()) {
+            m_index.save();
+        }
+    }
+
+    /**
+     * Get the time to wait for the next event
+     *
+     * @return The timeout in milliseconds
+     */
+    private long getTimeout() {
+        long result = Long.MAX_VALUE;
+        final long now = System.currentTimeMillis();
+        for (long time : m_pending.values()) {
+            result = Math.min(result, time - now);
+        }
+
+        return Math.max(1, Math.min(result, DEBOUNCE_MS * 60));
+    }
+
+    /**
+     * Compile the songs stored in the changed song pack
+     * and remove the songs that are no longer in the pack
+     *
+     * @param archive The song pack archive
+     */
+    private void compileArchive(Path archive) {
+        final Path entries = getEntriesFolder(archive);
+        List<Path> files = new ArrayList<Path>();
+        addSongs(archive, files);
+
+        Set<Path> removed = new HashSet<Path>();
+        for (Path file : m_storeKeys.keySet()) {
+            if (file.startsWith(entries)) {
+                removed.add(file);
+            }
+        }
+        for (String path : m_index.getPaths(entries)) {
+            removed.add(m_folder.toPath().resolve(path));
+        }
+        removed.removeAll(files);
+        for (Path file : removed) {
+            remove(file);
+        }
+
+        int compiled = 0;
+        for (Path file : files) {
+            if (compile(file)) {
+                compiled++;
+            }
+        }
+
+        log(Level.INFO, String.format("Precompiled %1$s of %2$s songs in %3$s",
+                compiled, files.size(), getName(archive)));
+    }
+
+    /**
+     * Compile the MIDI file
+     *
+     * @param file The file to compile
+     * @return Whether the file was compiled or not
+     */
+    private boolean compile(Path file) {
+        try {
+            final byte[] data = SongPackProvider.read(file.toFile());
+            if (data == null) {
+                return false;
+            }
+
+            final NoteTrackStore store = MidiParser.getStore();
+            String storeKey = null;
+            if (store != null) {
+                storeKey = MidiParser.getStoreKey(data);
+                String oldKey = m_storeKeys.put(file, storeKey);
+                if (oldKey != null && !oldKey.equals(storeKey)) {
+                    dropStored(store, oldKey);
+                }
+            }
+
+            NoteTrack track = MidiParser.compileFile(file.toFile(), data, storeKey);
+            m_index.update(file, track, data);
+            if (track == null || track.isError()) {
+                log(Level.WARNING, String.format("Unable to precompile %1$s: %2$s",
+                        getName(file), track == null ? "file not readable" : track.getMessage()));
+                return false;
+            }
+
+            return true;
+        } catch (IOException ex) {
+            log(Level.WARNING, String.format("Unable to precompile %1$s: %2$s",
+                    getName(file), ex.getMessage()));
+            return false;
+        } catch (RuntimeException ex) {
+            log(Level.WARNING, String.format("Unable to precompile %1$s: %2$s",
+                    getName(file), ex));
+            return false;
+        }
+    }
+
+    /**
+     * Remove the deleted file from the cache and the track store
+     *
+     * @param file The deleted file
+     */
+    private void remove(Path file) {
+        MidiParser.getCache().remove(MidiParser.getCacheKey(file.toFile()));
+
+        String storeKey = m_storeKeys.remove(file);
+        NoteTrackStore store = MidiParser.getStore();
+        if (storeKey != null && store != null) {
+            dropStored(store, storeKey);
+        }
+
+        m_index.remove(file);
+    }
+
+    /**
+     * Remove the songs of the deleted folder from the cache,
+     * the track store and the song index
+     *
+     * @param folder The deleted folder
+     */
+    private void removeFolder(Path folder) {
+        Set<Path> files = new HashSet<Path>();
+        for (Path file : m_storeKeys.keySet()) {
+            if (file.startsWith(folder)) {
+                files.add(file);
+            }
+        }
+        for (String path : m_index.getPaths(folder)) {
+            files.add(m_folder.toPath().resolve(path));
+        }
+        m_pending.keySet().removeIf(file -> file.startsWith(folder));
+
+        if (files.isEmpty()) {
+            return;
+        }
+
+        for (Path file : files) {
+            remove(file);
+        }
+        m_index.save();
+
+        log(Level.INFO, String.format("Removed %1$s songs in %2$s from the cache", files.size(), getName(folder)));
+    }
+
+    /**
+     * Remove the stored track if no other file uses it
+     *
+     * @param store The track store
+     * @param storeKey The store key
+     */
+    private void dropStored(NoteTrackStore store, String storeKey) {
+        if (!m_storeKeys.containsValue(storeKey)) {
+            store.remove(storeKey);
+        }
+    }
+
+    private boolean isStoreFolder(Path folder) {
+        NoteTrackStore store = MidiParser.getStore();
+        File storeFolder = store != null ? store.getFolder()
+                : new File(m_folder, NoteTrackStore.FOLDER);
+
+        return folder.toAbsolutePath().equals(storeFolder.toPath().toAbsolutePath());
+    }
+
+    private String getName(Path file) {
+        return m_folder.toPath().relativize(file).toString();
+    }
+
+    /**
+     * Add the songs of the library file, the song packs
+     * are expanded to the songs stored in the pack
+     *
+     * @param file The library file
+     * @param files The found songs
+     */
+    static void addSongs(Path file, List<Path> files) {
+        if (isSong(file)) {
+            files.add(file);
+            return;
+        }
+
+        if (!isArchive(file)) {
+            return;
+        }
+
+        try {
+            final Path entries = getEntriesFolder(file);
+            for (String name : SongPackProvider.list(file.toFile())) {
+                if (SongPackProvider.isMidiFile(name)) {
+                    files.add(entries.resolve(name));
+                }
+            }
+        } catch (IOException ex) {
+            log(Level.WARNING, "Unable to read the song pack " + file.getFileName() + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Get the folder that contains the songs stored in the song pack,
+     * the songs are named like pack.zip!/folder/song.mid
+     *
+     * @param archive The song pack archive
+     * @return The folder path
+     */
+    static Path getEntriesFolder(Path archive) {
+        return archive.resolveSibling(archive.getFileName() + "!");
+    }
+
+    private static boolean isSong(Path file) {
+        return SongPackProvider.isSong(file.getFileName().toString());
+    }
+
+    private static boolean isArchive(Path file) {
+        return SongPackProvider.isArchive(file.getFileName().toString());
+    }
+}
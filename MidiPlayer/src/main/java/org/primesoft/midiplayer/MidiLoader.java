@@ -0,0 +1,321 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.primesoft.midiplayer.midiparser.MidiParser;
+import org.primesoft.midiplayer.midiparser.NoteTrack;
+import org.primesoft.midiplayer.midiparser.SongPackProvider;
+import org.primesoft.midiplayer.midiparser.TrackStream;
+import static org.primesoft.midiplayer.MidiPlayerMain.log;
+
+/**
+ * Loads the MIDI files outside of the server thread.
+ * Concurrent requests for the same file share one parse.
+ * Large files are delivered as a track stream when the first
+ * seconds of the track are parsed.
+ * @author SBPrime
+ */
+public class MidiLoader {
+    /**
+     * Default number of loader threads
+     */
+    public static final int DEFAULT_THREADS = 2;
+
+    /**
+     * Default number of loads that a single player can queue
+     */
+    public static final int DEFAULT_MAX_QUEUED = 2;
+
+    /**
+     * Default minimum size of the files that are played while they are parsed,
+     * streaming is disabled
+     */
+    public static final long DEFAULT_STREAMING_THRESHOLD = -1;
+
+    /**
+     * The length of the track (in milliseconds) that needs to be parsed
+     * before the streamed track is delivered
+     */
+    private static final long STREAM_PRELOAD = 3000;
+
+    /**
+     * Maximum number of files waiting for a loader thread
+     */
+    private static final int QUEUE_SIZE = 32;
+
+    /**
+     * The plugin
+     */
+    private final JavaPlugin m_plugin;
+
+    /**
+     * The scheduler used to return to the server thread
+     */
+    private final BukkitScheduler m_scheduler;
+
+    /**
+     * The loader threads
+     */
+    private final ThreadPoolExecutor m_executor;
+
+    /**
+     * Files that are being loaded
+     */
+    private final Map<String, CompletableFuture<NoteTrack>> m_inFlight;
+
+    /**
+     * Number of queued loads for each player
+     */
+    private final Map<UUID, Integer> m_queued;
+
+    /**
+     * Maximum number of loads that a single player can queue
+     */
+    private volatile int m_maxQueued;
+
+    /**
+     * Minimum size of the files that are played while they are parsed,
+     * negative to disable
+     */
+    private volatile long m_streamingThreshold;
+
+    public MidiLoader(JavaPlugin plugin, BukkitScheduler scheduler) {
+        m_plugin = plugin;
+        m_scheduler = scheduler;
+        m_inFlight = new ConcurrentHashMap<String, CompletableFuture<NoteTrack>>();
+        m_queued = new HashMap<UUID, Integer>();
+        m_maxQueued = DEFAULT_MAX_QUEUED;
+        m_streamingThreshold = DEFAULT_STREAMING_THRESHOLD;
+
+        final AtomicInteger threadId = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread t = new Thread(r, "MidiPlayer loader #" + threadId.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        };
+
+        m_executor = new ThreadPoolExecutor(DEFAULT_THREADS, DEFAULT_THREADS,
+                30, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(QUEUE_SIZE),
+                threadFactory);
+        m_executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Update the loader settings
+     *
+     * @param threads Number of loader threads
+     * @param maxQueued Maximum number of loads that a single player can queue
+     * @param streamingThreshold Minimum size of the files that are played
+     * while they are parsed, negative to disable
+     */
+    public void configure(int threads, int maxQueued, long streamingThreshold) {
+        threads = Math.max(1, threads);
+
+        if (threads > m_executor.getMaximumPoolSize()) {
+            m_executor.setMaximumPoolSize(threads);
+            m_executor.setCorePoolSize(threads);
+        } else {
+            m_executor.setCorePoolSize(threads);
+            m_executor.setMaximumPoolSize(threads);
+        }
+
+        m_maxQueued = Math.max(1, maxQueued);
+        m_streamingThreshold = streamingThreshold;
+    }
+
+    /**
+     * Stop the loader
+     */
+    public void stop() {
+        m_executor.shutdownNow();
+        m_inFlight.clear();
+    }
+
+    /**
+     * Load the MIDI file. The callback is always called on the server thread.
+     * The delivered track might be still parsed (see NoteTrack.isStreamed).
+     *
+     * @param requester The player that requested the file (null for console)
+     * @param midiFile The file to load
+     * @param callback The callback that receives the loaded NoteTrack
+     * @return Whether the load was queued or not
+     */
+    public boolean load(UUID requester, File midiFile, Consumer<NoteTrack> callback) {
+        if (midiFile == null || callback == null) {
+            return false;
+        }
+
+        if (!acquire(requester)) {
+            return false;
+        }
+
+        final String key = MidiParser.getCacheKey(midiFile);
+        final CompletableFuture<NoteTrack> created = new CompletableFuture<NoteTrack>();
+        CompletableFuture<NoteTrack> future = m_inFlight.putIfAbsent(key, created);
+        if (future == null) {
+            future = created;
+            try {
+                m_executor.execute(() -> parse(key, midiFile, created));
+            } catch (RejectedExecutionException ex) {
+                m_inFlight.remove(key, created);
+                created.completeExceptionally(ex);
+                release(requester);
+                log(Level.WARNING, "Too many MIDI files are being loaded, " + midiFile.getName() + " rejected");
+                return false;
+            }
+        }
+
+        future.whenComplete((track, ex) -> {
+            if (ex != null) {
+                log(Level.WARNING, "Error loading " + midiFile.getName() + ": " + ex.getMessage());
+                track = new NoteTrack("Unable to read the MIDI file");
+            }
+
+            deliver(requester, track, callback);
+        });
+
+        return true;
+    }
+
+    /**
+     * Parse the file on the loader thread
+     *
+     * @param key The file key
+     * @param midiFile The file to load
+     * @param result The load result
+     */
+    private void parse(String key, File midiFile, CompletableFuture<NoteTrack> result) {
+        final long threshold = m_streamingThreshold;
+        final TrackStream stream = threshold >= 0 && SongPackProvider.getLength(midiFile) >= threshold
+                ? new TrackStream(STREAM_PRELOAD, s -> result.complete(new NoteTrack(s)))
+                : null;
+
+        NoteTrack track;
+        try {
+            track = MidiParser.loadFile(midiFile, stream);
+        } catch (RuntimeException ex) {
+            m_inFlight.remove(key, result);
+            result.completeExceptionally(ex);
+            return;
+        }
+
+        m_inFlight.remove(key, result);
+        result.complete(track);
+    }
+
+    /**
+     * Return the result to the server thread
+     *
+     * @param requester The player that requested the file
+     * @param track The loaded track
+     * @param callback The callback to run
+     */
+    private void deliver(UUID requester, NoteTrack track, Consumer<NoteTrack> callback) {
+        if (!m_plugin.isEnabled()) {
+            release(requester);
+            return;
+        }
+
+        m_scheduler.runTask(m_plugin, () -> {
+            release(requester);
+            callback.accept(track);
+        });
+    }
+
+    /**
+     * Reserve a queue slot for the player
+     *
+     * @param requester The player
+     * @return Whether the player can queue another load
+     */
+    private boolean acquire(UUID requester) {
+        if (requester == null) {
+            return true;
+        }
+
+        synchronized (m_queued) {
+            int queued = m_queued.getOrDefault(requester, 0);
+            if (queued >= m_maxQueued) {
+                return false;
+            }
+
+            m_queued.put(requester, queued + 1);
+            return true;
+        }
+    }
+
+    /**
+     * Free the player queue slot
+     *
+     * @param requester The player
+     */
+    private void release(UUID requester) {
+        if (requester == null) {
+            return;
+        }
+
+        synchronized (m_queued) {
+            int queued = m_queued.getOrDefault(requester, 0) - 1;
+            if (queued > 0) {
+                m_queued.put(requester, queued);
+            } else {
+                m_queued.remove(requester);
+            }
+        }
+    }
+}
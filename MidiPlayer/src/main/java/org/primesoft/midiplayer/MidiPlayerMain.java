@@ -48,9 +48,14 @@ import org.bukkit.entity.Player;
 import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.plugin.PluginManager;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.primesoft.midiplayer.commands.BenchmarkCommand;
 import org.primesoft.midiplayer.commands.GlobalPlayMidiCommand;
 import org.primesoft.midiplayer.commands.PlayMidiCommand;
 import org.primesoft.midiplayer.commands.ReloadCommand;
+import org.primesoft.midiplayer.commands.SongListCommand;
+import org.primesoft.midiplayer.commands.StatusCommand;
+import org.primesoft.midiplayer.midiparser.SongPackProvider;
+import org.primesoft.midiplayer.sound.SoundPlayer;
 
 /**
  *
@@ -114,6 +119,21 @@ public class MidiPlayerMain extends JavaPlugin {
      * The music player
      */
     private MusicPlayer m_musicPlayer;
+
+    /**
+     * The MIDI file loader
+     */
+    private MidiLoader m_midiLoader;
+
+    /**
+     * The MIDI library watcher, null if disabled
+     */
+    private LibraryWatcher m_libraryWatcher;
+
+    /**
+     * The song library index
+     */
+    private SongIndex m_songIndex;
    
    
     /**
@@ -130,6 +150,47 @@ public class MidiPlayerMain extends JavaPlugin {
         return m_musicPlayer;
     }
 
+    /**
+     * Gets the MIDI file loader
+     * @return The MidiLoader instance
+     */
+    public MidiLoader getMidiLoader() {
+        return m_midiLoader;
+    }
+
+    /**
+     * Gets the song library index
+     * @return The SongIndex instance
+     */
+    public SongIndex getSongIndex() {
+        return m_songIndex;
+    }
+
+    /**
+     * Start or stop the MIDI library watcher. The watcher is restarted
+     * so the library is compiled using the current configuration.
+     * When the library is not watched the song index is updated once.
+     * @param enabled Should the library be watched
+     */
+    public void setWatchLibrary(boolean enabled) {
+        stopLibraryWatcher();
+
+        if (enabled) {
+            //The watcher scan updates the index
+            m_songIndex.stopRebuild();
+            m_libraryWatcher = LibraryWatcher.start(getDataFolder(), m_songIndex);
+        } else {
+            m_songIndex.rebuildAsync();
+        }
+    }
+
+    private void stopLibraryWatcher() {
+        if (m_libraryWatcher != null) {
+            m_libraryWatcher.stop();
+            m_libraryWatcher = null;
+        }
+    }
+
     public String getVersion() {
         return m_version;
     }
@@ -143,6 +204,9 @@ public class MidiPlayerMain extends JavaPlugin {
 
         m_version = desc.getVersion();
         m_musicPlayer = new MusicPlayer(this, server.getScheduler());
+        m_midiLoader = new MidiLoader(this, server.getScheduler());
+        m_songIndex = new SongIndex(getDataFolder());
+        m_songIndex.load();
 
         InitializeCommands();
                 
@@ -160,8 +224,11 @@ public class MidiPlayerMain extends JavaPlugin {
      */
     private void InitializeCommands() {
         m_reloadCommandHandler = new ReloadCommand(this);
-        GlobalPlayMidiCommand playGlobalCommandHandler = new GlobalPlayMidiCommand(this, m_musicPlayer);
-        PlayMidiCommand playCommandHandler = new PlayMidiCommand(this, m_musicPlayer);
+        GlobalPlayMidiCommand playGlobalCommandHandler = new GlobalPlayMidiCommand(this, m_musicPlayer, m_midiLoader, m_songIndex);
+        PlayMidiCommand playCommandHandler = new PlayMidiCommand(this, m_musicPlayer, m_midiLoader, m_songIndex);
+        SongListCommand songListCommandHandler = new SongListCommand(m_songIndex);
+        StatusCommand statusCommandHandler = new StatusCommand(m_musicPlayer, m_songIndex);
+        BenchmarkCommand benchmarkCommandHandler = new BenchmarkCommand(this);
         
         PluginManager pm = getServer().getPluginManager();
         pm.registerEvents( playCommandHandler, this);
@@ -175,6 +242,15 @@ public class MidiPlayerMain extends JavaPlugin {
 
             PluginCommand commandPlay = getCommand("playmidi");
             commandPlay.setExecutor(playCommandHandler);
+
+            PluginCommand commandList = getCommand("midilist");
+            commandList.setExecutor(songListCommandHandler);
+
+            PluginCommand commandStatus = getCommand("mpstatus");
+            commandStatus.setExecutor(statusCommandHandler);
+
+            PluginCommand commandBenchmark = getCommand("mpbench");
+            commandBenchmark.setExecutor(benchmarkCommandHandler);
         }
         catch (NullPointerException ex) {
             log(Level.WARNING, "Error initializing commands");
@@ -183,7 +259,12 @@ public class MidiPlayerMain extends JavaPlugin {
 
     @Override
     public void onDisable() {        
+        stopLibraryWatcher();
+        m_songIndex.save();
+        m_midiLoader.stop();
+        SongPackProvider.close();
         m_musicPlayer.stop();
+        SoundPlayer.setSink(null);
         super.onDisable();
     }
 }
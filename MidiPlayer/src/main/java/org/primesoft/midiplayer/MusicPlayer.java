@@ -41,40 +41,82 @@
 package org.primesoft.midiplayer;
 
 import org.primesoft.midiplayer.track.BaseTrack;
-import java.util.ArrayList;
-import java.util.List;
+import org.primesoft.midiplayer.track.NoteDispatcher;
+import org.primesoft.midiplayer.track.SoundBudget;
+import org.primesoft.midiplayer.track.TrackRegistry;
+import org.primesoft.midiplayer.track.TrackScheduler;
+import org.primesoft.midiplayer.utils.IClock;
 import org.bukkit.scheduler.BukkitScheduler;
 import org.bukkit.scheduler.BukkitTask;
 
 /**
- * Main player timer class
+ * Main player timer class. The timer task runs only
+ * while there are tracks to play.
  * @author SBPrime
  */
 public class MusicPlayer implements Runnable {
     /**
      * Is the player running
      */
-    private boolean m_isRunning;
+    private volatile boolean m_isRunning;
 
     /**
-     * Last run enter time
+     * The player clock
      */
-    private long m_lastEnter;
+    private final IClock m_clock;
 
     /**
-     * List of all playing music tracks
+     * All playing music tracks
      */
-    private final List<BaseTrack> m_playingTracks;
+    private final TrackRegistry m_playingTracks;
 
     /**
-     * The task
+     * Plays the precise tracks between the server ticks
      */
-    private final BukkitTask m_task;
+    private final NoteDispatcher m_dispatcher;
+
+    /**
+     * The tick sound budget
+     */
+    private final SoundBudget m_budget;
+
+    /**
+     * Plays the tracks on the server ticks
+     */
+    private final TrackScheduler m_scheduler;
+
+    /**
+     * The plugin
+     */
+    private final MidiPlayerMain m_plugin;
+
+    /**
+     * The server scheduler
+     */
+    private final BukkitScheduler m_bukkitScheduler;
+
+    /**
+     * Guards the task start and stop
+     */
+    private final Object m_taskLock = new Object();
+
+    /**
+     * The task, null when there is nothing to play
+     */
+    private BukkitTask m_task;
 
     public MusicPlayer(MidiPlayerMain plugin, BukkitScheduler scheduler) {
-        m_lastEnter = System.currentTimeMillis();
-        m_task = scheduler.runTaskTimer(plugin, this, 1, 1);
-        m_playingTracks = new ArrayList<>();
+        this(plugin, scheduler, IClock.SYSTEM);
+    }
+
+    public MusicPlayer(MidiPlayerMain plugin, BukkitScheduler scheduler, IClock clock) {
+        m_plugin = plugin;
+        m_bukkitScheduler = scheduler;
+        m_clock = clock;
+        m_playingTracks = new TrackRegistry();
+        m_dispatcher = new NoteDispatcher(clock);
+        m_budget = new SoundBudget(clock);
+        m_scheduler = new TrackScheduler(m_playingTracks, m_dispatcher, m_budget);
         m_isRunning = true;
     }
 
@@ -82,35 +124,85 @@ public class MusicPlayer implements Runnable {
      * Stop the player
      */
     public void stop() {
-        synchronized (m_playingTracks){
+        synchronized (m_taskLock) {
             m_isRunning = false;
-            m_playingTracks.clear();
+            if (m_task != null) {
+                m_task.cancel();
+                m_task = null;
+            }
+        }
+
+        m_scheduler.clear();
+        m_dispatcher.stop();
+    }
+
+    /**
+     * Get the precise tracks dispatcher
+     *
+     * @return The note dispatcher
+     */
+    public NoteDispatcher getDispatcher() {
+        return m_dispatcher;
+    }
+
+    /**
+     * Get the tick sound budget
+     *
+     * @return The sound budget
+     */
+    public SoundBudget getSoundBudget() {
+        return m_budget;
+    }
+
+    /**
+     * Number of playing tracks
+     *
+     * @return The number of tracks
+     */
+    public int getTrackCount() {
+        return m_playingTracks.size();
+    }
+
+    /**
+     * Is the timer task suspended
+     *
+     * @return true if there is nothing to play
+     */
+    public boolean isSuspended() {
+        synchronized (m_taskLock) {
+            return m_task == null;
         }
-        
-        m_task.cancel();
     }
 
     @Override
     public void run() {
-        final long now = System.currentTimeMillis();
-        final long delta = now - m_lastEnter;
-        m_lastEnter = now;
+        m_scheduler.tick(m_clock.nanoTime());
 
-        final BaseTrack[] tracks;
-        synchronized (m_playingTracks) {
-            tracks = m_playingTracks.toArray(new BaseTrack[0]);
+        if (m_playingTracks.isIdle()) {
+            synchronized (m_taskLock) {
+                //Checked again, a track might be queued before the lock
+                if (m_task != null && m_playingTracks.isIdle()) {
+                    m_task.cancel();
+                    m_task = null;
+                }
+            }
         }
+    }
 
-        for (BaseTrack track : tracks) {
-            track.play(delta);
-            if (track.isFinished()) {
-                removeTrack(track);
+    /**
+     * Start the timer task if it is suspended
+     */
+    private void resume() {
+        synchronized (m_taskLock) {
+            if (m_task == null && m_isRunning) {
+                m_task = m_bukkitScheduler.runTaskTimer(m_plugin, this, 1, 1);
             }
         }
     }
 
     /**
-     * Remove track from playback
+     * Remove track from playback. The track is removed at the start
+     * of the next tick.
      *
      * @param track The track to be removed from this MusicPlayer instance
      */
@@ -118,24 +210,23 @@ public class MusicPlayer implements Runnable {
         if (track == null) {
             return;
         }
-        synchronized (m_playingTracks) {
-            m_playingTracks.remove(track);
-        }
+
+        m_playingTracks.remove(track);
+        m_dispatcher.remove(track);
     }
 
     /**
-     * Play provided track
+     * Play provided track. The track starts playing at the start
+     * of the next tick.
      *
      * @param track The track to be played by this MusicPlayer instance
      */
     public void playTrack(BaseTrack track) {
-        if (track == null) {
+        if (track == null || !m_isRunning) {
             return;
         }
-        synchronized (m_playingTracks) {
-            if (m_isRunning) {
-                m_playingTracks.add(track);
-            }
-        }
+
+        m_playingTracks.add(track);
+        resume();
     }
 }
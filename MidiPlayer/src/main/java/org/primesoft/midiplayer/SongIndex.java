@@ -0,0 +1,560 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+import javax.sound.midi.InvalidMidiDataException;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.primesoft.midiplayer.configuration.ConfigProvider;
+import org.primesoft.midiplayer.midiparser.CompiledTrack;
+import org.primesoft.midiplayer.midiparser.IMidiEventHandler;
+import org.primesoft.midiplayer.midiparser.MidiParser;
+import org.primesoft.midiplayer.midiparser.NoteTrack;
+import org.primesoft.midiplayer.midiparser.SmfReader;
+import org.primesoft.midiplayer.midiparser.SongPackProvider;
+import org.primesoft.midiplayer.utils.PrefixTrie;
+import static org.primesoft.midiplayer.MidiPlayerMain.log;
+
+/**
+ * Persistent index of the MIDI library. The entries are refreshed only
+ * for the files whose size or modification time changed, the song paths
+ * are kept in a prefix trie for the command completion.
+ * @author SBPrime
+ */
+public class SongIndex {
+
+    /**
+     * The index file name
+     */
+    public static final String FILE = "library.json";
+
+    /**
+     * The path separator used in the song paths
+     */
+    public static final char SEPARATOR = '/';
+
+    /**
+     * The maximum number of the command completions
+     */
+    public static final int MAX_COMPLETIONS = 100;
+
+    private static final int VERSION = 1;
+
+    private static final String KEY_VERSION = "version";
+
+    private static final String KEY_SONGS = "songs";
+
+    /**
+     * Collects the track names
+     */
+    private static class TrackNameCollector implements IMidiEventHandler {
+
+        private final List<String> m_names = new ArrayList<String>();
+
+        @Override
+        public void onTrackStart(int track) {
+        }
+
+        @Override
+        public void onTempo(long tick, int tempo) {
+        }
+
+        @Override
+        public void onTrackName(int track, String name) {
+            if (!name.isEmpty() && !m_names.contains(name)) {
+                m_names.add(name);
+            }
+        }
+
+        @Override
+        public void onNoteOn(long tick, int channel, int key, int velocity) {
+        }
+
+        @Override
+        public void onProgramChange(long tick, int channel, int program) {
+        }
+
+        @Override
+        public void onChannelVolume(long tick, int channel, int volume) {
+        }
+    }
+
+    /**
+     * The library folder
+     */
+    private final File m_folder;
+
+    /**
+     * The index file
+     */
+    private final File m_file;
+
+    /**
+     * The indexed songs by path
+     */
+    private final Map<String, SongInfo> m_songs;
+
+    /**
+     * The paths of the valid songs
+     */
+    private final PrefixTrie m_paths;
+
+    /**
+     * Was the index changed since it was saved
+     */
+    private boolean m_isDirty;
+
+    /**
+     * The background rebuild thread
+     */
+    private Thread m_rebuildThread;
+
+    /**
+     * Should the background rebuild stop
+     */
+    private volatile boolean m_isRebuildStopped;
+
+    public SongIndex(File folder) {
+        m_folder = folder;
+        m_file = new File(folder, FILE);
+        m_songs = new HashMap<String, SongInfo>();
+        m_paths = new PrefixTrie();
+    }
+
+    /**
+     * Number of valid songs
+     *
+     * @return The number of songs
+     */
+    public synchronized int getSize() {
+        return m_paths.size();
+    }
+
+    /**
+     * Get the song entry
+     *
+     * @param path The song path (case insensitive)
+     * @return The song or null if not found
+     */
+    public synchronized SongInfo get(String path) {
+        String found = m_paths.get(path);
+        return found != null ? m_songs.get(found) : null;
+    }
+
+    /**
+     * Complete the song path. The subfolders are returned as a single
+     * entry ending with the separator.
+     *
+     * @param prefix The path prefix
+     * @param limit The maximum number of completions
+     * @return The completions
+     */
+    public synchronized List<String> complete(String prefix, int limit) {
+        return m_paths.complete(prefix, SEPARATOR, limit);
+    }
+
+    /**
+     * Count the songs starting with the prefix
+     *
+     * @param prefix The path prefix
+     * @return The number of songs
+     */
+    public synchronized int count(String prefix) {
+        return m_paths.count(prefix);
+    }
+
+    /**
+     * Find the songs starting with the prefix
+     *
+     * @param prefix The path prefix
+     * @param offset Number of songs to skip
+     * @param limit The maximum number of songs
+     * @return The songs sorted by the path
+     */
+    public synchronized List<SongInfo> find(String prefix, int offset, int limit) {
+        List<SongInfo> result = new ArrayList<SongInfo>();
+        for (String path : m_paths.find(prefix, offset, limit)) {
+            result.add(m_songs.get(path));
+        }
+
+        return result;
+    }
+
+    /**
+     * Load the index file
+     */
+    public synchronized void load() {
+        m_songs.clear();
+        m_paths.clear();
+        m_isDirty = false;
+
+        if (!m_file.isFile()) {
+            return;
+        }
+
+        try (Reader reader = Files.newBufferedReader(m_file.toPath(), StandardCharsets.UTF_8)) {
+            Object json = JSONValue.parse(reader);
+            if (!(json instanceof JSONObject)
+                    || !Long.valueOf(VERSION).equals(((JSONObject) json).get(KEY_VERSION))) {
+                log(Level.INFO, "Unsupported song index format, the index will be rebuilt");
+                return;
+            }
+
+            Object songs = ((JSONObject) json).get(KEY_SONGS);
+            if (songs instanceof JSONArray) {
+                for (Object song : (JSONArray) songs) {
+                    SongInfo info = song instanceof JSONObject ? SongInfo.fromJson((JSONObject) song) : null;
+                    if (info != null) {
+                        put(info);
+                    }
+                }
+            }
+            m_isDirty = false;
+        } catch (IOException ex) {
+            log(Level.WARNING, "Unable to load the song index: " + ex.getMessage());
+        } catch (RuntimeException ex) {
+            log(Level.WARNING, "Unable to load the song index: " + ex);
+        }
+    }
+
+    /**
+     * Save the index file if it was changed
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized void save() {
+        if (!m_isDirty) {
+            return;
+        }
+
+        JSONArray songs = new JSONArray();
+        for (SongInfo info : m_songs.values()) {
+            songs.add(info.toJson());
+        }
+
+        JSONObject json = new JSONObject();
+        json.put(KEY_VERSION, VERSION);
+        json.put(KEY_SONGS, songs);
+
+        Path target = m_file.toPath();
+        Path temp = target.resolveSibling(FILE + ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writer.write(json.toJSONString());
+            }
+
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            m_isDirty = false;
+        } catch (IOException ex) {
+            log(Level.WARNING, "Unable to save the song index: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Update the song entry if the file changed. The file is parsed
+     * without using the track cache.
+     *
+     * @param file The MIDI file
+     * @return true if the entry was updated
+     */
+    public boolean update(Path file) {
+        return update(file, null);
+    }
+
+    /**
+     * Update the song entry if the file changed
+     *
+     * @param file The MIDI file
+     * @param track The loaded track, null to parse the file
+     * @return true if the entry was updated
+     */
+    public boolean update(Path file, NoteTrack track) {
+        return update(file, track, null);
+    }
+
+    /**
+     * Update the song entry if the file changed
+     *
+     * @param file The MIDI file
+     * @param track The loaded track, null to parse the file
+     * @param data The file data, null to read the file
+     * @return true if the entry was updated
+     */
+    public boolean update(Path file, NoteTrack track, byte[] data) {
+        final File midiFile = file.toFile();
+        final String path = getPath(file);
+        final long size = SongPackProvider.getLength(midiFile);
+        final long lastModified = SongPackProvider.getLastModified(midiFile);
+
+        synchronized (this) {
+            SongInfo info = m_songs.get(path);
+            if (info != null && info.isCurrent(size, lastModified)) {
+                return false;
+            }
+        }
+
+        SongInfo info = read(midiFile, path, size, lastModified, track, data);
+        synchronized (this) {
+            put(info);
+        }
+        return true;
+    }
+
+    /**
+     * Remove the song entry
+     *
+     * @param file The removed file
+     */
+    public synchronized void remove(Path file) {
+        String path = getPath(file);
+        if (m_songs.remove(path) != null) {
+            m_paths.remove(path);
+            m_isDirty = true;
+        }
+    }
+
+    /**
+     * Get the paths of the songs in the folder and its subfolders
+     *
+     * @param folder The folder
+     * @return The song paths, including the songs that are not valid
+     */
+    public synchronized List<String> getPaths(Path folder) {
+        final String prefix = getPath(folder) + SEPARATOR;
+        List<String> result = new ArrayList<String>();
+        for (String path : m_songs.keySet()) {
+            if (path.startsWith(prefix)) {
+                result.add(path);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Remove the entries of the files that are not in the library
+     *
+     * @param files The library files
+     */
+    public synchronized void retain(Collection<Path> files) {
+        Set<String> paths = new HashSet<String>();
+        for (Path file : files) {
+            paths.add(getPath(file));
+        }
+
+        for (Iterator<String> it = m_songs.keySet().iterator(); it.hasNext();) {
+            String path = it.next();
+            if (!paths.contains(path)) {
+                it.remove();
+                m_paths.remove(path);
+                m_isDirty = true;
+            }
+        }
+    }
+
+    /**
+     * Update the index from the library folder in a background thread
+     */
+    public synchronized void rebuildAsync() {
+        if (m_rebuildThread != null && m_rebuildThread.isAlive()) {
+            return;
+        }
+
+        m_isRebuildStopped = false;
+        m_rebuildThread = new Thread(this::rebuild, "MidiPlayer song index");
+        m_rebuildThread.setDaemon(true);
+        m_rebuildThread.setPriority(Thread.MIN_PRIORITY);
+        m_rebuildThread.start();
+    }
+
+    /**
+     * Stop the background rebuild, the library watcher updates the index
+     */
+    public synchronized void stopRebuild() {
+        m_isRebuildStopped = true;
+    }
+
+    /**
+     * Update the index from the library folder
+     */
+    public void rebuild() {
+        List<Path> files = new ArrayList<Path>();
+        try (Stream<Path> paths = Files.walk(m_folder.toPath())) {
+            paths.filter(Files::isRegularFile).forEach(p -> LibraryWatcher.addSongs(p, files));
+        } catch (IOException ex) {
+            log(Level.WARNING, "Unable to index the MIDI library: " + ex.getMessage());
+            return;
+        } catch (UncheckedIOException ex) {
+            log(Level.WARNING, "Unable to index the MIDI library: " + ex.getCause().getMessage());
+            return;
+        }
+
+        int updated = 0;
+        for (Path file : files) {
+            if (m_isRebuildStopped) {
+                return;
+            }
+
+            if (update(file)) {
+                updated++;
+            }
+        }
+
+        retain(files);
+        save();
+
+        log(Level.INFO, String.format("Indexed %1$s MIDI files, %2$s updated.", files.size(), updated));
+    }
+
+    /**
+     * Get the song path
+     *
+     * @param file The MIDI file
+     * @return The path relative to the library folder
+     */
+    public String getPath(Path file) {
+        String result = m_folder.toPath().toAbsolutePath().relativize(file.toAbsolutePath()).toString();
+        return File.separatorChar == SEPARATOR ? result : result.replace(File.separatorChar, SEPARATOR);
+    }
+
+    private void put(SongInfo info) {
+        m_songs.put(info.getPath(), info);
+        if (info.isValid()) {
+            m_paths.put(info.getPath());
+        } else {
+            m_paths.remove(info.getPath());
+        }
+        m_isDirty = true;
+    }
+
+    /**
+     * Read the song information
+     *
+     * @param midiFile The MIDI file
+     * @param path The song path
+     * @param size The file size
+     * @param lastModified The file modification time
+     * @param track The loaded track, null to parse the file
+     * @param data The file data, null to read the file
+     * @return The song entry
+     */
+    private static SongInfo read(File midiFile, String path, long size, long lastModified,
+            NoteTrack track, byte[] data) {
+        if (track == null) {
+            try {
+                if (SongPackProvider.isPacked(midiFile)) {
+                    data = SongPackProvider.read(midiFile);
+                    track = data != null ? MidiParser.loadData(ByteBuffer.wrap(data), null) : null;
+                } else {
+                    track = MidiParser.parseFile(midiFile, ConfigProvider.getUseJavaxParser());
+                }
+            } catch (IOException ex) {
+                track = null;
+            } catch (InvalidMidiDataException ex) {
+                track = null;
+            } catch (RuntimeException ex) {
+                log(Level.WARNING, String.format("Unable to index %1$s: %2$s", path, ex));
+                track = null;
+            }
+        }
+
+        CompiledTrack notes = track != null ? track.getTrack() : null;
+        if (notes == null) {
+            return new SongInfo(path, size, lastModified, 0, 0, 0, new ArrayList<String>(), false);
+        }
+
+        long length = 0;
+        int peak = 0;
+        for (int i = 0; i < notes.getFrameCount(); i++) {
+            length += notes.getWait(i);
+            peak = Math.max(peak, notes.getNoteCount(i));
+        }
+
+        return new SongInfo(path, size, lastModified, length, notes.getNoteCount(), peak,
+                readTrackNames(midiFile, data), true);
+    }
+
+    /**
+     * Read the track names from the MIDI file meta events
+     *
+     * @param midiFile The MIDI file
+     * @param data The file data, null to read the file
+     * @return The distinct track names
+     */
+    private static List<String> readTrackNames(File midiFile, byte[] data) {
+        TrackNameCollector collector = new TrackNameCollector();
+        try {
+            SmfReader reader = data != null ? SmfReader.open(ByteBuffer.wrap(data)) : SmfReader.open(midiFile);
+            reader.readTracks(collector);
+        } catch (IOException ex) {
+            //The track names are optional
+        } catch (InvalidMidiDataException ex) {
+            //The track names are optional
+        }
+
+        return collector.m_names;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * The song library index entry
+ * @author SBPrime
+ */
+public class SongInfo {
+
+    // Keys used in the index file
+    private static final String KEY_PATH = "path";
+    private static final String KEY_SIZE = "size";
+    private static final String KEY_MODIFIED = "modified";
+    private static final String KEY_LENGTH = "length";
+    private static final String KEY_NOTES = "notes";
+    private static final String KEY_PEAK = "peak";
+    private static final String KEY_TRACKS = "tracks";
+    private static final String KEY_VALID = "valid";
+
+    /**
+     * The path relative to the library folder, using '/' as the separator
+     */
+    private final String m_path;
+
+    /**
+     * The file size
+     */
+    private final long m_size;
+
+    /**
+     * The file modification time
+     */
+    private final long m_lastModified;
+
+    /**
+     * The song length in milliseconds
+     */
+    private final long m_length;
+
+    /**
+     * Number of notes
+     */
+    private final int m_noteCount;
+
+    /**
+     * Maximum number of notes played in a single frame
+     */
+    private final int m_peakNotes;
+
+    /**
+     * The track names from the MIDI meta events
+     */
+    private final List<String> m_trackNames;
+
+    /**
+     * Is the file a valid MIDI file
+     */
+    private final boolean m_isValid;
+
+    public SongInfo(String path, long size, long lastModified, long length,
+            int noteCount, int peakNotes, List<String> trackNames, boolean isValid) {
+        m_path = path;
+        m_size = size;
+        m_lastModified = lastModified;
+        m_length = length;
+        m_noteCount = noteCount;
+        m_peakNotes = peakNotes;
+        m_trackNames = Collections.unmodifiableList(new ArrayList<String>(trackNames));
+        m_isValid = isValid;
+    }
+
+    public String getPath() {
+        return m_path;
+    }
+
+    public long getSize() {
+        return m_size;
+    }
+
+    public long getLastModified() {
+        return m_lastModified;
+    }
+
+    public long getLength() {
+        return m_length;
+    }
+
+    public int getNoteCount() {
+        return m_noteCount;
+    }
+
+    public int getPeakNotes() {
+        return m_peakNotes;
+    }
+
+    public List<String> getTrackNames() {
+        return m_trackNames;
+    }
+
+    public boolean isValid() {
+        return m_isValid;
+    }
+
+    /**
+     * Is the entry up to date with the file
+     *
+     * @param size The current file size
+     * @param lastModified The current file modification time
+     * @return true if the file did not change
+     */
+    public boolean isCurrent(long size, long lastModified) {
+        return m_size == size && m_lastModified == lastModified;
+    }
+
+    /**
+     * Serialize the entry
+     *
+     * @return The JSON object
+     */
+    @SuppressWarnings("unchecked")
+    public JSONObject toJson() {
+        JSONArray tracks = new JSONArray();
+        tracks.addAll(m_trackNames);
+
+        JSONObject result = new JSONObject();
+        result.put(KEY_PATH, m_path);
+        result.put(KEY_SIZE, m_size);
+        result.put(KEY_MODIFIED, m_lastModified);
+        result.put(KEY_LENGTH, m_length);
+        result.put(KEY_NOTES, m_noteCount);
+        result.put(KEY_PEAK, m_peakNotes);
+        result.put(KEY_TRACKS, tracks);
+        result.put(KEY_VALID, m_isValid);
+
+        return result;
+    }
+
+    /**
+     * Deserialize the entry
+     *
+     * @param json The JSON object
+     * @return The entry or null if the object is not a valid entry
+     */
+    public static SongInfo fromJson(JSONObject json) {
+        if (json == null || !(json.get(KEY_PATH) instanceof String)) {
+            return null;
+        }
+
+        List<String> trackNames = new ArrayList<String>();
+        Object tracks = json.get(KEY_TRACKS);
+        if (tracks instanceof JSONArray) {
+            for (Object name : (JSONArray) tracks) {
+                if (name instanceof String) {
+                    trackNames.add((String) name);
+                }
+            }
+        }
+
+        return new SongInfo((String) json.get(KEY_PATH),
+                getLong(json, KEY_SIZE), getLong(json, KEY_MODIFIED), getLong(json, KEY_LENGTH),
+                (int) getLong(json, KEY_NOTES), (int) getLong(json, KEY_PEAK),
+                trackNames, Boolean.TRUE.equals(json.get(KEY_VALID)));
+    }
+
+    private static long getLong(JSONObject json, String key) {
+        Object value = json.get(key);
+        return value instanceof Number ? ((Number) value).longValue() : -1;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.commands;
+
+import java.io.File;
+import java.io.IOException;
+import javax.sound.midi.InvalidMidiDataException;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.java.JavaPlugin;
+import static org.primesoft.midiplayer.MidiPlayerMain.say;
+import org.primesoft.midiplayer.midiparser.MidiParser;
+import org.primesoft.midiplayer.midiparser.NoteTrack;
+import org.primesoft.midiplayer.utils.InOutParam;
+import org.primesoft.midiplayer.utils.Utils;
+
+/**
+ * Compare the MIDI readers command
+ * @author SBPrime
+ */
+public class BenchmarkCommand extends BaseCommand {
+
+    /**
+     * Default number of parse iterations
+     */
+    private static final int DEFAULT_ITERATIONS = 10;
+
+    /**
+     * Maximum number of parse iterations
+     */
+    private static final int MAX_ITERATIONS = 100;
+
+    private final JavaPlugin m_plugin;
+
+    public BenchmarkCommand(JavaPlugin plugin) {
+        m_plugin = plugin;
+    }
+
+    @Override
+    public boolean onCommand(CommandSender cs, Command cmnd, String name, String[] args) {
+        if (args == null || args.length < 1 || args.length > 2) {
+            return false;
+        }
+
+        final Player player = (cs instanceof Player) ? (Player) cs : null;
+        final File midiFile = Utils.getFile(m_plugin.getDataFolder(), args[0]);
+        if (midiFile == null) {
+            say(player, "The MIDI file must be in the plugin folder");
+            return true;
+        }
+
+        final InOutParam<Integer> iterations = InOutParam.Out();
+        if (args.length < 2) {
+            iterations.setValue(DEFAULT_ITERATIONS);
+        } else if (!Utils.TryParseInteger(args[1], iterations) || iterations.getValue() < 1) {
+            return false;
+        } else if (iterations.getValue() > MAX_ITERATIONS) {
+            say(player, String.format("Too many iterations, using %1$s", MAX_ITERATIONS));
+            iterations.setValue(MAX_ITERATIONS);
+        }
+
+        m_plugin.getServer().getScheduler().runTaskAsynchronously(m_plugin,
+                () -> benchmark(player, midiFile, iterations.getValue()));
+        return true;
+    }
+
+    /**
+     * Parse the file with both readers and report the times
+     * @param player The player that requested the benchmark
+     * @param midiFile The file to parse
+     * @param iterations Number of parse iterations
+     */
+    private void benchmark(Player player, File midiFile, int iterations) {
+        String result;
+        try {
+            result = String.format("%1$s: %2$s", midiFile.getName(), benchmark(midiFile, false, iterations));
+            result += String.format(", %1$s", benchmark(midiFile, true, iterations));
+        } catch (IOException ex) {
+            result = "Unable to read the MIDI file";
+        } catch (InvalidMidiDataException ex) {
+            result = "Invalid or corrupted MIDI file";
+        }
+
+        final String message = result;
+        m_plugin.getServer().getScheduler().runTask(m_plugin, () -> say(player, message));
+    }
+
+    /**
+     * Measure the parse time
+     * @param midiFile The file to parse
+     * @param useJavax Use the javax reader
+     * @param iterations Number of parse iterations
+     * @return The benchmark result
+     * @throws IOException When failed to read the file
+     * @throws InvalidMidiDataException When the file contains wrong midi data
+     */
+    private static String benchmark(File midiFile, boolean useJavax, int iterations)
+            throws IOException, InvalidMidiDataException {
+        //Warm up
+        NoteTrack track = MidiParser.parseFile(midiFile, useJavax);
+        if (track == null) {
+            throw new IOException();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            MidiParser.parseFile(midiFile, useJavax);
+        }
+        double time = (System.nanoTime() - start) / 1000000.0 / iterations;
+
+        return String.format("%1$s %2$.2fms (%3$s notes)", useJavax ? "javax" : "smf",
+                time, track.getNoteCount());
+    }
+}
@@ -41,17 +41,21 @@
 package org.primesoft.midiplayer.commands;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Level;
 
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.primesoft.midiplayer.MidiLoader;
 import org.primesoft.midiplayer.MusicPlayer;
+import org.primesoft.midiplayer.SongIndex;
+import org.primesoft.midiplayer.configuration.ConfigProvider;
 import static org.primesoft.midiplayer.MidiPlayerMain.say;
 import static org.primesoft.midiplayer.MidiPlayerMain.log;
-import org.primesoft.midiplayer.midiparser.MidiParser;
-import org.primesoft.midiplayer.midiparser.NoteFrame;
+import org.primesoft.midiplayer.midiparser.IFrameSource;
 import org.primesoft.midiplayer.midiparser.NoteTrack;
 import org.primesoft.midiplayer.track.GlobalTrack;
 
@@ -62,18 +66,26 @@ import org.primesoft.midiplayer.track.GlobalTrack;
 public class GlobalPlayMidiCommand extends BaseCommand {
 
     private final MusicPlayer m_player;
+    private final MidiLoader m_loader;
     private GlobalTrack m_currentTrack;
+    private Object m_currentRequest;
     private final JavaPlugin m_plugin;
+    private final SongIndex m_index;
 
-    public GlobalPlayMidiCommand(JavaPlugin plugin, MusicPlayer player) {
+    public GlobalPlayMidiCommand(JavaPlugin plugin, MusicPlayer player, MidiLoader loader, SongIndex index) {
         m_plugin = plugin;
         m_player = player;
+        m_loader = loader;
+        m_index = index;
         m_currentTrack = null;
+        m_currentRequest = null;
     }
 
     @Override
     public boolean onCommand(CommandSender cs, Command cmnd, String name, String[] args) {
         m_player.removeTrack(m_currentTrack);
+        m_currentTrack = null;
+        m_currentRequest = null;
 
         String fileName = args != null && args.length > 0 ? args[0] : null;
         if (fileName == null) {
@@ -81,23 +93,71 @@ public class GlobalPlayMidiCommand extends BaseCommand {
         }
 
         boolean loop = args.length > 1 ? args[1].equalsIgnoreCase("true") : false;
+        boolean precise = args.length > 2 ? args[2].equalsIgnoreCase("true") : ConfigProvider.getPreciseTiming();
 
         Player player = cs instanceof Player ? (Player) cs : null;
-        NoteTrack noteTrack = MidiParser.loadFile(new File(m_plugin.getDataFolder(), fileName));
+        final Object request = new Object();
+        m_currentRequest = request;
+
+        if (!m_loader.load(player != null ? player.getUniqueId() : null,
+                new File(m_plugin.getDataFolder(), fileName),
+                noteTrack -> onLoaded(player, request, fileName, loop, precise, noteTrack))) {
+            m_currentRequest = null;
+            say(player, "Too many midi tracks are being loaded, try again later");
+        }
+
+        return true;
+    }
+
+    @Override
+    public List<String> onTabComplete(CommandSender cs, Command cmnd, String name, String[] args) {
+        if (args.length == 1) {
+            return m_index.complete(args[0], SongIndex.MAX_COMPLETIONS);
+        } else if (args.length == 2 || args.length == 3) {
+            return Arrays.asList("false", "true");
+        }
+
+        return super.onTabComplete(cs, cmnd, name, args);
+    }
+
+    /**
+     * Start the loaded track
+     * @param player The player that requested the track
+     * @param request The request
+     * @param fileName The loaded file name
+     * @param loop Is the track looped
+     * @param precise Play the track at the exact note times
+     * @param noteTrack The loaded track
+     */
+    private void onLoaded(Player player, Object request, String fileName, boolean loop, boolean precise,
+            NoteTrack noteTrack) {
+        if (m_currentRequest != request) {
+            //Another track was requested
+            return;
+        }
+        m_currentRequest = null;
+
+        if (player != null && !player.isOnline()) {
+            player = null;
+        }
+
         if (noteTrack == null) {
             say(player, "Error loading " + fileName + " midi track");
             log(Level.WARNING, "Error loading " + fileName + " midi track");
-            return true;
+            return;
         } else if (noteTrack.isError()) {
             say(player, "Error loading " + fileName + " midi track: " + noteTrack.getMessage());
             log(Level.WARNING, "Error loading " + fileName + " midi track: " + noteTrack.getMessage());
-            return true;
+            return;
         }
 
-        final NoteFrame[] notes = noteTrack.getNotes();
+        final IFrameSource notes = noteTrack.getSource();
         m_currentTrack = new GlobalTrack(m_plugin, notes, loop);
+        m_currentTrack.setPrecise(precise);
+        if (precise && !m_currentTrack.isPrecise()) {
+            say(player, "Precise timing is not available with the current note sink");
+        }
+        m_currentTrack.setOverloadPolicy(ConfigProvider.getOverloadPolicy());
         m_player.playTrack(m_currentTrack);
-
-        return true;
     }
 }
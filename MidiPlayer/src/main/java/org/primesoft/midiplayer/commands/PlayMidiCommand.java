@@ -41,7 +41,9 @@
 package org.primesoft.midiplayer.commands;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import org.bukkit.command.Command;
@@ -51,10 +53,12 @@ import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.primesoft.midiplayer.MidiLoader;
 import org.primesoft.midiplayer.MusicPlayer;
+import org.primesoft.midiplayer.SongIndex;
+import org.primesoft.midiplayer.configuration.ConfigProvider;
 import static org.primesoft.midiplayer.MidiPlayerMain.say;
-import org.primesoft.midiplayer.midiparser.MidiParser;
-import org.primesoft.midiplayer.midiparser.NoteFrame;
+import org.primesoft.midiplayer.midiparser.IFrameSource;
 import org.primesoft.midiplayer.midiparser.NoteTrack;
 import org.primesoft.midiplayer.track.PlayerTrack;
 
@@ -65,13 +69,19 @@ import org.primesoft.midiplayer.track.PlayerTrack;
 public class PlayMidiCommand extends BaseCommand implements Listener {
 
     private final MusicPlayer m_player;
+    private final MidiLoader m_loader;
     private final Map<UUID, PlayerTrack> m_tracks;
+    private final Map<UUID, Object> m_requests;
     private final JavaPlugin m_plugin;
+    private final SongIndex m_index;
 
-    public PlayMidiCommand(JavaPlugin plugin, MusicPlayer player) {
+    public PlayMidiCommand(JavaPlugin plugin, MusicPlayer player, MidiLoader loader, SongIndex index) {
         m_plugin = plugin;
         m_player = player;
+        m_loader = loader;
+        m_index = index;
         m_tracks = new HashMap<UUID, PlayerTrack>();
+        m_requests = new HashMap<UUID, Object>();
     }
 
     @EventHandler
@@ -79,6 +89,7 @@ public class PlayMidiCommand extends BaseCommand implements Listener {
         Player p = event.getPlayer();
         UUID uuid = p.getUniqueId();
         synchronized (m_tracks) {
+            m_requests.remove(uuid);
             if (m_tracks.containsKey(uuid)) {
                 m_player.removeTrack(m_tracks.get(uuid));
                 m_tracks.remove(uuid);
@@ -95,6 +106,7 @@ public class PlayMidiCommand extends BaseCommand implements Listener {
 
         UUID uuid = player.getUniqueId();
         synchronized (m_tracks) {
+            m_requests.remove(uuid);
             if (m_tracks.containsKey(uuid)) {
                 m_player.removeTrack(m_tracks.get(uuid));
                 m_tracks.remove(uuid);
@@ -106,22 +118,72 @@ public class PlayMidiCommand extends BaseCommand implements Listener {
             return true;
         }
 
-        NoteTrack noteTrack = MidiParser.loadFile(new File(m_plugin.getDataFolder(), fileName));
+        final boolean precise = args.length > 1 ? args[1].equalsIgnoreCase("true") : ConfigProvider.getPreciseTiming();
+        final Object request = new Object();
+        synchronized (m_tracks) {
+            m_requests.put(uuid, request);
+        }
+
+        if (!m_loader.load(uuid, new File(m_plugin.getDataFolder(), fileName),
+                noteTrack -> onLoaded(player, request, precise, noteTrack))) {
+            synchronized (m_tracks) {
+                m_requests.remove(uuid, request);
+            }
+            say(player, "Too many midi tracks are being loaded, try again later");
+        }
+
+        return true;
+    }
+
+    @Override
+    public List<String> onTabComplete(CommandSender cs, Command cmnd, String name, String[] args) {
+        if (args.length == 1) {
+            return m_index.complete(args[0], SongIndex.MAX_COMPLETIONS);
+        } else if (args.length == 2) {
+            return Arrays.asList("false", "true");
+        }
+
+        return super.onTabComplete(cs, cmnd, name, args);
+    }
+
+    /**
+     * Start the loaded track
+     * @param player The player that requested the track
+     * @param request The request
+     * @param precise Play the track at the exact note times
+     * @param noteTrack The loaded track
+     */
+    private void onLoaded(Player player, Object request, boolean precise, NoteTrack noteTrack) {
+        UUID uuid = player.getUniqueId();
+        synchronized (m_tracks) {
+            if (!m_requests.remove(uuid, request)) {
+                //The player requested another track or left the server
+                return;
+            }
+        }
+
+        if (!player.isOnline()) {
+            return;
+        }
+
         if (noteTrack == null) {
             say(player, "Error loading midi track");
-            return true;
+            return;
         } else if (noteTrack.isError()) {
             say(player, "Error loading midi track: " + noteTrack.getMessage());
-            return true;
+            return;
         }
 
-        final NoteFrame[] notes = noteTrack.getNotes();
+        final IFrameSource notes = noteTrack.getSource();
         final PlayerTrack track = new PlayerTrack(player, notes);
+        track.setPrecise(precise);
+        if (precise && !track.isPrecise()) {
+            say(player, "Precise timing is not available with the current note sink");
+        }
+        track.setOverloadPolicy(ConfigProvider.getOverloadPolicy());
         synchronized (m_tracks) {
             m_tracks.put(uuid, track);
         }
         m_player.playTrack(track);
-
-        return true;
     }
 }
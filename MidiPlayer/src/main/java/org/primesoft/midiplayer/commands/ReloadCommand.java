@@ -51,6 +51,11 @@ import org.primesoft.midiplayer.MidiPlayerMain;
 import static org.primesoft.midiplayer.MidiPlayerMain.log;
 import org.primesoft.midiplayer.VersionChecker;
 import org.primesoft.midiplayer.instruments.MapFileParser;
+import org.primesoft.midiplayer.midiparser.MidiParser;
+import org.primesoft.midiplayer.midiparser.NoteReducer;
+import org.primesoft.midiplayer.midiparser.NoteTrackCache;
+import org.primesoft.midiplayer.midiparser.NoteTrackStore;
+import org.primesoft.midiplayer.sound.SoundPlayer;
 
 /**
  * Reload configuration command
@@ -93,6 +98,32 @@ public class ReloadCommand extends BaseCommand {
         if (!ReloadInstrumentMap(player)) {
             return false;
         }
+
+        NoteTrackCache cache = MidiParser.getCache();
+        cache.clear();
+        cache.setMaxWeight(ConfigProvider.getCacheSize());
+
+        NoteTrackStore store = ConfigProvider.getUseTrackStore()
+                ? new NoteTrackStore(new File(ConfigProvider.getPluginFolder(), NoteTrackStore.FOLDER),
+                        ConfigProvider.getTrackStoreSize())
+                : null;
+        if (store != null) {
+            store.trim();
+        }
+        MidiParser.setStore(store);
+        MidiParser.setParallelThreshold(ConfigProvider.getParallelParseThreshold());
+        MidiParser.setTickQuantized(ConfigProvider.getTickQuantize());
+        MidiParser.setReducer(ConfigProvider.getReduceDensity()
+                ? new NoteReducer(ConfigProvider.getReduceWindow(), ConfigProvider.getReduceMaxNotes())
+                : null);
+
+        m_pluginMain.getMidiLoader().configure(ConfigProvider.getLoaderThreads(),
+                ConfigProvider.getMaxQueuedLoads(), ConfigProvider.getStreamingThreshold());
+        m_pluginMain.getMusicPlayer().getSoundBudget().configure(ConfigProvider.getMaxSoundsPerTick(),
+                ConfigProvider.getMaxTickMicros() * 1000);
+        SoundPlayer.setSink(SoundPlayer.createSink(ConfigProvider.getNoteSink(),
+                m_pluginMain.getServer(), ConfigProvider.getSoundCategory()));
+        m_pluginMain.setWatchLibrary(ConfigProvider.getWatchLibrary());
         MidiPlayerMain.say(player, "Config loaded");
         return true;
     }
@@ -0,0 +1,132 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.commands;
+
+import java.util.List;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.primesoft.midiplayer.SongIndex;
+import org.primesoft.midiplayer.SongInfo;
+import static org.primesoft.midiplayer.MidiPlayerMain.say;
+
+/**
+ * List the songs in the MIDI library command
+ * @author SBPrime
+ */
+public class SongListCommand extends BaseCommand {
+
+    /**
+     * Number of songs on a page
+     */
+    private static final int PAGE_SIZE = 10;
+
+    private final SongIndex m_index;
+
+    public SongListCommand(SongIndex index) {
+        m_index = index;
+    }
+
+    @Override
+    public boolean onCommand(CommandSender cs, Command cmnd, String name, String[] args) {
+        if (args != null && args.length > 2) {
+            return false;
+        }
+
+        Player player = (cs instanceof Player) ? (Player) cs : null;
+        String prefix = args != null && args.length > 0 ? args[0] : "";
+        int page = 1;
+        if (args != null && args.length > 1) {
+            try {
+                page = Integer.parseInt(args[1]);
+            } catch (NumberFormatException ex) {
+                return false;
+            }
+        }
+
+        SongInfo song = args != null && args.length == 1 ? m_index.get(prefix) : null;
+        if (song != null) {
+            say(player, song.getPath());
+            say(player, String.format("Length: %1$s, %2$s notes, at most %3$s notes at once",
+                    formatLength(song.getLength()), song.getNoteCount(), song.getPeakNotes()));
+            if (!song.getTrackNames().isEmpty()) {
+                say(player, "Tracks: " + String.join(", ", song.getTrackNames()));
+            }
+            return true;
+        }
+
+        int count = m_index.count(prefix);
+        if (count == 0) {
+            say(player, "No songs found");
+            return true;
+        }
+
+        int pages = (count + PAGE_SIZE - 1) / PAGE_SIZE;
+        page = Math.max(1, Math.min(page, pages));
+
+        say(player, String.format("Songs: %1$s (page %2$s of %3$s)", count, page, pages));
+        for (SongInfo info : m_index.find(prefix, (page - 1) * PAGE_SIZE, PAGE_SIZE)) {
+            say(player, String.format("%1$s - %2$s, %3$s notes",
+                    info.getPath(), formatLength(info.getLength()), info.getNoteCount()));
+        }
+        return true;
+    }
+
+    @Override
+    public List<String> onTabComplete(CommandSender cs, Command cmnd, String name, String[] args) {
+        if (args.length == 1) {
+            return m_index.complete(args[0], SongIndex.MAX_COMPLETIONS);
+        }
+
+        return super.onTabComplete(cs, cmnd, name, args);
+    }
+
+    /**
+     * Format the song length
+     *
+     * @param millis The length in milliseconds
+     * @return The length as m:ss
+     */
+    private static String formatLength(long millis) {
+        long seconds = (millis + 500) / 1000;
+        return String.format("%1$d:%2$02d", seconds / 60, seconds % 60);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.commands;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.primesoft.midiplayer.MusicPlayer;
+import org.primesoft.midiplayer.SongIndex;
+import static org.primesoft.midiplayer.MidiPlayerMain.say;
+import org.primesoft.midiplayer.midiparser.MidiParser;
+import org.primesoft.midiplayer.midiparser.NoteReducer;
+import org.primesoft.midiplayer.midiparser.NoteTrackCache;
+import org.primesoft.midiplayer.midiparser.NoteTrackStore;
+import org.primesoft.midiplayer.midiparser.SongPackProvider;
+import org.primesoft.midiplayer.sound.SoundPlayer;
+import org.primesoft.midiplayer.track.BaseTrack;
+import org.primesoft.midiplayer.track.SoundBudget;
+import org.primesoft.midiplayer.track.TimingHistogram;
+
+/**
+ * Show the plugin status command
+ * @author SBPrime
+ */
+public class StatusCommand extends BaseCommand {
+
+    private final MusicPlayer m_player;
+    private final SongIndex m_index;
+
+    public StatusCommand(MusicPlayer player, SongIndex index) {
+        m_player = player;
+        m_index = index;
+    }
+
+    @Override
+    public boolean onCommand(CommandSender cs, Command cmnd, String name, String[] args) {
+        if (args != null && args.length > 0) {
+            return false;
+        }
+
+        Player player = (cs instanceof Player) ? (Player) cs : null;
+
+        say(player, String.format("Player: %1$s playing tracks%2$s", m_player.getTrackCount(),
+                m_player.isSuspended() ? " (suspended)" : ""));
+        say(player, "Tick timing: " + BaseTrack.getTickTiming());
+        TimingHistogram dispatcherTiming = m_player.getDispatcher().getTiming();
+        if (dispatcherTiming.getCount() > 0) {
+            say(player, "Precise timing: " + dispatcherTiming);
+        }
+        if (dispatcherTiming.getDeferred() > 0) {
+            say(player, String.format("Precise timing: %1$s frames deferred to the server ticks",
+                    dispatcherTiming.getDeferred()));
+        }
+
+        SoundBudget budget = m_player.getSoundBudget();
+        say(player, String.format("Sound budget: %1$s sounds played, %2$s limited ticks, %3$s frames deferred, %4$s frames dropped",
+                budget.getSounds(), budget.getExhaustedTicks(), budget.getDeferred(), budget.getDropped()));
+
+        say(player, "Note sink: " + SoundPlayer.getSink());
+
+        NoteTrackCache cache = MidiParser.getCache();
+        say(player, String.format("Cache: %1$s tracks, %2$s/%3$s notes",
+                cache.getSize(), cache.getWeight(), cache.getMaxWeight()));
+        say(player, String.format("Cache: %1$s hits, %2$s misses, %3$s evictions",
+                cache.getHits(), cache.getMisses(), cache.getEvictions()));
+
+        NoteTrackStore store = MidiParser.getStore();
+        if (store != null) {
+            say(player, String.format("Track store: %1$s hits, %2$s misses, %3$s writes",
+                    store.getHits(), store.getMisses(), store.getWrites()));
+        }
+
+        NoteReducer reducer = MidiParser.getReducer();
+        if (reducer != null) {
+            say(player, String.format("Density reducer: %1$s notes merged, %2$s notes dropped",
+                    NoteReducer.getMerged(), NoteReducer.getDropped()));
+        }
+
+        say(player, String.format("Song index: %1$s songs", m_index.getSize()));
+        say(player, String.format("Song packs: %1$s open archives", SongPackProvider.getOpenCount()));
+        return true;
+    }
+}
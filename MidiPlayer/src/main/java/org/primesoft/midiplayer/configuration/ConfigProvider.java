@@ -52,6 +52,13 @@ import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfigurationOptions;
 import org.bukkit.plugin.java.JavaPlugin;
 import static org.primesoft.midiplayer.MidiPlayerMain.log;
+import org.primesoft.midiplayer.MidiLoader;
+import org.primesoft.midiplayer.midiparser.MidiParser;
+import org.primesoft.midiplayer.midiparser.NoteReducer;
+import org.primesoft.midiplayer.midiparser.NoteTrackStore;
+import org.primesoft.midiplayer.sound.SoundPlayer;
+import org.primesoft.midiplayer.track.OverloadPolicy;
+import org.primesoft.midiplayer.track.SoundBudget;
 
 /**
  * This class contains configuration
@@ -79,6 +86,42 @@ public class ConfigProvider {
 
     private static SoundCategory m_soundCategory;
 
+    private static long m_cacheSize;
+
+    private static int m_loaderThreads;
+
+    private static int m_maxQueuedLoads;
+
+    private static boolean m_useJavaxParser;
+
+    private static boolean m_useTrackStore;
+
+    private static long m_trackStoreSize;
+
+    private static boolean m_watchLibrary;
+
+    private static long m_streamingThreshold;
+
+    private static long m_parallelParseThreshold;
+
+    private static boolean m_tickQuantize;
+
+    private static boolean m_reduceDensity;
+
+    private static int m_reduceWindow;
+
+    private static int m_reduceMaxNotes;
+
+    private static boolean m_preciseTiming;
+
+    private static int m_maxSoundsPerTick;
+
+    private static long m_maxTickMicros;
+
+    private static OverloadPolicy m_overloadPolicy;
+
+    private static String m_noteSink;
+
     /**
      * Plugin root folder
      *
@@ -127,6 +170,170 @@ public class ConfigProvider {
         return m_soundCategory;
     }
 
+    /**
+     * Get the parsed MIDI files cache size
+     *
+     * @return The maximum number of cached notes
+     */
+    public static long getCacheSize() {
+        return m_cacheSize;
+    }
+
+    /**
+     * Get the number of threads used to load the MIDI files
+     *
+     * @return Number of loader threads
+     */
+    public static int getLoaderThreads() {
+        return m_loaderThreads;
+    }
+
+    /**
+     * Get the number of MIDI files that a player can queue for loading
+     *
+     * @return Maximum number of queued files
+     */
+    public static int getMaxQueuedLoads() {
+        return m_maxQueuedLoads;
+    }
+
+    /**
+     * Should the javax.sound.midi reader be used instead of the SMF reader
+     *
+     * @return true if the javax reader is used
+     */
+    public static boolean getUseJavaxParser() {
+        return m_useJavaxParser;
+    }
+
+    /**
+     * Should the compiled MIDI files be stored in the cache folder
+     *
+     * @return true if the track store is enabled
+     */
+    public static boolean getUseTrackStore() {
+        return m_useTrackStore;
+    }
+
+    /**
+     * The maximum size of the stored tracks
+     *
+     * @return The size in bytes, 0 for no limit
+     */
+    public static long getTrackStoreSize() {
+        return m_trackStoreSize;
+    }
+
+    /**
+     * Should the plugin folder be watched for new MIDI files
+     *
+     * @return true if the new files are precompiled
+     */
+    public static boolean getWatchLibrary() {
+        return m_watchLibrary;
+    }
+
+    /**
+     * Get the minimum size of the MIDI files that are played while they are parsed
+     *
+     * @return The file size in bytes, negative if disabled
+     */
+    public static long getStreamingThreshold() {
+        return m_streamingThreshold;
+    }
+
+    /**
+     * Get the minimum number of events in the MIDI files that are parsed on multiple threads
+     *
+     * @return The number of events, negative if disabled
+     */
+    public static long getParallelParseThreshold() {
+        return m_parallelParseThreshold;
+    }
+
+    /**
+     * Should the MIDI files be compiled to one frame per server tick
+     *
+     * @return true if the notes are snapped to the server ticks
+     */
+    public static boolean getTickQuantize() {
+        return m_tickQuantize;
+    }
+
+    /**
+     * Should the note density of the MIDI files be reduced
+     *
+     * @return true if the density reducer is enabled
+     */
+    public static boolean getReduceDensity() {
+        return m_reduceDensity;
+    }
+
+    /**
+     * Get the density reducer window
+     *
+     * @return The window length in milliseconds
+     */
+    public static int getReduceWindow() {
+        return m_reduceWindow;
+    }
+
+    /**
+     * Get the maximum number of notes in the density reducer window
+     *
+     * @return The number of notes
+     */
+    public static int getReduceMaxNotes() {
+        return m_reduceMaxNotes;
+    }
+
+    /**
+     * Should the new tracks be played at the exact note times
+     * by the note dispatcher instead of the server ticks
+     *
+     * @return true if the new tracks are precise
+     */
+    public static boolean getPreciseTiming() {
+        return m_preciseTiming;
+    }
+
+    /**
+     * Get the maximum number of sounds played on a single server tick
+     *
+     * @return The number of sounds, 0 for no limit
+     */
+    public static int getMaxSoundsPerTick() {
+        return m_maxSoundsPerTick;
+    }
+
+    /**
+     * Get the maximum time spent playing the notes on a single server tick
+     *
+     * @return The time in microseconds, 0 for no limit
+     */
+    public static long getMaxTickMicros() {
+        return m_maxTickMicros;
+    }
+
+    /**
+     * What should the new tracks do with the frames
+     * that do not fit the tick sound budget
+     *
+     * @return The overload policy
+     */
+    public static OverloadPolicy getOverloadPolicy() {
+        return m_overloadPolicy;
+    }
+
+    /**
+     * Get the name of the note sink that plays the notes
+     *
+     * @return The sink name (see SoundPlayer)
+     */
+    public static String getNoteSink() {
+        return m_noteSink;
+    }
+
     /**
      * Load configuration
      *
@@ -183,10 +390,42 @@ public class ConfigProvider {
         m_drumMap = mainSection.getString("drum", "");
 
         m_soundCategory = parseSoundCategory(mainSection.getString("soundCategory", "music"));
+        m_cacheSize = mainSection.getLong("cacheSize", MidiParser.DEFAULT_CACHE_SIZE);
+        m_loaderThreads = mainSection.getInt("loaderThreads", MidiLoader.DEFAULT_THREADS);
+        m_maxQueuedLoads = mainSection.getInt("maxQueuedLoads", MidiLoader.DEFAULT_MAX_QUEUED);
+        m_useJavaxParser = "javax".equalsIgnoreCase(mainSection.getString("midiReader", "smf"));
+        m_useTrackStore = mainSection.getBoolean("trackStore", false);
+        m_trackStoreSize = mainSection.getLong("trackStoreSize", NoteTrackStore.DEFAULT_MAX_SIZE);
+        m_watchLibrary = mainSection.getBoolean("watchLibrary", false);
+        m_streamingThreshold = mainSection.getLong("streamingThreshold", MidiLoader.DEFAULT_STREAMING_THRESHOLD);
+        m_parallelParseThreshold = mainSection.getLong("parallelParseThreshold", MidiParser.DEFAULT_PARALLEL_THRESHOLD);
+        m_tickQuantize = mainSection.getBoolean("tickQuantize", false);
+        m_reduceDensity = mainSection.getBoolean("reduceDensity", false);
+        m_reduceWindow = Math.max(1, mainSection.getInt("reduceWindow", NoteReducer.DEFAULT_WINDOW));
+        m_reduceMaxNotes = Math.max(1, mainSection.getInt("reduceMaxNotes", NoteReducer.DEFAULT_MAX_NOTES));
+        m_preciseTiming = mainSection.getBoolean("preciseTiming", false);
+        m_maxSoundsPerTick = Math.max(0, mainSection.getInt("maxSoundsPerTick", SoundBudget.DEFAULT_MAX_SOUNDS));
+        m_maxTickMicros = Math.max(0, mainSection.getLong("maxTickMicros", 0));
+        m_overloadPolicy = parseOverloadPolicy(mainSection.getString("overloadPolicy", "defer"));
+        m_noteSink = mainSection.getString("noteSink", SoundPlayer.BUKKIT);
 
         return true;
     }
 
+    private static OverloadPolicy parseOverloadPolicy(String policyName) {
+        if (policyName != null) {
+            policyName = policyName.trim();
+            for (OverloadPolicy p : OverloadPolicy.values()) {
+                if (policyName.equalsIgnoreCase(p.name())) {
+                    return p;
+                }
+            }
+        }
+
+        log(Level.WARNING, "Specified overload policy not found! Using " + OverloadPolicy.DEFER.name());
+        return OverloadPolicy.DEFER;
+    }
+
     private static SoundCategory parseSoundCategory(String categoryName) {
         if (categoryName != null) {
             categoryName = categoryName.trim();
@@ -70,6 +70,16 @@ public class InstrumentMap {
      * Default drum instrument
      */
     private static InstrumentEntry s_defaultDrum;
+
+    /**
+     * The digest of the loaded instrument map file
+     */
+    private static String s_instrumentSignature = "";
+
+    /**
+     * The digest of the loaded drum map file
+     */
+    private static String s_drumSignature = "";
     
     static {
         InstrumentEntry instrument = new InstrumentEntry("note.harp", 1.0f);
@@ -129,15 +139,28 @@ public class InstrumentMap {
         }
     }
 
+    /**
+     * Get the signature of the loaded instrument and drum maps.
+     * The signature changes when the map files are changed.
+     * @return The map signature
+     */
+    public static String getSignature() {
+        synchronized (s_mutex) {
+            return s_instrumentSignature + ":" + s_drumSignature;
+        }
+    }
+
     /**
      * Set the instrument map
      *
      * @param instruments The instruments in the map
      * @param defaultInstrument The default instrument
+     * @param signature The instrument map file signature
      */
     public static void set(Map<Integer, Map<OctaveDefinition, InstrumentEntry>> instruments,
-            Map<OctaveDefinition, InstrumentEntry> defaultInstrument) {
+            Map<OctaveDefinition, InstrumentEntry> defaultInstrument, String signature) {
         synchronized (s_mutex) {
+            s_instrumentSignature = signature;
             s_instruments.clear();
             for (Map.Entry<Integer, Map<OctaveDefinition, InstrumentEntry>> entrySet : instruments.entrySet()) {
                 s_instruments.put(entrySet.getKey(), new Instrument(entrySet.getValue()));
@@ -155,9 +178,12 @@ public class InstrumentMap {
      *
      * @param drums The drum instruments in the drum map
      * @param defaultDrum The default drum instrument
+     * @param signature The drum map file signature
      */
-    public static void set(Map<Integer, InstrumentEntry> drums, InstrumentEntry defaultDrum) {
+    public static void set(Map<Integer, InstrumentEntry> drums, InstrumentEntry defaultDrum,
+            String signature) {
         synchronized (s_mutex) {
+            s_drumSignature = signature;
             s_drumMap.clear();
             for (Map.Entry<Integer, InstrumentEntry> entry : drums.entrySet())
             {
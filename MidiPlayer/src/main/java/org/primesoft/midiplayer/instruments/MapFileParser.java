@@ -46,6 +46,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -190,7 +191,9 @@ public class MapFileParser {
         final Map<Integer, Map<OctaveDefinition, InstrumentEntry>> instruments
                 = new HashMap<Integer, Map<OctaveDefinition, InstrumentEntry>>();
 
-        parseInstrumentMap(instrumentFile, defaultInstruments, instruments);
+        final MessageDigest digest = Utils.createDigest();
+
+        parseInstrumentMap(instrumentFile, defaultInstruments, instruments, digest);
 
         if (defaultInstruments.isEmpty()) {
             MidiPlayerMain.log(Level.WARNING, "No default instrument.");
@@ -202,7 +205,7 @@ public class MapFileParser {
             return false;
         }
 
-        InstrumentMap.set(instruments, defaultInstruments);
+        InstrumentMap.set(instruments, defaultInstruments, Utils.toHex(digest.digest()));
 
         return true;
     }
@@ -219,7 +222,9 @@ public class MapFileParser {
         final InOutParam<InstrumentEntry> defaultDrum = InOutParam.Out();
         final HashMap<Integer, InstrumentEntry> drums = new HashMap<Integer, InstrumentEntry>();
 
-        parseDrumMap(drumFile, defaultDrum, drums);
+        final MessageDigest digest = Utils.createDigest();
+
+        parseDrumMap(drumFile, defaultDrum, drums, digest);
 
         if (!defaultDrum.isSet()) {
             MidiPlayerMain.log(Level.WARNING, "No default drum.");
@@ -229,7 +234,8 @@ public class MapFileParser {
             MidiPlayerMain.log(Level.WARNING, "No drums defined.");
         }
 
-        InstrumentMap.set(drums, defaultDrum.isSet() ? defaultDrum.getValue() : null);
+        InstrumentMap.set(drums, defaultDrum.isSet() ? defaultDrum.getValue() : null,
+                Utils.toHex(digest.digest()));
 
         return true;
     }
@@ -240,13 +246,16 @@ public class MapFileParser {
      * @param instrumentFile The buffer containing the Instrument Map
      * @param defaultInstrument The default instrument
      * @param instruments The instrument map
+     * @param digest The digest of the map lines
      * @throws IOException When the buffer gives an IOException
      */
     private static void parseInstrumentMap(BufferedReader instrumentFile,
             final Map<OctaveDefinition, InstrumentEntry> defaultInstrument,
-            final Map<Integer, Map<OctaveDefinition, InstrumentEntry>> instruments) throws IOException {
+            final Map<Integer, Map<OctaveDefinition, InstrumentEntry>> instruments,
+            final MessageDigest digest) throws IOException {
         String line;
         while ((line = instrumentFile.readLine()) != null) {
+            Utils.updateDigest(digest, line);
             String cLine = line.trim().replace("\t", " ");
             if (cLine.startsWith(COMMENT)) {
                 //Whole line of comments
@@ -323,13 +332,16 @@ public class MapFileParser {
      * @param drumFile The buffer containing the Drum Map
      * @param defaultDrum The default drum
      * @param drums The drums map
+     * @param digest The digest of the map lines
      * @throws IOException When the buffer gives an IOException
      */
     private static void parseDrumMap(BufferedReader drumFile,
             InOutParam<InstrumentEntry> defaultDrum,
-            HashMap<Integer, InstrumentEntry> drums) throws IOException {
+            HashMap<Integer, InstrumentEntry> drums,
+            MessageDigest digest) throws IOException {
         String line;
         while ((line = drumFile.readLine()) != null) {
+            Utils.updateDigest(digest, line);
             String cLine = line.trim().replace("\t", " ");
             if (cLine.startsWith(COMMENT)) {
                 //Whole line of comments
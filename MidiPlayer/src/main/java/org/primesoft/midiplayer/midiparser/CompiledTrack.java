@@ -0,0 +1,312 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.midiparser;
+
+import java.util.List;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.primesoft.midiplayer.configuration.ConfigProvider;
+import org.primesoft.midiplayer.sound.INoteSink;
+
+/**
+ * Compiled music track. The notes are stored in columns: the frame
+ * waits and the frame offsets, and the patch ids, pitches and volumes
+ * of the notes. Frame i contains the notes from offset i to offset i+1.
+ * @author SBPrime
+ */
+public class CompiledTrack implements IFrameSource {
+
+    /**
+     * The length of a server tick in milliseconds
+     */
+    public static final int TICK_MILLIS = 1000 / ConfigProvider.TICKS_PER_SECOND;
+
+    /**
+     * The frame waits in milliseconds, null if the track is tick quantized
+     */
+    private final long[] m_waits;
+
+    /**
+     * The frame waits in server ticks, null if the track is not tick quantized
+     */
+    private final int[] m_tickWaits;
+
+    /**
+     * The frame offsets (the index of the first note in the frame)
+     */
+    private final int[] m_offsets;
+
+    /**
+     * The note patch ids
+     */
+    private final short[] m_patchIds;
+
+    /**
+     * The note pitches
+     */
+    private final float[] m_pitches;
+
+    /**
+     * The note volumes
+     */
+    private final float[] m_volumes;
+
+    /**
+     * The patches indexed by the patch id
+     */
+    private final String[] m_patches;
+
+    CompiledTrack(long[] waits, int[] offsets, short[] patchIds,
+            float[] pitches, float[] volumes) {
+        this(waits, null, offsets, patchIds, pitches, volumes);
+    }
+
+    /**
+     * Create tick quantized track
+     */
+    CompiledTrack(int[] tickWaits, int[] offsets, short[] patchIds,
+            float[] pitches, float[] volumes) {
+        this(null, tickWaits, offsets, patchIds, pitches, volumes);
+    }
+
+    private CompiledTrack(long[] waits, int[] tickWaits, int[] offsets, short[] patchIds,
+            float[] pitches, float[] volumes) {
+        m_waits = waits;
+        m_tickWaits = tickWaits;
+        m_offsets = offsets;
+        m_patchIds = patchIds;
+        m_pitches = pitches;
+        m_volumes = volumes;
+        m_patches = NoteEntryTable.getPatches();
+    }
+
+    /**
+     * Compile the note frames
+     *
+     * @param frames The frames to compile
+     * @return The compiled track
+     */
+    public static CompiledTrack compile(NoteFrame[] frames) {
+        if (frames == null) {
+            return null;
+        }
+
+        int noteCount = 0;
+        for (NoteFrame frame : frames) {
+            noteCount += frame.getNoteCount();
+        }
+
+        final long[] waits = new long[frames.length];
+        final int[] offsets = new int[frames.length + 1];
+        final short[] patchIds = new short[noteCount];
+        final float[] pitches = new float[noteCount];
+        final float[] volumes = new float[noteCount];
+
+        int note = 0;
+        for (int i = 0; i < frames.length; i++) {
+            waits[i] = frames[i].getWait();
+            offsets[i] = note;
+
+            for (NoteEntry entry : frames[i].getNotes()) {
+                patchIds[note] = (short) entry.getPatchId();
+                pitches[note] = entry.getFrq();
+                volumes[note] = entry.getVolume();
+                note++;
+            }
+        }
+        offsets[frames.length] = note;
+
+        return new CompiledTrack(waits, offsets, patchIds, pitches, volumes);
+    }
+
+    /**
+     * Join the compiled tracks
+     *
+     * @param tracks The tracks to join
+     * @return The joined track
+     */
+    static CompiledTrack concat(List<CompiledTrack> tracks) {
+        int frameCount = 0;
+        int noteCount = 0;
+        for (CompiledTrack track : tracks) {
+            frameCount += track.getFrameCount();
+            noteCount += track.getNoteCount();
+        }
+
+        final boolean quantized = !tracks.isEmpty() && tracks.get(0).isQuantized();
+        final long[] waits = quantized ? null : new long[frameCount];
+        final int[] tickWaits = quantized ? new int[frameCount] : null;
+        final int[] offsets = new int[frameCount + 1];
+        final short[] patchIds = new short[noteCount];
+        final float[] pitches = new float[noteCount];
+        final float[] volumes = new float[noteCount];
+
+        int frame = 0;
+        int note = 0;
+        for (CompiledTrack track : tracks) {
+            final int frames = track.getFrameCount();
+            final int notes = track.getNoteCount();
+            if (quantized) {
+                System.arraycopy(track.m_tickWaits, 0, tickWaits, frame, frames);
+            } else {
+                System.arraycopy(track.m_waits, 0, waits, frame, frames);
+            }
+            for (int i = 0; i < frames; i++) {
+                offsets[frame + i] = track.m_offsets[i] + note;
+            }
+            System.arraycopy(track.m_patchIds, 0, patchIds, note, notes);
+            System.arraycopy(track.m_pitches, 0, pitches, note, notes);
+            System.arraycopy(track.m_volumes, 0, volumes, note, notes);
+
+            frame += frames;
+            note += notes;
+        }
+        offsets[frameCount] = note;
+
+        return new CompiledTrack(waits, tickWaits, offsets, patchIds, pitches, volumes);
+    }
+
+    @Override
+    public int getFrameCount() {
+        return m_offsets.length - 1;
+    }
+
+    /**
+     * Get the number of notes
+     *
+     * @return Number of notes
+     */
+    public int getNoteCount() {
+        return m_patchIds.length;
+    }
+
+    @Override
+    public long getWait(int frame) {
+        return m_tickWaits != null ? (long) m_tickWaits[frame] * TICK_MILLIS : m_waits[frame];
+    }
+
+    @Override
+    public int getTickWait(int frame) {
+        return m_tickWaits != null ? m_tickWaits[frame] : toTicks(m_waits[frame]);
+    }
+
+    @Override
+    public boolean isQuantized() {
+        return m_tickWaits != null;
+    }
+
+    /**
+     * Convert the wait to server ticks (rounded to the nearest tick)
+     *
+     * @param millis The wait in milliseconds
+     * @return The wait in ticks
+     */
+    static int toTicks(long millis) {
+        return (int) ((millis + TICK_MILLIS / 2) / TICK_MILLIS);
+    }
+
+    @Override
+    public int getNoteCount(int frame) {
+        return m_offsets[frame + 1] - m_offsets[frame];
+    }
+
+    int getOffset(int frame) {
+        return m_offsets[frame];
+    }
+
+    int getPatchId(int note) {
+        return m_patchIds[note];
+    }
+
+    String getPatch(int note) {
+        final int patchId = m_patchIds[note];
+        return patchId >= 0 ? m_patches[patchId] : null;
+    }
+
+    float getPitch(int note) {
+        return m_pitches[note];
+    }
+
+    float getVolume(int note) {
+        return m_volumes[note];
+    }
+
+    @Override
+    public boolean isComplete() {
+        return true;
+    }
+
+    @Override
+    public void playFrame(int frame, Player player, Location location, INoteSink sink) {
+        final int end = m_offsets[frame + 1];
+        for (int i = m_offsets[frame]; i < end; i++) {
+            final int patchId = m_patchIds[i];
+            final float volume = m_volumes[i];
+            final float pitch = m_pitches[i];
+            if (patchId < 0 || volume == 0 || pitch < 0 || pitch > 2) {
+                continue;
+            }
+
+            sink.play(player, location, patchId, m_patches[patchId], volume, pitch);
+        }
+    }
+
+    /**
+     * Convert the track to note frames
+     *
+     * @return The note frames
+     */
+    public NoteFrame[] toFrames() {
+        final NoteFrame[] result = new NoteFrame[getFrameCount()];
+        for (int i = 0; i < result.length; i++) {
+            final int start = m_offsets[i];
+            final NoteEntry[] notes = new NoteEntry[m_offsets[i + 1] - start];
+            for (int j = 0; j < notes.length; j++) {
+                notes[j] = new NoteEntry(getPatchId(start + j), getPatch(start + j),
+                        m_pitches[start + j], m_volumes[start + j]);
+            }
+
+            result[i] = new NoteFrame(getWait(i), notes);
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.midiparser;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.primesoft.midiplayer.sound.INoteSink;
+import org.primesoft.midiplayer.sound.SoundPlayer;
+
+/**
+ * Source of the note frames played by the tracks
+ * @author SBPrime
+ */
+public interface IFrameSource {
+
+    /**
+     * Get the number of frames that are available
+     *
+     * @return Number of frames
+     */
+    int getFrameCount();
+
+    /**
+     * Get the frame wait delay
+     *
+     * @param frame The frame index
+     * @return The wait delay in milliseconds
+     */
+    long getWait(int frame);
+
+    /**
+     * Get the frame wait delay in server ticks. The wait of
+     * the tick quantized sources is exact, otherwise it is rounded.
+     *
+     * @param frame The frame index
+     * @return The wait delay in ticks
+     */
+    int getTickWait(int frame);
+
+    /**
+     * Are the frames quantized to the server ticks. The quantized
+     * sources have at most one frame per tick.
+     *
+     * @return true if the frame waits are whole ticks
+     */
+    boolean isQuantized();
+
+    /**
+     * Get the number of notes in the frame
+     *
+     * @param frame The frame index
+     * @return Number of notes
+     */
+    int getNoteCount(int frame);
+
+    /**
+     * Play the frame notes using the current note sink
+     *
+     * @param frame The frame index
+     * @param player The player that hears the notes
+     * @param location The sound location, if null the player location is used
+     */
+    default void playFrame(int frame, Player player, Location location) {
+        if (player == null || !player.isOnline()) {
+            return;
+        }
+
+        final INoteSink sink = SoundPlayer.getSink();
+        playFrame(frame, player, location != null ? location : player.getLocation(), sink);
+        sink.flush();
+    }
+
+    /**
+     * Play the frame notes. The sink might queue the notes until the sink
+     * is flushed. The player is not checked, the caller plays only to the
+     * online players from its listeners snapshot.
+     *
+     * @param frame The frame index
+     * @param player The online player that hears the notes
+     * @param location The sound location
+     * @param sink The note sink
+     */
+    void playFrame(int frame, Player player, Location location, INoteSink sink);
+
+    /**
+     * Are all frames available
+     *
+     * @return true if no more frames will be added
+     */
+    boolean isComplete();
+}
@@ -40,22 +40,21 @@
  */
 package org.primesoft.midiplayer.midiparser;
 
-import org.primesoft.midiplayer.instruments.Instrument;
-import org.primesoft.midiplayer.instruments.InstrumentMap;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.logging.Level;
 import javax.sound.midi.InvalidMidiDataException;
-import javax.sound.midi.MetaMessage;
-import javax.sound.midi.MidiEvent;
-import javax.sound.midi.MidiMessage;
 import javax.sound.midi.MidiSystem;
 import javax.sound.midi.Sequence;
-import javax.sound.midi.ShortMessage;
-import javax.sound.midi.Track;
-import org.primesoft.midiplayer.instruments.InstrumentEntry;
-import org.primesoft.midiplayer.utils.InOutParam;
-import org.primesoft.midiplayer.utils.Pair;
+import org.primesoft.midiplayer.MidiPlayerMain;
+import org.primesoft.midiplayer.configuration.ConfigProvider;
+import org.primesoft.midiplayer.instruments.InstrumentMap;
+import org.primesoft.midiplayer.utils.Utils;
 
 /**
  *
@@ -64,250 +63,547 @@ import org.primesoft.midiplayer.utils.Pair;
 public class MidiParser {
 
     /**
-     * Load notes from MIDI file
+     * Default size of the parsed files cache (number of notes)
+     */
+    public static final long DEFAULT_CACHE_SIZE = 500000;
+
+    /**
+     * Default minimum number of events in files parsed on multiple threads
+     */
+    public static final long DEFAULT_PARALLEL_THRESHOLD = 50000;
+
+    /**
+     * The parsed files cache
+     */
+    private static final NoteTrackCache s_cache = new NoteTrackCache(DEFAULT_CACHE_SIZE);
+
+    /**
+     * The minimum length of the segments published to the track stream
+     */
+    private static final long STREAM_SEGMENT = 1000;
+
+    /**
+     * The precompiled tracks store, null if disabled
+     */
+    private static volatile NoteTrackStore s_store;
+
+    /**
+     * The minimum number of events in files parsed on multiple threads
+     */
+    private static volatile long s_parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    /**
+     * Should the parsed tracks be quantized to the server ticks
+     */
+    private static volatile boolean s_tickQuantized;
+
+    /**
+     * The note density reducer, null if disabled
+     */
+    private static volatile NoteReducer s_reducer;
+
+    /**
+     * Get the parsed files cache
+     *
+     * @return The cache instance
+     */
+    public static NoteTrackCache getCache() {
+        return s_cache;
+    }
+
+    /**
+     * Get the precompiled tracks store
+     *
+     * @return The store or null if disabled
+     */
+    public static NoteTrackStore getStore() {
+        return s_store;
+    }
+
+    /**
+     * Set the precompiled tracks store
+     *
+     * @param store The store to use, null to disable
+     */
+    public static void setStore(NoteTrackStore store) {
+        s_store = store;
+    }
+
+    /**
+     * Get the minimum number of events in files parsed on multiple threads
+     *
+     * @return The number of events, negative if disabled
+     */
+    public static long getParallelThreshold() {
+        return s_parallelThreshold;
+    }
+
+    /**
+     * Set the minimum number of events in files parsed on multiple threads
+     *
+     * @param threshold The number of events, negative to disable
+     */
+    public static void setParallelThreshold(long threshold) {
+        s_parallelThreshold = threshold;
+    }
+
+    /**
+     * Are the parsed tracks quantized to the server ticks
+     *
+     * @return true if all notes of a tick are played as a single frame
+     */
+    public static boolean isTickQuantized() {
+        return s_tickQuantized;
+    }
+
+    /**
+     * Set the parsed tracks quantization. The cached tracks
+     * are not affected.
+     *
+     * @param quantized Quantize the tracks to the server ticks
+     */
+    public static void setTickQuantized(boolean quantized) {
+        s_tickQuantized = quantized;
+    }
+
+    /**
+     * Get the note density reducer
+     *
+     * @return The reducer or null if disabled
+     */
+    public static NoteReducer getReducer() {
+        return s_reducer;
+    }
+
+    /**
+     * Set the note density reducer. The cached tracks are not affected.
+     *
+     * @param reducer The reducer to use, null to disable
+     */
+    public static void setReducer(NoteReducer reducer) {
+        s_reducer = reducer;
+    }
+
+    /**
+     * Get the signature of the compile options that change the parsed tracks
+     *
+     * @return The compile options signature
+     */
+    public static String getCompileSignature() {
+        final NoteReducer reducer = s_reducer;
+        return (s_tickQuantized ? "tick" : "ms")
+                + (reducer != null ? ";reduce:" + reducer.getSignature() : "");
+    }
+
+    /**
+     * Load notes from MIDI file. The parsed file is cached
+     * until it is modified. When the precompiled tracks store is
+     * enabled the stored track is used instead of parsing the file.
+     * Songs stored in song packs are loaded without extracting them
+     * (see SongPackProvider).
      *
      * @param midiFile The file to read
      * @return The NoteTrack obtained from the file, or a NoteTrack with an exception message if the File failed to be read
      */
     public static NoteTrack loadFile(File midiFile) {
-        try {
-            return parseFile(midiFile);
-        } catch (InvalidMidiDataException ex) {
-            return new NoteTrack("Invalid or corrupted MIDI file");
-        } catch (IOException ex) {
-            return new NoteTrack("Unable to read the MIDI file");
-        }
+        return loadFile(midiFile, null);
     }
 
     /**
-     * Parse the midi file
+     * Get the precompiled tracks store key of the MIDI data
      *
-     * @param midiFile The file to read
-     * @return The parsed NoteTrack, null if the file can't be read
-     * @throws IOException When failed to read the file
-     * @throws InvalidMidiDataException When the file contains wrong midi data
+     * @param data The MIDI file data
+     * @return The store key for the current instrument map and compile options
      */
-    private static NoteTrack parseFile(File midiFile) throws IOException, InvalidMidiDataException {
-        if (midiFile == null || !midiFile.canRead()) {
-            return null;
-        }
+    public static String getStoreKey(byte[] data) {
+        return NoteTrackStore.getKey(data, InstrumentMap.getSignature(), getCompileSignature());
+    }
 
-        Sequence sequence = MidiSystem.getSequence(midiFile);
-        float divType = sequence.getDivisionType();
+    /**
+     * Compile MIDI file data that was already read. The compiled track is
+     * saved in the precompiled tracks store when the store is enabled,
+     * but it is not added to the cache so precompiling a whole library
+     * does not evict the songs that are played.
+     *
+     * @param midiFile The file the data was read from
+     * @param data The file data, uncompressed for the songs stored in song packs
+     * @param storeKey The store key of the data (see getStoreKey), null to compute it
+     * @return The NoteTrack obtained from the file, or a NoteTrack with an exception message if the data is not valid
+     */
+    public static NoteTrack compileFile(File midiFile, byte[] data, String storeKey) {
+        return loadFileInternal(midiFile, data, storeKey, false, null);
+    }
 
-        if (divType != Sequence.PPQ) {
-            return new NoteTrack("Unsupported DivisionType "
-                    + ElementFormater.getDivisionName(divType));
+    /**
+     * Load notes from MIDI file. When the file needs to be parsed the
+     * frames are added to the track stream as soon as they are compiled.
+     * The stream is always completed when this method returns.
+     *
+     * @param midiFile The file to read
+     * @param stream The track stream, null if not used
+     * @return The NoteTrack obtained from the file, or a NoteTrack with an exception message if the File failed to be read
+     */
+    public static NoteTrack loadFile(File midiFile, TrackStream stream) {
+        try {
+            return loadFileInternal(midiFile, null, null, true, stream);
+        } finally {
+            if (stream != null) {
+                stream.complete();
+            }
         }
+    }
 
-        int resolution = sequence.getResolution();
-        InOutParam<Double> tempo = InOutParam.Ref(0.0);
-
-        List<TrackEntry> result = new ArrayList<TrackEntry>();
-
-        Map<Integer, Instrument> instruments = new HashMap<Integer, Instrument>();
-        Map<Integer, Integer> masterVolume = new HashMap<Integer, Integer>();
-
-        for (Track track : sequence.getTracks()) {
-            result.addAll(parseTrack(track, tempo, resolution,
-                    instruments, masterVolume));
+    /**
+     * Load notes from MIDI data. The parsed data is not cached,
+     * the precompiled tracks store is used when enabled.
+     * The stream is always completed when this method returns.
+     *
+     * @param data The MIDI file data
+     * @param stream The track stream, null if not used
+     * @return The NoteTrack obtained from the data
+     * @throws IOException When failed to access the precompiled tracks store
+     * @throws InvalidMidiDataException When the data is not a valid MIDI file
+     */
+    public static NoteTrack loadData(ByteBuffer data, TrackStream stream) throws IOException, InvalidMidiDataException {
+        final byte[] bytes;
+        if (data.hasArray() && data.arrayOffset() == 0 && data.position() == 0
+                && data.remaining() == data.array().length) {
+            bytes = data.array();
+        } else {
+            bytes = new byte[data.remaining()];
+            data.duplicate().get(bytes);
         }
 
-        List<NoteFrame> frames = convertToNoteFrames(aggregate(result));
+        try {
+            return loadData(bytes, null, stream);
+        } finally {
+            if (stream != null) {
+                stream.complete();
+            }
+        }
+    }
 
-        return new NoteTrack(frames.toArray(new NoteFrame[0]));
+    /**
+     * Load notes from MIDI data stream. The parsed data is not cached,
+     * the precompiled tracks store is used when enabled.
+     * The stream is always completed when this method returns.
+     *
+     * @param in The MIDI file data stream
+     * @param stream The track stream, null if not used
+     * @return The NoteTrack obtained from the data
+     * @throws IOException When failed to read the stream
+     * @throws InvalidMidiDataException When the data is not a valid MIDI file
+     */
+    public static NoteTrack loadData(InputStream in, TrackStream stream) throws IOException, InvalidMidiDataException {
+        try {
+            return loadData(Utils.readFully(in, 0), null, stream);
+        } finally {
+            if (stream != null) {
+                stream.complete();
+            }
+        }
     }
 
     /**
-     * Parse midi track
+     * Load notes from MIDI file
      *
-     * @param track The track to be parsed
-     * @param tempo The tempo (speed) to be used
-     * @param resolution The resolution
-     * @param instruments The instruments used in this track
-     * @param masterVolume The volume of each instrument
-     * @return A list containing the TrackEntries to be played, one for each instrument
+     * @param midiFile The file to read
+     * @param data The file data, null to read the file
+     * @param storeKey The store key of the data, null to compute it
+     * @param useCache Should the loaded track be added to the cache
+     * @param stream The track stream, null if not used
+     * @return The NoteTrack obtained from the file
      */
-    private static List<TrackEntry> parseTrack(Track track, InOutParam<Double> tempo,
-            int resolution,
-            Map<Integer, Instrument> instruments,
-            Map<Integer, Integer> masterVolume) {
-        double lTempo = tempo.getValue();
+    private static NoteTrack loadFileInternal(File midiFile, byte[] data, String storeKey,
+            boolean useCache, TrackStream stream) {
+        if (SongPackProvider.isPacked(midiFile)) {
+            return loadPacked(midiFile, data, storeKey, useCache, stream);
+        }
 
-        List<TrackEntry> result = new ArrayList<TrackEntry>();
+        if (midiFile == null || (data == null && !midiFile.canRead())) {
+            return null;
+        }
 
-        for (int idx = 0; idx < track.size(); idx++) {
-            MidiEvent event = track.get(idx);
-            MidiMessage message = event.getMessage();
+        final String key = getCacheKey(midiFile);
+        final long size = midiFile.length();
+        final long lastModified = midiFile.lastModified();
 
-            long tick = event.getTick();
-            long milis;
+        NoteTrack result = s_cache.get(key, size, lastModified);
+        if (result != null) {
+            return result;
+        }
 
-            if (lTempo > 0 && resolution > 0) {
-                milis = (long) (tick * 60000 / resolution / lTempo);
-            } else {
-                milis = -1;
+        try {
+            if (data == null && s_store != null) {
+                data = Files.readAllBytes(midiFile.toPath());
             }
 
-            if (message instanceof MetaMessage) {
-                MetaMessage mm = (MetaMessage) message;
-                byte[] data = mm.getData();
-
-                if ((mm.getType() & 0xff) == 0x51
-                        && data != null && data.length > 2) {
-                    int nTempo = ((data[0] & 0xFF) << 16)
-                            | ((data[1] & 0xFF) << 8)
-                            | (data[2] & 0xFF);           // tempo in microseconds per beat
-                    if (nTempo <= 0) {
-                        lTempo = 0;
-                    } else {
-                        lTempo = 60000000.0 / nTempo;
-                    }
-                }
-            } else if (message instanceof ShortMessage) {
-                ShortMessage sm = (ShortMessage) message;
-                int channel = sm.getChannel();
-                switch (sm.getCommand() & 0xff) {
-                    case ShortMessage.NOTE_ON: {
-                        int velocity = sm.getData2();
-                        if (velocity > 0 && milis >= 0) {
-                            final int key = sm.getData1();
-
-                            if (channel == 9 || channel == 10) {//9, 10 = Drum machine
-                                InstrumentEntry instrument = getDrum(key);
-                                if (instrument != null) {
-                                    result.add(new TrackEntry(milis, instrument,
-                                            getVolume(masterVolume, channel, velocity)));
-                                }
-                            } else {
-                                int octave = (key / 12) - 1;
-                                int note = key % 12;
-
-                                Instrument instrument = getInstrument(instruments, channel);
-                                if (instrument != null) {
-                                    result.add(new TrackEntry(milis, instrument, octave, note,
-                                            getVolume(masterVolume, channel, velocity)));
-                                }
-                            }
-                        }
-                        break;
-                    }
-                    case ShortMessage.PROGRAM_CHANGE:
-                        setInstrument(instruments, channel, InstrumentMap.getInstrument(sm.getData1()));
-                        break;
-                    case ShortMessage.CONTROL_CHANGE: {
-                        if (sm.getData1() == 0x7)//Master volume
-                        {
-                            setVolume(masterVolume, channel, sm.getData2());
-                        }
-                        break;
-                    }
-                }
+            if (data != null) {
+                result = loadData(data, storeKey, stream);
+            } else if (ConfigProvider.getUseJavaxParser()) {
+                result = parseSequence(MidiSystem.getSequence(midiFile), stream);
+            } else {
+                result = parseSmf(SmfReader.open(midiFile), stream);
             }
+        } catch (InvalidMidiDataException ex) {
+            return new NoteTrack("Invalid or corrupted MIDI file");
+        } catch (IOException ex) {
+            return new NoteTrack("Unable to read the MIDI file");
         }
 
-        tempo.setValue(lTempo);
+        logRemovedNotes(result, midiFile);
+
+        if (useCache) {
+            s_cache.put(key, size, lastModified, result);
+        }
         return result;
     }
 
     /**
-     * Convert track entries to note entries. Convert to delta
+     * Load the song stored in a song pack
      *
-     * @param notes The list of notes in Long/TrackEntry format
-     * @return The list of notes in NoteFrame format
+     * @param midiFile The song file
+     * @param data The uncompressed song data, null to read the song
+     * @param storeKey The store key of the data, null to compute it
+     * @param useCache Should the loaded track be added to the cache
+     * @param stream The track stream, null if not used
+     * @return The NoteTrack obtained from the song, null if the song does not exist
      */
-    private static List<NoteFrame> convertToNoteFrames(List<Pair<Long, Set<TrackEntry>>> notes) {
-        List<NoteFrame> result = new ArrayList<NoteFrame>();
+    private static NoteTrack loadPacked(File midiFile, byte[] data, String storeKey,
+            boolean useCache, TrackStream stream) {
+        final SongPackProvider.Entry entry;
+        try {
+            entry = SongPackProvider.getEntry(midiFile);
+        } catch (IOException ex) {
+            return new NoteTrack("Unable to read the song pack");
+        }
 
-        long last = notes.get(0).getX1();
-        for (Pair<Long, Set<TrackEntry>> entry : notes) {
-            long milis = entry.getX1();
+        if (entry == null) {
+            return null;
+        }
 
-            result.add(new NoteFrame(milis - last, entry.getX2()));
+        NoteTrack result = s_cache.get(entry.getKey(), entry.getSize(), entry.getLastModified());
+        if (result != null) {
+            return result;
+        }
 
-            last = milis;
+        try {
+            result = loadData(data != null ? data : entry.read(), storeKey, stream);
+        } catch (InvalidMidiDataException ex) {
+            return new NoteTrack("Invalid or corrupted MIDI file");
+        } catch (IOException ex) {
+            return new NoteTrack("Unable to read the MIDI file");
         }
 
+        logRemovedNotes(result, midiFile);
+
+        if (useCache) {
+            s_cache.put(entry.getKey(), entry.getSize(), entry.getLastModified(), result);
+        }
         return result;
     }
 
     /**
-     * Get instrument assigned to channel
+     * Log the number of notes removed by the density reducer
      *
-     * @param instruments Instrument channel map
-     * @param channel The channel to use
-     * @return The assigned instrument
+     * @param track The loaded track
+     * @param midiFile The song file
      */
-    private static Instrument getInstrument(Map<Integer, Instrument> instruments, int channel) {
-        if (instruments == null) {
-            return null;
+    private static void logRemovedNotes(NoteTrack track, File midiFile) {
+        if (track.getRemovedNotes() > 0) {
+            MidiPlayerMain.log(Level.INFO, String.format("Density reducer removed %1$s notes from %2$s",
+                    track.getRemovedNotes(), midiFile.getName()));
         }
+    }
 
-        if (instruments.containsKey(channel)) {
-            return instruments.get(channel);
+    /**
+     * Load the track from the precompiled tracks store or parse the data
+     *
+     * @param data The MIDI file data
+     * @param storeKey The store key of the data, null to compute it
+     * @param stream The track stream, null if not used
+     * @return The track
+     * @throws IOException When failed to access the store
+     * @throws InvalidMidiDataException When the data contains wrong midi data
+     */
+    private static NoteTrack loadData(byte[] data, String storeKey,
+            TrackStream stream) throws IOException, InvalidMidiDataException {
+        final NoteTrackStore store = s_store;
+        if (store != null) {
+            return loadStored(store, storeKey != null ? storeKey : getStoreKey(data), data, stream);
         }
 
-        return InstrumentMap.getDefault();
+        return parseData(data, stream);
     }
 
     /**
-     * Assign instrument to channel
+     * Load the track from the precompiled tracks store,
+     * parse and store the file if it is not stored
      *
-     * @param instruments Instrument channel map
-     * @param channel The channel to use
-     * @param instrument The instrument to assign to the selected channel
+     * @param store The store to use
+     * @param key The store key of the data
+     * @param data The MIDI file data
+     * @param stream The track stream, null if not used
+     * @return The track
+     * @throws IOException When failed to access the store
+     * @throws InvalidMidiDataException When the file contains wrong midi data
      */
-    private static void setInstrument(Map<Integer, Instrument> instruments, int channel, Instrument instrument) {
-        if (instruments == null) {
-            return;
+    private static NoteTrack loadStored(NoteTrackStore store, String key, byte[] data,
+            TrackStream stream) throws IOException, InvalidMidiDataException {
+        NoteTrack result = store.load(key);
+        if (result != null) {
+            return result;
         }
 
-        if (instruments.containsKey(channel)) {
-            instruments.remove(channel);
+        result = parseData(data, stream);
+        store.save(key, result);
+        return result;
+    }
+
+    /**
+     * Parse the MIDI data
+     *
+     * @param data The MIDI file data
+     * @param stream The track stream, null if not used
+     * @return The parsed NoteTrack
+     * @throws IOException When failed to read the data
+     * @throws InvalidMidiDataException When the data contains wrong midi data
+     */
+    private static NoteTrack parseData(byte[] data, TrackStream stream) throws IOException, InvalidMidiDataException {
+        if (ConfigProvider.getUseJavaxParser()) {
+            return parseSequence(MidiSystem.getSequence(new ByteArrayInputStream(data)), stream);
         }
 
-        instruments.put(channel, instrument);
+        return parseSmf(SmfReader.open(ByteBuffer.wrap(data)), stream);
     }
 
     /**
-     * Aggregate note entries based on time
+     * Get the cache key for a file
      *
-     * @param notes The notes to aggregate
-     * @return The notes aggregated with time entries in milliseconds
+     * @param midiFile The file
+     * @return The cache key
      */
-    private static List<Pair<Long, Set<TrackEntry>>> aggregate(List<TrackEntry> notes) {
-        Map<Long, Set<TrackEntry>> tmp = new HashMap<Long, Set<TrackEntry>>();
-
-        for (TrackEntry entry : notes) {
-            final long millis = entry.getMillis();
+    public static String getCacheKey(File midiFile) {
+        try {
+            return midiFile.getCanonicalPath();
+        } catch (IOException ex) {
+            return midiFile.getAbsolutePath();
+        }
+    }
 
-            final Set<TrackEntry> set = tmp.computeIfAbsent(millis, k -> new HashSet<TrackEntry>());
+    /**
+     * Parse the midi file (without using the cache)
+     *
+     * @param midiFile The file to read
+     * @param useJavax Use the javax.sound.midi reader instead of the SMF reader
+     * @return The parsed NoteTrack, null if the file can't be read
+     * @throws IOException When failed to read the file
+     * @throws InvalidMidiDataException When the file contains wrong midi data
+     */
+    public static NoteTrack parseFile(File midiFile, boolean useJavax) throws IOException, InvalidMidiDataException {
+        if (midiFile == null || !midiFile.canRead()) {
+            return null;
+        }
 
-            set.add(entry);
+        if (useJavax) {
+            return parseSequence(MidiSystem.getSequence(midiFile), null);
         }
 
-        List<Long> keys = new ArrayList<Long>(tmp.keySet());
-        Collections.sort(keys);
+        return parseSmf(SmfReader.open(midiFile), null);
+    }
 
-        List<Pair<Long, Set<TrackEntry>>> result = new ArrayList<Pair<Long, Set<TrackEntry>>>();
-        for (Long time : keys) {
-            result.add(new Pair<Long, Set<TrackEntry>>(time, tmp.get(time)));
+    /**
+     * Parse the MIDI sequence
+     *
+     * @param sequence The sequence read by the javax reader
+     * @param stream The track stream, null if not used
+     * @return The parsed NoteTrack
+     */
+    private static NoteTrack parseSequence(Sequence sequence, TrackStream stream) {
+        float divType = sequence.getDivisionType();
+
+        if (divType != Sequence.PPQ) {
+            return new NoteTrack("Unsupported DivisionType "
+                    + ElementFormater.getDivisionName(divType));
         }
-        return result;
-    }
 
-    private static void setVolume(Map<Integer, Integer> masterVolume, int channel, int volume) {
-        masterVolume.remove(channel); // Remove method already checks if channel is in the map, no need to use contains
+        boolean parallel = TrackDecoder.isParallel(sequence.getTracks().length,
+                TrackDecoder.getEventCount(sequence), s_parallelThreshold);
 
-        masterVolume.put(channel, volume);
+        return createTrack(sequence.getResolution(),
+                TrackDecoder.decode(sequence, parallel), parallel, stream);
     }
 
-    private static float getVolume(Map<Integer, Integer> masterVolume, int channel, int velocity) {
-        int volume = masterVolume.getOrDefault(channel, 127);
-        return volume / 127.0f * velocity / 127.0f;
+    /**
+     * Parse the MIDI file
+     *
+     * @param reader The opened SMF reader
+     * @param stream The track stream, null if not used
+     * @return The parsed NoteTrack
+     * @throws InvalidMidiDataException When the file contains wrong midi data
+     */
+    private static NoteTrack parseSmf(SmfReader reader, TrackStream stream) throws InvalidMidiDataException {
+        return parseSmf(reader, TrackDecoder.isParallel(reader.getTrackCount(),
+                reader.getEventEstimate(), s_parallelThreshold), stream);
+    }
+
+    /**
+     * Parse the SMF file
+     *
+     * @param reader The opened SMF reader
+     * @param parallel Decode the tracks in parallel
+     * @param stream The track stream, null if not used
+     * @return The parsed NoteTrack
+     * @throws InvalidMidiDataException When the file contains wrong midi data
+     */
+    static NoteTrack parseSmf(SmfReader reader, boolean parallel, TrackStream stream) throws InvalidMidiDataException {
+        float divType = reader.getDivisionType();
+
+        if (divType != Sequence.PPQ) {
+            return new NoteTrack("Unsupported DivisionType "
+                    + ElementFormater.getDivisionName(divType));
+        }
+
+        return createTrack(reader.getResolution(),
+                TrackDecoder.decode(reader, parallel), parallel, stream);
     }
 
-    private static InstrumentEntry getDrum(int key) {
-        return InstrumentMap.getDrum(key);
+    /**
+     * Create the note track from the decoded tracks
+     *
+     * @param resolution The resolution
+     * @param tracks The decoded tracks
+     * @param parallel Resolve the event times in parallel
+     * @param stream The track stream, null if not used
+     * @return The note track
+     */
+    private static NoteTrack createTrack(int resolution, List<TrackEvents> tracks,
+            boolean parallel, TrackStream stream) {
+        TrackDecoder.resolveMillis(tracks, new TempoMap(resolution, tracks), parallel);
+
+        final boolean quantize = s_tickQuantized;
+        final NoteReducer reducer = s_reducer;
+        final NoteTrack result;
+        final NoteAggregator notes;
+        if (stream == null) {
+            notes = new NoteAggregator(quantize, reducer);
+            TrackMerger.merge(tracks, new NoteResolver(notes));
+
+            result = new NoteTrack(notes.toTrack());
+        } else {
+            final List<CompiledTrack> segments = new ArrayList<CompiledTrack>();
+            notes = new NoteAggregator(STREAM_SEGMENT, quantize, reducer, segment -> {
+                segments.add(segment);
+                stream.append(segment);
+            });
+
+            TrackMerger.merge(tracks, new NoteResolver(notes));
+            notes.flush();
+
+            result = new NoteTrack(CompiledTrack.concat(segments));
+        }
+
+        result.setRemovedNotes(notes.getRemoved());
+        return result;
     }
 }
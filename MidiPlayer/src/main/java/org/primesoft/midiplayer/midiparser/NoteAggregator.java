@@ -0,0 +1,495 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.midiparser;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Aggregates notes into frames and compiles the track. The notes are stored
+ * in primitive columns: the note time sorted together with the note index,
+ * and the note patch ids, pitches and volumes indexed by the note index.
+ *
+ * When the segment consumer is set the notes are compiled in segments
+ * as they are added. The notes have to be added in the time order.
+ * @author SBPrime
+ */
+class NoteAggregator {
+
+    private static final int INITIAL_SIZE = 1024;
+
+    /**
+     * Runs shorter than this are deduplicated without the hash table
+     */
+    private static final int SMALL_RUN = 8;
+
+    /**
+     * Below this size the sort uses insertion sort
+     */
+    private static final int INSERTION_SORT = 16;
+
+    /**
+     * The note times in milliseconds
+     */
+    private long[] m_millis;
+
+    /**
+     * The note indices
+     */
+    private int[] m_index;
+
+    /**
+     * The note patch ids
+     */
+    private short[] m_patchIds;
+
+    /**
+     * The note pitches
+     */
+    private float[] m_pitches;
+
+    /**
+     * The note volumes
+     */
+    private float[] m_volumes;
+
+    /**
+     * The note MIDI channels
+     */
+    private byte[] m_channels;
+
+    /**
+     * Number of notes
+     */
+    private int m_size;
+
+    /**
+     * Is the time column sorted
+     */
+    private boolean m_isSorted;
+
+    /**
+     * The deduplication hash table
+     */
+    private int[] m_table;
+
+    /**
+     * The minimum length of a segment in milliseconds
+     */
+    private final long m_segmentMillis;
+
+    /**
+     * The compiled segments consumer
+     */
+    private final Consumer<CompiledTrack> m_segmentConsumer;
+
+    /**
+     * The length of a server tick in milliseconds, 0 if the notes are not quantized
+     */
+    private final int m_tickMillis;
+
+    /**
+     * The note density reducer, null if not used
+     */
+    private final NoteReducer m_reducer;
+
+    /**
+     * Number of notes removed by the reducer
+     */
+    private int m_removed;
+
+    /**
+     * The time of the last frame in the previous segment
+     */
+    private long m_segmentBase;
+
+    /**
+     * Was any segment compiled
+     */
+    private boolean m_hasSegments;
+
+    NoteAggregator() {
+        this(false, null);
+    }
+
+    /**
+     * Create the aggregator
+     *
+     * @param quantize Snap the notes to the server ticks
+     * @param reducer The note density reducer, null if not used
+     */
+    NoteAggregator(boolean quantize, NoteReducer reducer) {
+        this(0, quantize, reducer, null);
+    }
+
+    /**
+     * Create the aggregator that compiles the notes in segments
+     *
+     * @param segmentMillis The minimum length of a segment in milliseconds
+     * @param quantize Snap the notes to the server ticks
+     * @param reducer The note density reducer, null if not used
+     * @param segmentConsumer The compiled segments consumer
+     */
+    NoteAggregator(long segmentMillis, boolean quantize, NoteReducer reducer,
+            Consumer<CompiledTrack> segmentConsumer) {
+        m_segmentMillis = segmentMillis;
+        m_segmentConsumer = segmentConsumer;
+        m_tickMillis = quantize ? CompiledTrack.TICK_MILLIS : 0;
+        m_reducer = reducer;
+        m_millis = new long[INITIAL_SIZE];
+        m_index = new int[INITIAL_SIZE];
+        m_patchIds = new short[INITIAL_SIZE];
+        m_pitches = new float[INITIAL_SIZE];
+        m_volumes = new float[INITIAL_SIZE];
+        m_channels = new byte[INITIAL_SIZE];
+        m_table = new int[0];
+        m_size = 0;
+        m_isSorted = true;
+    }
+
+    /**
+     * Number of notes
+     *
+     * @return The number of notes
+     */
+    int size() {
+        return m_size;
+    }
+
+    /**
+     * Number of notes removed by the density reducer
+     *
+     * @return The number of removed notes
+     */
+    int getRemoved() {
+        return m_removed;
+    }
+
+    /**
+     * Add a note
+     *
+     * @param millis The note time in milliseconds
+     * @param channel The note MIDI channel
+     * @param patchId The note patch id
+     * @param pitch The note pitch
+     * @param volume The note volume
+     */
+    void add(long millis, int channel, int patchId, float pitch, float volume) {
+        if (m_tickMillis > 0) {
+            millis = (millis + m_tickMillis / 2) / m_tickMillis * m_tickMillis;
+        }
+
+        if (m_segmentConsumer != null && m_size > 0
+                && millis > m_millis[m_size - 1]
+                && millis - m_millis[0] >= m_segmentMillis
+                && (m_reducer == null
+                || m_reducer.getWindow(millis) != m_reducer.getWindow(m_millis[m_size - 1]))) {
+            flush();
+        }
+
+        if (m_size == m_millis.length) {
+            final int newSize = m_size * 2;
+            m_millis = Arrays.copyOf(m_millis, newSize);
+            m_index = Arrays.copyOf(m_index, newSize);
+            m_patchIds = Arrays.copyOf(m_patchIds, newSize);
+            m_pitches = Arrays.copyOf(m_pitches, newSize);
+            m_volumes = Arrays.copyOf(m_volumes, newSize);
+            m_channels = Arrays.copyOf(m_channels, newSize);
+        }
+
+        if (m_size > 0 && m_millis[m_size - 1] > millis) {
+            m_isSorted = false;
+        }
+
+        m_millis[m_size] = millis;
+        m_index[m_size] = m_size;
+        m_patchIds[m_size] = (short) patchId;
+        m_pitches[m_size] = pitch;
+        m_volumes[m_size] = volume;
+        m_channels[m_size] = (byte) channel;
+        m_size++;
+    }
+
+    /**
+     * Compile the notes. Notes with the same time (or the same server tick
+     * when quantized) are aggregated into a single frame and duplicate
+     * notes are removed. When the density reducer is used the notes
+     * are reduced before they are aggregated.
+     *
+     * @return The compiled track
+     */
+    CompiledTrack toTrack() {
+        sortNotes();
+
+        return compile(m_size > 0 ? m_millis[0] : 0);
+    }
+
+    /**
+     * Compile the added notes as the next segment
+     */
+    void flush() {
+        if (m_size == 0) {
+            return;
+        }
+
+        sortNotes();
+
+        final CompiledTrack segment = compile(m_hasSegments ? m_segmentBase : m_millis[0]);
+        m_segmentBase = m_millis[m_size - 1];
+        m_hasSegments = true;
+        m_size = 0;
+
+        m_segmentConsumer.accept(segment);
+    }
+
+    private void sortNotes() {
+        if (!m_isSorted) {
+            sort(0, m_size - 1);
+            m_isSorted = true;
+        }
+    }
+
+    /**
+     * Compile the notes
+     *
+     * @param base The time of the frame before the first frame
+     * @return The compiled track
+     */
+    private CompiledTrack compile(long base) {
+        if (m_reducer != null) {
+            final int size = m_reducer.reduce(m_millis, m_index, m_size,
+                    m_patchIds, m_pitches, m_volumes, m_channels);
+            m_removed += m_size - size;
+            m_size = size;
+        }
+
+        final int frameCount = dedup();
+        final long[] waits = m_tickMillis > 0 ? null : new long[frameCount];
+        final int[] tickWaits = m_tickMillis > 0 ? new int[frameCount] : null;
+        final int[] offsets = new int[frameCount + 1];
+        final short[] patchIds = new short[m_size];
+        final float[] pitches = new float[m_size];
+        final float[] volumes = new float[m_size];
+
+        int frame = -1;
+        long last = base;
+        for (int i = 0; i < m_size; i++) {
+            final long millis = m_millis[i];
+            if (frame < 0 || millis != last) {
+                frame++;
+                if (tickWaits != null) {
+                    tickWaits[frame] = (int) ((millis - last) / m_tickMillis);
+                } else {
+                    waits[frame] = millis - last;
+                }
+                offsets[frame] = i;
+                last = millis;
+            }
+
+            final int index = m_index[i];
+            patchIds[i] = m_patchIds[index];
+            pitches[i] = m_pitches[index];
+            volumes[i] = m_volumes[index];
+        }
+        offsets[frameCount] = m_size;
+
+        return tickWaits != null
+                ? new CompiledTrack(tickWaits, offsets, patchIds, pitches, volumes)
+                : new CompiledTrack(waits, offsets, patchIds, pitches, volumes);
+    }
+
+    /**
+     * Remove the duplicate notes in place. The first note is kept.
+     *
+     * @return Number of frames (distinct times)
+     */
+    private int dedup() {
+        int out = 0;
+        int frames = 0;
+        int start = 0;
+        while (start < m_size) {
+            final long millis = m_millis[start];
+            int end = start + 1;
+            while (end < m_size && m_millis[end] == millis) {
+                end++;
+            }
+
+            final int runStart = out;
+            if (end - start <= SMALL_RUN) {
+                for (int i = start; i < end; i++) {
+                    final int index = m_index[i];
+                    boolean isDuplicate = false;
+                    for (int j = runStart; j < out && !isDuplicate; j++) {
+                        isDuplicate = isSame(index, m_index[j]);
+                    }
+
+                    if (!isDuplicate) {
+                        m_millis[out] = millis;
+                        m_index[out] = m_index[i];
+                        out++;
+                    }
+                }
+            } else {
+                final int mask = prepareTable(end - start);
+                for (int i = start; i < end; i++) {
+                    final int index = m_index[i];
+                    int slot = hash(index) & mask;
+                    boolean isDuplicate = false;
+                    while (m_table[slot] >= 0) {
+                        if (isSame(index, m_table[slot])) {
+                            isDuplicate = true;
+                            break;
+                        }
+                        slot = (slot + 1) & mask;
+                    }
+
+                    if (!isDuplicate) {
+                        m_table[slot] = index;
+                        m_millis[out] = millis;
+                        m_index[out] = m_index[i];
+                        out++;
+                    }
+                }
+            }
+
+            frames++;
+            start = end;
+        }
+
+        m_size = out;
+        return frames;
+    }
+
+    /**
+     * Clear the hash table for the run
+     *
+     * @param runLength The run length
+     * @return The table mask
+     */
+    private int prepareTable(int runLength) {
+        int capacity = Integer.highestOneBit(runLength) << 2;
+        if (m_table.length < capacity) {
+            m_table = new int[capacity];
+        }
+
+        Arrays.fill(m_table, 0, capacity, -1);
+        return capacity - 1;
+    }
+
+    /**
+     * Are the notes the same (same patch, pitch and volume)
+     */
+    private boolean isSame(int a, int b) {
+        return m_patchIds[a] == m_patchIds[b]
+                && Float.floatToIntBits(m_pitches[a]) == Float.floatToIntBits(m_pitches[b])
+                && Float.floatToIntBits(m_volumes[a]) == Float.floatToIntBits(m_volumes[b]);
+    }
+
+    private int hash(int index) {
+        int result = m_patchIds[index];
+        result = result * 31 + Float.floatToIntBits(m_pitches[index]);
+        result = result * 31 + Float.floatToIntBits(m_volumes[index]);
+        return result ^ (result >>> 16);
+    }
+
+    /**
+     * Sort the time and index columns (by time, then by index)
+     */
+    private void sort(int from, int to) {
+        while (to - from >= INSERTION_SORT) {
+            final int mid = (from + to) >>> 1;
+            final long pivotMillis = m_millis[mid];
+            final int pivotIndex = m_index[mid];
+
+            int i = from;
+            int j = to;
+            while (i <= j) {
+                while (compare(i, pivotMillis, pivotIndex) < 0) {
+                    i++;
+                }
+                while (compare(j, pivotMillis, pivotIndex) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+
+            //Recurse into the smaller part
+            if (j - from < to - i) {
+                sort(from, j);
+                from = i;
+            } else {
+                sort(i, to);
+                to = j;
+            }
+        }
+
+        for (int i = from + 1; i <= to; i++) {
+            final long millis = m_millis[i];
+            final int index = m_index[i];
+            int j = i - 1;
+            while (j >= from && compare(j, millis, index) > 0) {
+                m_millis[j + 1] = m_millis[j];
+                m_index[j + 1] = m_index[j];
+                j--;
+            }
+            m_millis[j + 1] = millis;
+            m_index[j + 1] = index;
+        }
+    }
+
+    private int compare(int idx, long millis, int index) {
+        int result = Long.compare(m_millis[idx], millis);
+        return result != 0 ? result : Integer.compare(m_index[idx], index);
+    }
+
+    private void swap(int a, int b) {
+        final long millis = m_millis[a];
+        final int index = m_index[a];
+        m_millis[a] = m_millis[b];
+        m_index[a] = m_index[b];
+        m_millis[b] = millis;
+        m_index[b] = index;
+    }
+}
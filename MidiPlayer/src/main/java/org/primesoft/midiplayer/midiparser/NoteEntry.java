@@ -42,7 +42,8 @@ package org.primesoft.midiplayer.midiparser;
 
 import org.bukkit.Location;
 import org.bukkit.entity.Player;
-import org.primesoft.midiplayer.configuration.ConfigProvider;
+import org.primesoft.midiplayer.sound.INoteSink;
+import org.primesoft.midiplayer.sound.SoundPlayer;
 
 /**
  * MIDI note.
@@ -51,31 +52,63 @@ import org.primesoft.midiplayer.configuration.ConfigProvider;
  */
 public class NoteEntry {
 
+    private final int m_patchId;
     private final String m_instrumentPatch;
     private final float m_volume;
     private final float m_frq;
 
-    NoteEntry(String instrumentPatch, float frq, float volume) {
+    NoteEntry(int patchId, String instrumentPatch, float frq, float volume) {
+        m_patchId = patchId;
         m_instrumentPatch = instrumentPatch;
         m_frq = frq;
         m_volume = volume;
     }
 
+    int getPatchId() {
+        return m_patchId;
+    }
+
+    String getPatch() {
+        return m_instrumentPatch;
+    }
+
+    float getFrq() {
+        return m_frq;
+    }
+
+    float getVolume() {
+        return m_volume;
+    }
+
+    /**
+     * Play the note using the current note sink
+     *
+     * @param player The player that hears the note
+     * @param location The sound location, if null the player location is used
+     */
     public void play(Player player, Location location) {
-        if (m_instrumentPatch == null
-                || m_volume == 0
-                || player == null || !player.isOnline()) {
+        if (player == null || !player.isOnline()) {
             return;
         }
 
-        if (location == null) {
-            location = player.getLocation();
-        }
+        final INoteSink sink = SoundPlayer.getSink();
+        play(player, location != null ? location : player.getLocation(), sink);
+        sink.flush();
+    }
 
-        if (m_frq < 0 || m_frq > 2) {
+    /**
+     * Play the note to the online player
+     *
+     * @param player The online player that hears the note
+     * @param location The sound location
+     * @param sink The note sink
+     */
+    public void play(Player player, Location location, INoteSink sink) {
+        if (m_instrumentPatch == null || m_volume == 0 || m_frq < 0 || m_frq > 2) {
             return;
         }
-        player.playSound(location, m_instrumentPatch, ConfigProvider.getSoundCategory(), m_volume, m_frq);
+
+        sink.play(player, location, m_patchId, m_instrumentPatch, m_volume, m_frq);
     }
 
     @Override
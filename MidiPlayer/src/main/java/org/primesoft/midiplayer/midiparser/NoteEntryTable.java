@@ -0,0 +1,144 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.midiparser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Global table of the instrument patches. The patches are mapped to
+ * small ids that are stored in the compiled tracks.
+ *
+ * The patch ids are never reused, so they stay valid after the
+ * configuration is reloaded.
+ * @author SBPrime
+ */
+public class NoteEntryTable {
+
+    /**
+     * The patch id used for notes without a patch
+     */
+    public static final int NO_PATCH = -1;
+
+    /**
+     * The maximum number of patches (the ids are stored as short)
+     */
+    private static final int MAX_PATCHES = Short.MAX_VALUE;
+
+    /**
+     * The patches indexed by the patch id
+     */
+    private static final List<String> s_patches = new ArrayList<String>();
+
+    /**
+     * The patch ids
+     */
+    private static final Map<String, Integer> s_patchIds = new HashMap<String, Integer>();
+
+    /**
+     * MTA access mutex
+     */
+    private static final Object s_mutex = new Object();
+
+    /**
+     * Get the patch id
+     *
+     * @param patch The instrument patch
+     * @return The patch id
+     */
+    public static int getPatchId(String patch) {
+        if (patch == null) {
+            return NO_PATCH;
+        }
+
+        synchronized (s_mutex) {
+            Integer result = s_patchIds.get(patch);
+            if (result == null) {
+                if (s_patches.size() >= MAX_PATCHES) {
+                    return NO_PATCH;
+                }
+
+
+                result = s_patches.size();
+                s_patches.add(patch);
+                s_patchIds.put(patch, result);
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * Get the patch
+     *
+     * @param patchId The patch id
+     * @return The instrument patch or null if there is no patch
+     */
+    public static String getPatch(int patchId) {
+        synchronized (s_mutex) {
+            return patchId >= 0 && patchId < s_patches.size() ? s_patches.get(patchId) : null;
+        }
+    }
+
+    /**
+     * Get all known patches
+     *
+     * @return The patches indexed by the patch id
+     */
+    public static String[] getPatches() {
+        synchronized (s_mutex) {
+            return s_patches.toArray(new String[0]);
+        }
+    }
+
+    /**
+     * Get the number of known patches
+     *
+     * @return Number of patches
+     */
+    public static int getPatchCount() {
+        synchronized (s_mutex) {
+            return s_patches.size();
+        }
+    }
+}
@@ -40,10 +40,10 @@
  */
 package org.primesoft.midiplayer.midiparser;
 
-import java.util.Set;
-
 import org.bukkit.Location;
 import org.bukkit.entity.Player;
+import org.primesoft.midiplayer.sound.INoteSink;
+import org.primesoft.midiplayer.sound.SoundPlayer;
 
 /**
  * Collection of MIDI notes played on the same time
@@ -69,33 +69,51 @@ public class NoteFrame {
      */
     private final NoteEntry[] m_notes;
 
-    public NoteFrame(long delta, Set<TrackEntry> notes) {
+    NoteFrame(long delta, NoteEntry[] notes) {
         m_wait = delta;
+        m_notes = notes != null ? notes : new NoteEntry[0];
+    }
 
-        if (notes == null) {
-            m_notes = new NoteEntry[0];
-        } else {
-            final int cnt = notes.size();
-            m_notes = new NoteEntry[cnt];
+    /**
+     * Get the notes
+     * @return The notes played in the frame
+     */
+    NoteEntry[] getNotes() {
+        return m_notes;
+    }
 
-            int i = 0;
-            for (TrackEntry entry : notes) {
-                m_notes[i] = entry.getNote();
-                i++;
-            }
-        }
+    /**
+     * Get the number of notes in the frame
+     * @return The number of notes
+     */
+    public int getNoteCount() {
+        return m_notes.length;
     }
 
+    /**
+     * Play the notes using the current note sink
+     * @param player The player that hears the notes
+     * @param location The sound location, if null the player location is used
+     */
     public void play(Player player, Location location) {
         if (player == null || !player.isOnline()) {
             return;
         }
 
-        if (location == null) {
-            location = player.getLocation();
-        }
+        final INoteSink sink = SoundPlayer.getSink();
+        play(player, location != null ? location : player.getLocation(), sink);
+        sink.flush();
+    }
+
+    /**
+     * Play the notes to the online player
+     * @param player The online player that hears the notes
+     * @param location The sound location
+     * @param sink The note sink
+     */
+    public void play(Player player, Location location, INoteSink sink) {
         for (NoteEntry note : m_notes) {
-            note.play(player, location);
+            note.play(player, location, sink);
         }
     }
 }
@@ -0,0 +1,255 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.midiparser;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reduces the note density of very dense MIDI files. The notes are
+ * grouped in fixed time windows. In each window the notes with the same
+ * patch and pitch are merged (the volumes are summed) and only the
+ * loudest notes are kept, taking the notes from all channels in turns
+ * so a single dense channel does not drown the others.
+ * @author SBPrime
+ */
+public class NoteReducer {
+
+    /**
+     * Default reduction window in milliseconds
+     */
+    public static final int DEFAULT_WINDOW = 50;
+
+    /**
+     * Default maximum number of notes in a window
+     */
+    public static final int DEFAULT_MAX_NOTES = 24;
+
+    /**
+     * Number of the channel slots (MIDI channels)
+     */
+    private static final int CHANNELS = 16;
+
+    private static final AtomicLong s_merged = new AtomicLong();
+
+    private static final AtomicLong s_dropped = new AtomicLong();
+
+    /**
+     * The window length in milliseconds
+     */
+    private final int m_window;
+
+    /**
+     * The maximum number of notes in a window
+     */
+    private final int m_maxNotes;
+
+    public NoteReducer(int window, int maxNotes) {
+        if (window <= 0 || maxNotes <= 0) {
+            throw new IllegalArgumentException("The window and the maximum number of notes must be positive");
+        }
+
+        m_window = window;
+        m_maxNotes = maxNotes;
+    }
+
+    public int getWindow() {
+        return m_window;
+    }
+
+    public int getMaxNotes() {
+        return m_maxNotes;
+    }
+
+    /**
+     * Get the reducer signature used in the track store keys
+     *
+     * @return The reducer settings
+     */
+    String getSignature() {
+        return m_window + "/" + m_maxNotes;
+    }
+
+    /**
+     * Get the number of notes merged with other notes
+     *
+     * @return Number of notes
+     */
+    public static long getMerged() {
+        return s_merged.get();
+    }
+
+    /**
+     * Get the number of notes dropped from the full windows
+     *
+     * @return Number of notes
+     */
+    public static long getDropped() {
+        return s_dropped.get();
+    }
+
+    /**
+     * Get the window of the time
+     *
+     * @param millis The time in milliseconds
+     * @return The window index
+     */
+    long getWindow(long millis) {
+        return millis / m_window;
+    }
+
+    /**
+     * Reduce the notes in place. The time and index columns are
+     * sorted by time and are compacted, the volumes of the merged notes
+     * are updated.
+     *
+     * @param millis The sorted note times
+     * @param index The note index for each time
+     * @param size Number of notes
+     * @param patchIds The note patch ids
+     * @param pitches The note pitches
+     * @param volumes The note volumes
+     * @param channels The note channels
+     * @return Number of the remaining notes
+     */
+    int reduce(long[] millis, int[] index, int size, short[] patchIds,
+            float[] pitches, float[] volumes, byte[] channels) {
+        int[] table = new int[0];
+        long[] order = new long[0];
+        long[] rounds = new long[0];
+        boolean[] keep = new boolean[0];
+        final int[] channelRanks = new int[CHANNELS];
+
+        long merged = 0;
+        long dropped = 0;
+        int out = 0;
+        int start = 0;
+        while (start < size) {
+            final long window = getWindow(millis[start]);
+            int end = start + 1;
+            while (end < size && getWindow(millis[end]) == window) {
+                end++;
+            }
+
+            //Merge the notes with the same patch and pitch
+            final int runStart = out;
+            final int capacity = Integer.highestOneBit(end - start) << 2;
+            if (table.length < capacity) {
+                table = new int[capacity];
+            }
+            Arrays.fill(table, 0, capacity, -1);
+
+            final int mask = capacity - 1;
+            for (int i = start; i < end; i++) {
+                final int note = index[i];
+                final int pitch = Float.floatToIntBits(pitches[note]);
+                int slot = ((patchIds[note] * 31 + pitch) * 0x9e3779b9 >>> 16) & mask;
+                int same = -1;
+                while (table[slot] >= 0) {
+                    final int other = table[slot];
+                    if (patchIds[other] == patchIds[note]
+                            && Float.floatToIntBits(pitches[other]) == pitch) {
+                        same = other;
+                        break;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+
+                if (same >= 0) {
+                    volumes[same] = Math.min(NoteResolver.MAX_VOLUME, volumes[same] + volumes[note]);
+                    merged++;
+                } else {
+                    table[slot] = note;
+                    millis[out] = millis[i];
+                    index[out] = note;
+                    out++;
+                }
+            }
+
+            //Keep the loudest notes, taking the notes from the channels in turns
+            final int count = out - runStart;
+            if (count > m_maxNotes) {
+                if (order.length < count) {
+                    order = new long[count];
+                    rounds = new long[count];
+                    keep = new boolean[count];
+                }
+
+                for (int i = 0; i < count; i++) {
+                    final int volume = Float.floatToIntBits(Math.max(0, volumes[index[runStart + i]]));
+                    order[i] = ((long) (Integer.MAX_VALUE - volume) << 32) | i;
+                }
+                Arrays.sort(order, 0, count);
+
+                Arrays.fill(channelRanks, 0);
+                for (int i = 0; i < count; i++) {
+                    final int note = index[runStart + (int) order[i]];
+                    final int channel = channels[note] & (CHANNELS - 1);
+                    rounds[i] = ((long) channelRanks[channel]++ << 32) | i;
+                }
+                Arrays.sort(rounds, 0, count);
+
+                Arrays.fill(keep, 0, count, false);
+                for (int i = 0; i < m_maxNotes; i++) {
+                    keep[(int) order[(int) rounds[i]]] = true;
+                }
+
+                int kept = runStart;
+                for (int i = 0; i < count; i++) {
+                    if (keep[i]) {
+                        millis[kept] = millis[runStart + i];
+                        index[kept] = index[runStart + i];
+                        kept++;
+                    }
+                }
+
+                dropped += count - m_maxNotes;
+                out = kept;
+            }
+
+            start = end;
+        }
+
+        s_merged.addAndGet(merged);
+        s_dropped.addAndGet(dropped);
+        return out;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.midiparser;
+
+import java.util.Arrays;
+import org.primesoft.midiplayer.instruments.Instrument;
+import org.primesoft.midiplayer.instruments.InstrumentEntry;
+import org.primesoft.midiplayer.instruments.InstrumentMap;
+import org.primesoft.midiplayer.utils.InOutParam;
+
+/**
+ * Converts the MIDI events to notes. The events have to be
+ * provided in the global time order.
+ * @author SBPrime
+ */
+class NoteResolver {
+
+    /**
+     * Number of MIDI channels
+     */
+    private static final int CHANNELS = 16;
+
+    /**
+     * The maximum note volume
+     */
+    static final float MAX_VOLUME = 3.0f;
+
+    /**
+     * The instruments assigned to channels
+     */
+    private final Instrument[] m_instruments;
+
+    /**
+     * The volume of each channel
+     */
+    private final int[] m_masterVolume;
+
+    /**
+     * The collected notes
+     */
+    private final NoteAggregator m_notes;
+
+    NoteResolver(NoteAggregator notes) {
+        m_instruments = new Instrument[CHANNELS];
+        m_masterVolume = new int[CHANNELS];
+        m_notes = notes;
+
+        Arrays.fill(m_instruments, InstrumentMap.getDefault());
+        Arrays.fill(m_masterVolume, 127);
+    }
+
+    /**
+     * Note on event
+     *
+     * @param milis The event time in milliseconds
+     * @param channel The MIDI channel
+     * @param key The note key
+     * @param velocity The note velocity
+     */
+    void noteOn(long milis, int channel, int key, int velocity) {
+        if (velocity <= 0) {
+            return;
+        }
+
+        final float volume = m_masterVolume[channel] / 127.0f * velocity / 127.0f;
+        if (channel == 9 || channel == 10) {//9, 10 = Drum machine
+            InstrumentEntry instrument = InstrumentMap.getDrum(key);
+            if (instrument != null) {
+                addDrum(milis, channel, instrument, volume);
+            }
+        } else {
+            int octave = (key / 12) - 1;
+            int note = key % 12;
+
+            Instrument instrument = m_instruments[channel];
+            if (instrument != null) {
+                addNote(milis, channel, instrument, octave, note, volume);
+            }
+        }
+    }
+
+    /**
+     * Program change event
+     *
+     * @param channel The MIDI channel
+     * @param program The new program
+     */
+    void programChange(int channel, int program) {
+        m_instruments[channel] = InstrumentMap.getInstrument(program);
+    }
+
+    /**
+     * Channel volume event
+     *
+     * @param channel The MIDI channel
+     * @param volume The new channel volume
+     */
+    void channelVolume(int channel, int volume) {
+        m_masterVolume[channel] = volume;
+    }
+
+    /**
+     * Add the drum note
+     *
+     * @param milis The note time in milliseconds
+     * @param channel The MIDI channel
+     * @param instrument The drum instrument
+     * @param volume The note volume
+     */
+    private void addDrum(long milis, int channel, InstrumentEntry instrument, float volume) {
+        final float scale = Math.max(0, instrument.getVolumeScale());
+        final float vv = Math.max(0, Math.min(1, volume * scale)) * MAX_VOLUME;
+
+        m_notes.add(milis, channel, NoteEntryTable.getPatchId(instrument.getPatch()), 1.0f, vv);
+    }
+
+    /**
+     * Add the instrument note
+     *
+     * @param milis The note time in milliseconds
+     * @param channel The MIDI channel
+     * @param instrument The channel instrument
+     * @param octave The note octave
+     * @param note The note in the octave
+     * @param volume The note volume
+     */
+    private void addNote(long milis, int channel, Instrument instrument, int octave, int note, float volume) {
+        InOutParam<Integer> startOctave = InOutParam.Out();
+        InstrumentEntry iEntry = instrument.getEntry(octave, startOctave);
+        if (iEntry != null && startOctave.isSet()) {
+            octave -= startOctave.getValue();
+        }
+
+        final float scale;
+        final String instrumentPatch;
+        if (iEntry != null) {
+            scale = Math.max(0, iEntry.getVolumeScale());
+            instrumentPatch = iEntry.getPatch();
+        } else {
+            scale = 0.0f;
+            instrumentPatch = null;
+        }
+
+        final float frq = (float) Math.pow(2, (note + 12 * (octave % 2) - 12.0) / 12.0);
+        final float vv = Math.max(0, Math.min(1, volume * scale)) * MAX_VOLUME;
+
+        m_notes.add(milis, channel, NoteEntryTable.getPatchId(instrumentPatch), frq, vv);
+    }
+}
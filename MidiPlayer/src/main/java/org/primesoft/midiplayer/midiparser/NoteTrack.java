@@ -46,27 +46,94 @@ package org.primesoft.midiplayer.midiparser;
  */
 public class NoteTrack {
     private final String m_message;
-    private final NoteFrame[] m_notes;
+    private final CompiledTrack m_track;
+    private final TrackStream m_stream;
+    private int m_removedNotes;
 
     public String getMessage() {
         return m_message;
     }
 
+    /**
+     * Get the compiled track
+     * @return The compiled track, null if the track is an error or is streamed
+     */
+    public CompiledTrack getTrack() {
+        return m_track;
+    }
+
+    /**
+     * Get the track notes. The frames are created on each call,
+     * use getTrack to access the notes without creating the frames.
+     * @return The note frames, null if the track is an error
+     */
     public NoteFrame[] getNotes() {
-        return m_notes;
+        return m_track != null ? m_track.toFrames() : null;
+    }
+
+    /**
+     * Get the frames to play
+     * @return The compiled track or the track stream
+     */
+    public IFrameSource getSource() {
+        return m_stream != null ? m_stream : m_track;
+    }
+
+    /**
+     * Is the track played while the file is parsed
+     * @return true if the track is streamed
+     */
+    public boolean isStreamed() {
+        return m_stream != null;
+    }
+
+    /**
+     * Get the number of notes removed by the density reducer
+     * @return The number of removed notes, 0 if the track was not parsed
+     */
+    public int getRemovedNotes() {
+        return m_removedNotes;
+    }
+
+    void setRemovedNotes(int removedNotes) {
+        m_removedNotes = removedNotes;
     }
 
     public boolean isError() {
-        return m_notes == null;
+        return m_track == null && m_stream == null;
+    }
+
+    /**
+     * Get the total number of notes in the track
+     * @return The number of notes
+     */
+    public int getNoteCount() {
+        if (m_stream != null) {
+            return m_stream.getNoteCount();
+        }
+
+        return m_track != null ? m_track.getNoteCount() : 0;
     }
 
     public NoteTrack(String message) {
         m_message = message;
-        m_notes = null;
+        m_track = null;
+        m_stream = null;
     }
     
     public NoteTrack(NoteFrame[] notes) {
+        this(CompiledTrack.compile(notes));
+    }
+
+    public NoteTrack(CompiledTrack track) {
+        m_message = "";
+        m_track = track;
+        m_stream = null;
+    }
+
+    public NoteTrack(TrackStream stream) {
         m_message = "";
-        m_notes = notes;
+        m_track = null;
+        m_stream = stream;
     }
 }
@@ -0,0 +1,221 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.midiparser;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of parsed MIDI files. The cache is weighted
+ * by the number of notes stored in the cached tracks.
+ * @author SBPrime
+ */
+public class NoteTrackCache {
+    /**
+     * The cached track with the source file version
+     */
+    private static class CacheEntry {
+        private final long m_size;
+        private final long m_lastModified;
+        private final long m_weight;
+        private final NoteTrack m_track;
+
+        private CacheEntry(long size, long lastModified, long weight, NoteTrack track) {
+            m_size = size;
+            m_lastModified = lastModified;
+            m_weight = weight;
+            m_track = track;
+        }
+    }
+
+    /**
+     * The cached entries in the LRU order
+     */
+    private final LinkedHashMap<String, CacheEntry> m_entries;
+
+    /**
+     * The maximum cache weight (number of notes)
+     */
+    private long m_maxWeight;
+
+    /**
+     * The current cache weight (number of notes)
+     */
+    private long m_weight;
+
+    private long m_hits;
+
+    private long m_misses;
+
+    private long m_evictions;
+
+    public NoteTrackCache(long maxWeight) {
+        m_entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+        m_maxWeight = maxWeight;
+    }
+
+    /**
+     * Get the cached track
+     * @param key The file key
+     * @param size The current file size
+     * @param lastModified The current file modification time
+     * @return The cached track or null if there is no valid entry
+     */
+    public synchronized NoteTrack get(String key, long size, long lastModified) {
+        CacheEntry entry = m_entries.get(key);
+        if (entry == null) {
+            m_misses++;
+            return null;
+        }
+
+        if (entry.m_size != size || entry.m_lastModified != lastModified) {
+            m_entries.remove(key);
+            m_weight -= entry.m_weight;
+            m_misses++;
+            return null;
+        }
+
+        m_hits++;
+        return entry.m_track;
+    }
+
+    /**
+     * Add track to the cache
+     * @param key The file key
+     * @param size The file size
+     * @param lastModified The file modification time
+     * @param track The parsed track
+     */
+    public synchronized void put(String key, long size, long lastModified, NoteTrack track) {
+        if (key == null || track == null || track.getTrack() == null) {
+            return;
+        }
+
+        remove(key);
+
+        long weight = getWeight(track);
+        if (weight > m_maxWeight) {
+            return;
+        }
+
+        m_entries.put(key, new CacheEntry(size, lastModified, weight, track));
+        m_weight += weight;
+
+        trim();
+    }
+
+    /**
+     * Remove the track from the cache
+     * @param key The file key
+     */
+    public synchronized void remove(String key) {
+        CacheEntry entry = m_entries.remove(key);
+        if (entry != null) {
+            m_weight -= entry.m_weight;
+        }
+    }
+
+    /**
+     * Remove all cached tracks
+     */
+    public synchronized void clear() {
+        m_entries.clear();
+        m_weight = 0;
+    }
+
+    /**
+     * Set the maximum cache weight
+     * @param maxWeight The maximum number of cached notes
+     */
+    public synchronized void setMaxWeight(long maxWeight) {
+        m_maxWeight = Math.max(0, maxWeight);
+        trim();
+    }
+
+    public synchronized long getMaxWeight() {
+        return m_maxWeight;
+    }
+
+    public synchronized long getWeight() {
+        return m_weight;
+    }
+
+    public synchronized int getSize() {
+        return m_entries.size();
+    }
+
+    public synchronized long getHits() {
+        return m_hits;
+    }
+
+    public synchronized long getMisses() {
+        return m_misses;
+    }
+
+    public synchronized long getEvictions() {
+        return m_evictions;
+    }
+
+    /**
+     * Remove the least recently used entries until the cache fits the limit
+     */
+    private void trim() {
+        Iterator<Map.Entry<String, CacheEntry>> it = m_entries.entrySet().iterator();
+        while (m_weight > m_maxWeight && it.hasNext()) {
+            CacheEntry entry = it.next().getValue();
+            it.remove();
+
+            m_weight -= entry.m_weight;
+            m_evictions++;
+        }
+    }
+
+    /**
+     * Get the track weight. Each frame is counted as a note
+     * to include the frame overhead.
+     * @param track The track
+     * @return The track weight
+     */
+    private static long getWeight(NoteTrack track) {
+        return track.getNoteCount() + track.getTrack().getFrameCount();
+    }
+}
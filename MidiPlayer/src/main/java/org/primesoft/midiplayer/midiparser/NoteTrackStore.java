@@ -0,0 +1,533 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.midiparser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import org.primesoft.midiplayer.MidiPlayerMain;
+import org.primesoft.midiplayer.utils.Utils;
+
+/**
+ * Store of the precompiled tracks (.mpt files). The tracks are keyed by
+ * the hash of the MIDI file contents and the instrument map signature,
+ * so identical files share one entry and map changes invalidate it.
+ *
+ * The file contains the header followed by the patch table and the
+ * frame waits, frame sizes, patch ids, pitches and volumes columns
+ * of the compiled track.
+ * @author SBPrime
+ */
+public class NoteTrackStore {
+
+    /**
+     * The default store folder name (in the plugin folder)
+     */
+    public static final String FOLDER = "cache";
+
+    /**
+     * The store file extension
+     */
+    public static final String EXTENSION = ".mpt";
+
+    /**
+     * The default maximum size of the stored tracks (in bytes)
+     */
+    public static final long DEFAULT_MAX_SIZE = 100L * 1024 * 1024;
+
+    /**
+     * The file magic: "MPT" and the format version
+     */
+    private static final int MAGIC = 0x4d505402;
+
+    /**
+     * The header size (magic, flags, frames, notes, patch table size)
+     */
+    private static final int HEADER_SIZE = 20;
+
+    /**
+     * The track is quantized to the server ticks
+     */
+    private static final int FLAG_QUANTIZED = 1;
+
+    /**
+     * The maximum store file size
+     */
+    private static final long MAX_SIZE = Integer.MAX_VALUE;
+
+    /**
+     * The store folder
+     */
+    private final File m_folder;
+
+    /**
+     * The maximum size of the stored tracks, 0 for no limit
+     */
+    private final long m_maxSize;
+
+    private final AtomicLong m_hits = new AtomicLong();
+
+    private final AtomicLong m_misses = new AtomicLong();
+
+    private final AtomicLong m_writes = new AtomicLong();
+
+    public NoteTrackStore(File folder) {
+        this(folder, DEFAULT_MAX_SIZE);
+    }
+
+    public NoteTrackStore(File folder, long maxSize) {
+        m_folder = folder;
+        m_maxSize = Math.max(0, maxSize);
+    }
+
+    public File getFolder() {
+        return m_folder;
+    }
+
+    public long getHits() {
+        return m_hits.get();
+    }
+
+    public long getMisses() {
+        return m_misses.get();
+    }
+
+    public long getWrites() {
+        return m_writes.get();
+    }
+
+    /**
+     * Get the store key
+     *
+     * @param midiData The MIDI file contents
+     * @param mapSignature The instrument map signature
+     * @param compileSignature The compile options signature
+     * @return The store key
+     */
+    public static String getKey(byte[] midiData, String mapSignature, String compileSignature) {
+        MessageDigest digest = Utils.createDigest();
+        digest.update(midiData);
+        Utils.updateDigest(digest, mapSignature);
+        Utils.updateDigest(digest, compileSignature);
+
+        return Utils.toHex(digest.digest());
+    }
+
+    /**
+     * Load the stored track
+     *
+     * @param key The store key
+     * @return The stored track or null if there is no valid entry
+     */
+    public NoteTrack load(String key) {
+        File file = getFile(key);
+        if (!file.isFile()) {
+            m_misses.incrementAndGet();
+            return null;
+        }
+
+        try {
+            NoteTrack result = read(file);
+            if (result != null) {
+                file.setLastModified(System.currentTimeMillis());
+                m_hits.incrementAndGet();
+                return result;
+            }
+
+            MidiPlayerMain.log(Level.WARNING, "Invalid precompiled track " + file.getName());
+        } catch (IOException ex) {
+            MidiPlayerMain.log(Level.WARNING, "Unable to read precompiled track " + file.getName());
+        }
+
+        m_misses.incrementAndGet();
+        file.delete();
+        return null;
+    }
+
+    /**
+     * Store the track
+     *
+     * @param key The store key
+     * @param track The track to store
+     */
+    public void save(String key, NoteTrack track) {
+        if (key == null || track == null || track.getTrack() == null) {
+            return;
+        }
+
+        if (!m_folder.isDirectory() && !m_folder.mkdirs()) {
+            MidiPlayerMain.log(Level.WARNING, "Unable to create the track cache folder");
+            return;
+        }
+
+        File file = getFile(key);
+        File tmpFile = null;
+        try {
+            ByteBuffer data = write(track);
+            if (data == null) {
+                return;
+            }
+
+            tmpFile = File.createTempFile(key, ".tmp", m_folder);
+            try (RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw")) {
+                FileChannel channel = raf.getChannel();
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+            }
+
+            try {
+                Files.move(tmpFile.toPath(), file.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            m_writes.incrementAndGet();
+        } catch (IOException ex) {
+            MidiPlayerMain.log(Level.WARNING, "Unable to write precompiled track " + file.getName());
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Remove the stored track
+     *
+     * @param key The store key
+     */
+    public void remove(String key) {
+        if (key != null) {
+            getFile(key).delete();
+        }
+    }
+
+    /**
+     * Remove all stored tracks
+     */
+    public void clear() {
+        for (File file : listFiles()) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Remove the stored tracks that are not used by the library,
+     * the tracks compiled with an old instrument map or old compile
+     * options are never loaded again
+     *
+     * @param keys The store keys of the library files
+     * @return The number of removed tracks
+     */
+    public int retain(Collection<String> keys) {
+        int result = 0;
+        for (File file : listFiles()) {
+            String name = file.getName();
+            if (!keys.contains(name.substring(0, name.length() - EXTENSION.length())) && file.delete()) {
+                result++;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Remove the least recently used tracks until the stored
+     * tracks fit in the maximum store size
+     *
+     * @return The number of removed tracks
+     */
+    public int trim() {
+        if (m_maxSize <= 0) {
+            return 0;
+        }
+
+        File[] files = listFiles();
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        int result = 0;
+        for (int i = 0; i < files.length && size > m_maxSize; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                size -= length;
+                result++;
+            }
+        }
+
+        return result;
+    }
+
+    private File[] listFiles() {
+        File[] result = m_folder.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        return result != null ? result : new File[0];
+    }
+
+    private File getFile(String key) {
+        return new File(m_folder, key + EXTENSION);
+    }
+
+    /**
+     * Read the track file using a single read
+     *
+     * @param file The file to read
+     * @return The track or null if the file is invalid
+     * @throws IOException
+     */
+    private static NoteTrack read(File file) throws IOException {
+        ByteBuffer data;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > MAX_SIZE) {
+                return null;
+            }
+
+            data = ByteBuffer.allocate((int) size);
+            while (data.hasRemaining()) {
+                if (channel.read(data) < 0) {
+                    return null;
+                }
+            }
+        }
+
+        data.flip();
+        return decode(data);
+    }
+
+    /**
+     * Decode the track
+     *
+     * @param data The file contents
+     * @return The track or null if the data is invalid
+     */
+    static NoteTrack decode(ByteBuffer data) {
+        if (data.getInt() != MAGIC) {
+            return null;
+        }
+
+        final int flags = data.getInt();
+        final int frameCount = data.getInt();
+        final int noteCount = data.getInt();
+        final int patchCount = data.getInt();
+        if (frameCount < 0 || noteCount < 0 || patchCount < 0
+                || patchCount > Short.MAX_VALUE
+                || (long) frameCount * 12 + (long) noteCount * 10 > data.remaining()) {
+            return null;
+        }
+
+        final String[] patches = new String[patchCount];
+        for (int i = 0; i < patchCount; i++) {
+            if (data.remaining() < 2) {
+                return null;
+            }
+
+            int length = data.getShort() & 0xffff;
+            if (length > data.remaining()) {
+                return null;
+            }
+
+            byte[] bytes = new byte[length];
+            data.get(bytes);
+            patches[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        if (data.remaining() != frameCount * 12 + noteCount * 10) {
+            return null;
+        }
+
+        final long[] waits = new long[frameCount];
+        final int[] offsets = new int[frameCount + 1];
+        final short[] patchIds = new short[noteCount];
+        final float[] pitches = new float[noteCount];
+        final float[] volumes = new float[noteCount];
+
+        data.asLongBuffer().get(waits);
+        data.position(data.position() + frameCount * 8);
+        data.asIntBuffer().get(offsets, 0, frameCount);
+        data.position(data.position() + frameCount * 4);
+        data.asShortBuffer().get(patchIds);
+        data.position(data.position() + noteCount * 2);
+        data.asFloatBuffer().get(pitches);
+        data.position(data.position() + noteCount * 4);
+        data.asFloatBuffer().get(volumes);
+
+        //Convert the frame sizes to offsets
+        int note = 0;
+        for (int i = 0; i < frameCount; i++) {
+            final int size = offsets[i];
+            if (size < 0 || size > noteCount - note) {
+                return null;
+            }
+
+            offsets[i] = note;
+            note += size;
+        }
+        offsets[frameCount] = note;
+
+        if (note != noteCount) {
+            return null;
+        }
+
+        //Convert the file patch ids to the global patch ids
+        final short[] globalIds = new short[patchCount];
+        for (int i = 0; i < patchCount; i++) {
+            globalIds[i] = (short) NoteEntryTable.getPatchId(patches[i]);
+        }
+        for (int i = 0; i < noteCount; i++) {
+            final int patchId = patchIds[i];
+            if (patchId >= patchCount) {
+                return null;
+            }
+
+            patchIds[i] = patchId < 0 ? NoteEntryTable.NO_PATCH : globalIds[patchId];
+        }
+
+        if ((flags & FLAG_QUANTIZED) == 0) {
+            return new NoteTrack(new CompiledTrack(waits, offsets, patchIds, pitches, volumes));
+        }
+
+        final int[] tickWaits = new int[frameCount];
+        for (int i = 0; i < frameCount; i++) {
+            final long wait = waits[i];
+            if (wait < 0 || wait % CompiledTrack.TICK_MILLIS != 0
+                    || wait / CompiledTrack.TICK_MILLIS > Integer.MAX_VALUE) {
+                return null;
+            }
+
+            tickWaits[i] = (int) (wait / CompiledTrack.TICK_MILLIS);
+        }
+
+        return new NoteTrack(new CompiledTrack(tickWaits, offsets, patchIds, pitches, volumes));
+    }
+
+    /**
+     * Encode the track
+     *
+     * @param track The track to encode
+     * @return The encoded track or null if the track can't be stored
+     */
+    static ByteBuffer write(NoteTrack track) {
+        final CompiledTrack compiled = track.getTrack();
+        final int frameCount = compiled.getFrameCount();
+        final int noteCount = compiled.getNoteCount();
+
+        final Map<String, Integer> patchIds = new HashMap<String, Integer>();
+        final List<byte[]> patches = new ArrayList<byte[]>();
+        final short[] notePatches = new short[noteCount];
+        long size = HEADER_SIZE + (long) frameCount * 12 + (long) noteCount * 10;
+        for (int i = 0; i < noteCount; i++) {
+            final String patch = compiled.getPatch(i);
+            if (patch == null) {
+                notePatches[i] = -1;
+                continue;
+            }
+
+            Integer patchId = patchIds.get(patch);
+            if (patchId == null) {
+                byte[] bytes = patch.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > 0xffff || patches.size() >= Short.MAX_VALUE) {
+                    return null;
+                }
+
+                patchId = patches.size();
+                patchIds.put(patch, patchId);
+                patches.add(bytes);
+                size += 2 + bytes.length;
+            }
+
+            notePatches[i] = (short) (int) patchId;
+        }
+
+        if (size > MAX_SIZE) {
+            return null;
+        }
+
+        final ByteBuffer data = ByteBuffer.allocate((int) size);
+        data.putInt(MAGIC);
+        data.putInt(compiled.isQuantized() ? FLAG_QUANTIZED : 0);
+        data.putInt(frameCount);
+        data.putInt(noteCount);
+        data.putInt(patches.size());
+        for (byte[] patch : patches) {
+            data.putShort((short) patch.length);
+            data.put(patch);
+        }
+
+        for (int i = 0; i < frameCount; i++) {
+            data.putLong(compiled.getWait(i));
+        }
+        for (int i = 0; i < frameCount; i++) {
+            data.putInt(compiled.getNoteCount(i));
+        }
+        for (int i = 0; i < noteCount; i++) {
+            data.putShort(notePatches[i]);
+        }
+        for (int i = 0; i < noteCount; i++) {
+            data.putFloat(compiled.getPitch(i));
+        }
+        for (int i = 0; i < noteCount; i++) {
+            data.putFloat(compiled.getVolume(i));
+        }
+
+        data.flip();
+        return data;
+    }
+}
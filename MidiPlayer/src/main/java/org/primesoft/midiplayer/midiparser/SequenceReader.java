@@ -0,0 +1,116 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.midiparser;
+
+import java.nio.charset.StandardCharsets;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+/**
+ * Reports the events of a javax MIDI sequence
+ * @author SBPrime
+ */
+public class SequenceReader {
+
+    /**
+     * Read all tracks of the sequence
+     *
+     * @param sequence The sequence to read
+     * @param handler The event handler
+     */
+    public static void readTracks(Sequence sequence, IMidiEventHandler handler) {
+        Track[] tracks = sequence.getTracks();
+        for (int i = 0; i < tracks.length; i++) {
+            readTrack(i, tracks[i], handler);
+        }
+    }
+
+    /**
+     * Read single track
+     *
+     * @param trackId The track index
+     * @param track The track to read
+     * @param handler The event handler
+     */
+    public static void readTrack(int trackId, Track track, IMidiEventHandler handler) {
+        handler.onTrackStart(trackId);
+
+        for (int idx = 0; idx < track.size(); idx++) {
+            MidiEvent event = track.get(idx);
+            MidiMessage message = event.getMessage();
+            long tick = event.getTick();
+
+            if (message instanceof MetaMessage) {
+                MetaMessage mm = (MetaMessage) message;
+                byte[] data = mm.getData();
+
+                if ((mm.getType() & 0xff) == 0x51
+                        && data != null && data.length > 2) {
+                    handler.onTempo(tick, ((data[0] & 0xFF) << 16)
+                            | ((data[1] & 0xFF) << 8)
+                            | (data[2] & 0xFF));
+                } else if ((mm.getType() & 0xff) == 0x03 && data != null) {
+                    handler.onTrackName(trackId, new String(data, StandardCharsets.ISO_8859_1).trim());
+                }
+            } else if (message instanceof ShortMessage) {
+                ShortMessage sm = (ShortMessage) message;
+                int channel = sm.getChannel();
+                switch (sm.getCommand() & 0xff) {
+                    case ShortMessage.NOTE_ON:
+                        handler.onNoteOn(tick, channel, sm.getData1(), sm.getData2());
+                        break;
+                    case ShortMessage.PROGRAM_CHANGE:
+                        handler.onProgramChange(tick, channel, sm.getData1());
+                        break;
+                    case ShortMessage.CONTROL_CHANGE:
+                        if (sm.getData1() == 0x7) {//Master volume
+                            handler.onChannelVolume(tick, channel, sm.getData2());
+                        }
+                        break;
+                }
+            }
+        }
+    }
+}
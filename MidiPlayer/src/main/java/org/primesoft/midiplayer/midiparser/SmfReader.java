@@ -0,0 +1,392 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.midiparser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Sequence;
+
+/**
+ * Standard MIDI File reader. Decodes the MThd and MTrk chunks directly
+ * from a byte buffer and reports only the events used by the player.
+ * @author SBPrime
+ */
+public class SmfReader {
+
+    private static final int CHUNK_MTHD = 0x4d546864;
+
+    private static final int CHUNK_MTRK = 0x4d54726b;
+
+    private static final int META = 0xff;
+
+    private static final int META_TEMPO = 0x51;
+
+    private static final int META_TRACK_NAME = 0x03;
+
+    private static final int META_END_OF_TRACK = 0x2f;
+
+    private static final int SYSEX = 0xf0;
+
+    private static final int SYSEX_CONTINUATION = 0xf7;
+
+    private static final int NOTE_ON = 0x90;
+
+    private static final int CONTROL_CHANGE = 0xb0;
+
+    private static final int PROGRAM_CHANGE = 0xc0;
+
+    private static final int CHANNEL_PRESSURE = 0xd0;
+
+    private static final int CC_VOLUME = 0x07;
+
+    /**
+     * The file data
+     */
+    private final ByteBuffer m_data;
+
+    /**
+     * The SMF format
+     */
+    private final int m_format;
+
+    /**
+     * The raw division
+     */
+    private final int m_division;
+
+    /**
+     * Track chunk data offsets
+     */
+    private final int[] m_trackOffsets;
+
+    /**
+     * Track chunk data lengths
+     */
+    private final int[] m_trackLengths;
+
+    /**
+     * Open the MIDI file
+     *
+     * @param midiFile The file to read
+     * @return The reader
+     * @throws IOException When failed to read the file
+     * @throws InvalidMidiDataException When the file is not a valid MIDI file
+     */
+    public static SmfReader open(File midiFile) throws IOException, InvalidMidiDataException {
+        try (FileChannel channel = FileChannel.open(midiFile.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new InvalidMidiDataException("File too large");
+            }
+
+            //The file is not memory mapped, the mapping would keep the file locked
+            final ByteBuffer data = ByteBuffer.allocate((int) size);
+            while (data.hasRemaining()) {
+                if (channel.read(data) < 0) {
+                    break;
+                }
+            }
+            data.flip();
+
+            return open(data);
+        }
+    }
+
+    /**
+     * Open the MIDI data
+     *
+     * @param data The MIDI file data
+     * @return The reader
+     * @throws InvalidMidiDataException When the data is not a valid MIDI file
+     */
+    public static SmfReader open(ByteBuffer data) throws InvalidMidiDataException {
+        data = data.slice().order(ByteOrder.BIG_ENDIAN);
+        final int size = data.limit();
+
+        if (size < 14 || data.getInt(0) != CHUNK_MTHD) {
+            throw new InvalidMidiDataException("Missing MThd chunk");
+        }
+
+        final int headerLength = data.getInt(4);
+        if (headerLength < 6 || headerLength > size - 8) {
+            throw new InvalidMidiDataException("Invalid MThd chunk");
+        }
+
+        final int format = data.getShort(8) & 0xffff;
+        final int tracks = data.getShort(10) & 0xffff;
+        final int division = data.getShort(12);
+
+        List<int[]> chunks = new ArrayList<int[]>();
+        int pos = 8 + headerLength;
+        while (chunks.size() < tracks && pos <= size - 8) {
+            final int type = data.getInt(pos);
+            final int start = pos + 8;
+            final int length = (int) Math.min(data.getInt(pos + 4) & 0xffffffffL, size - start);
+
+            if (type == CHUNK_MTRK) {
+                chunks.add(new int[]{start, length});
+            }
+            pos = start + length;
+        }
+
+        int[] offsets = new int[chunks.size()];
+        int[] lengths = new int[chunks.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = chunks.get(i)[0];
+            lengths[i] = chunks.get(i)[1];
+        }
+
+        return new SmfReader(data, format, division, offsets, lengths);
+    }
+
+    private SmfReader(ByteBuffer data, int format, int division, int[] trackOffsets, int[] trackLengths) {
+        m_data = data;
+        m_format = format;
+        m_division = division;
+        m_trackOffsets = trackOffsets;
+        m_trackLengths = trackLengths;
+    }
+
+    /**
+     * Get the SMF format
+     *
+     * @return The file format (0, 1 or 2)
+     */
+    public int getFormat() {
+        return m_format;
+    }
+
+    /**
+     * Get the number of tracks in the file
+     *
+     * @return Number of tracks
+     */
+    public int getTrackCount() {
+        return m_trackOffsets.length;
+    }
+
+    /**
+     * Estimate the number of events in the file. A typical channel
+     * event with running status and a short delta time takes 3 bytes.
+     *
+     * @return The estimated number of events
+     */
+    public long getEventEstimate() {
+        long size = 0;
+        for (int length : m_trackLengths) {
+            size += length;
+        }
+
+        return size / 3;
+    }
+
+    /**
+     * Get the division type using the javax Sequence constants
+     *
+     * @return The division type
+     */
+    public float getDivisionType() {
+        if (m_division >= 0) {
+            return Sequence.PPQ;
+        }
+
+        switch (-(m_division >> 8)) {
+            case 24:
+                return Sequence.SMPTE_24;
+            case 25:
+                return Sequence.SMPTE_25;
+            case 29:
+                return Sequence.SMPTE_30DROP;
+            case 30:
+                return Sequence.SMPTE_30;
+            default:
+                return -(m_division >> 8);
+        }
+    }
+
+    /**
+     * Get the timing resolution
+     *
+     * @return Ticks per quarter note (PPQ) or ticks per frame (SMPTE)
+     */
+    public int getResolution() {
+        return m_division >= 0 ? m_division : (m_division & 0xff);
+    }
+
+    /**
+     * Read all tracks
+     *
+     * @param handler The event handler
+     * @throws InvalidMidiDataException When the track data is invalid
+     */
+    public void readTracks(IMidiEventHandler handler) throws InvalidMidiDataException {
+        for (int i = 0; i < m_trackOffsets.length; i++) {
+            readTrack(i, handler);
+        }
+    }
+
+    /**
+     * Read single track
+     *
+     * @param track The track index
+     * @param handler The event handler
+     * @throws InvalidMidiDataException When the track data is invalid
+     */
+    public void readTrack(int track, IMidiEventHandler handler) throws InvalidMidiDataException {
+        final ByteBuffer data = m_data;
+        final int end = m_trackOffsets[track] + m_trackLengths[track];
+        int pos = m_trackOffsets[track];
+        int runningStatus = 0;
+        long tick = 0;
+
+        handler.onTrackStart(track);
+        while (pos < end) {
+            //Variable length delta time
+            int delta = 0;
+            int b;
+            do {
+                if (pos >= end) {
+                    return;
+                }
+                b = data.get(pos++) & 0xff;
+                delta = (delta << 7) | (b & 0x7f);
+            } while ((b & 0x80) != 0);
+            tick += delta;
+
+            if (pos >= end) {
+                return;
+            }
+
+            int status = data.get(pos) & 0xff;
+            if ((status & 0x80) != 0) {
+                pos++;
+            } else if (runningStatus != 0) {
+                status = runningStatus;
+            } else {
+                throw new InvalidMidiDataException("Missing status byte");
+            }
+
+            if (status == META) {
+                //Meta and sysex events cancel the running status
+                runningStatus = 0;
+                if (pos >= end) {
+                    return;
+                }
+                final int type = data.get(pos++) & 0xff;
+                int length = 0;
+                do {
+                    if (pos >= end) {
+                        return;
+                    }
+                    b = data.get(pos++) & 0xff;
+                    length = (length << 7) | (b & 0x7f);
+                } while ((b & 0x80) != 0);
+
+                if (length > end - pos) {
+                    return;
+                }
+
+                if (type == META_TEMPO && length > 2) {
+                    handler.onTempo(tick, ((data.get(pos) & 0xff) << 16)
+                            | ((data.get(pos + 1) & 0xff) << 8)
+                            | (data.get(pos + 2) & 0xff));
+                } else if (type == META_TRACK_NAME) {
+                    byte[] name = new byte[length];
+                    for (int i = 0; i < length; i++) {
+                        name[i] = data.get(pos + i);
+                    }
+                    handler.onTrackName(track, new String(name, StandardCharsets.ISO_8859_1).trim());
+                } else if (type == META_END_OF_TRACK) {
+                    return;
+                }
+                pos += length;
+            } else if (status == SYSEX || status == SYSEX_CONTINUATION) {
+                runningStatus = 0;
+                int length = 0;
+                do {
+                    if (pos >= end) {
+                        return;
+                    }
+                    b = data.get(pos++) & 0xff;
+                    length = (length << 7) | (b & 0x7f);
+                } while ((b & 0x80) != 0);
+                pos += length;
+            } else if (status >= 0xf0) {
+                throw new InvalidMidiDataException("Invalid status byte " + status);
+            } else {
+                runningStatus = status;
+
+                final int command = status & 0xf0;
+                final int channel = status & 0x0f;
+                final int dataLength = (command == PROGRAM_CHANGE || command == CHANNEL_PRESSURE) ? 1 : 2;
+                if (dataLength > end - pos) {
+                    return;
+                }
+
+                final int data1 = data.get(pos) & 0xff;
+                final int data2 = dataLength > 1 ? data.get(pos + 1) & 0xff : 0;
+                pos += dataLength;
+
+                switch (command) {
+                    case NOTE_ON:
+                        handler.onNoteOn(tick, channel, data1, data2);
+                        break;
+                    case PROGRAM_CHANGE:
+                        handler.onProgramChange(tick, channel, data1);
+                        break;
+                    case CONTROL_CHANGE:
+                        if (data1 == CC_VOLUME) {
+                            handler.onChannelVolume(tick, channel, data2);
+                        }
+                        break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,462 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.midiparser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.primesoft.midiplayer.utils.Utils;
+
+/**
+ * Reads the MIDI files stored in song packs: zip archives (the song is
+ * named like pack.zip!/folder/song.mid) and gzip compressed files.
+ * The opened archives are cached, so the central directory is read
+ * only once for each archive.
+ * @author SBPrime
+ */
+public class SongPackProvider {
+
+    /**
+     * Separates the archive path and the entry name
+     */
+    public static final String ENTRY_SEPARATOR = "!/";
+
+    /**
+     * The gzip compressed file extension
+     */
+    private static final String GZIP_EXTENSION = ".gz";
+
+    /**
+     * The zip archive extension
+     */
+    private static final String ZIP_EXTENSION = ".zip";
+
+    /**
+     * The MIDI file extensions
+     */
+    private static final String[] MIDI_EXTENSIONS = new String[]{".mid", ".midi"};
+
+    /**
+     * Maximum number of the open archives
+     */
+    private static final int MAX_OPEN = 16;
+
+    /**
+     * Opened zip archive
+     */
+    private static class Pack {
+        private final File m_file;
+        private final long m_size;
+        private final long m_lastModified;
+
+        /**
+         * The opened archive, null when closed
+         */
+        private ZipFile m_zip;
+
+        /**
+         * Was the archive removed from the open archives
+         */
+        private boolean m_isEvicted;
+
+        private Pack(File file, long size, long lastModified) {
+            m_file = file;
+            m_size = size;
+            m_lastModified = lastModified;
+        }
+
+        private synchronized ZipFile open() throws IOException {
+            if (m_zip == null) {
+                m_zip = new ZipFile(m_file);
+            }
+
+            return m_zip;
+        }
+
+        private synchronized ZipEntry getEntry(String name) throws IOException {
+            ZipEntry result = open().getEntry(name);
+            closeEvicted();
+            return result;
+        }
+
+        private synchronized byte[] read(ZipEntry entry) throws IOException {
+            try (InputStream in = open().getInputStream(entry)) {
+                return Utils.readFully(in, entry.getSize());
+            } finally {
+                closeEvicted();
+            }
+        }
+
+        private synchronized List<String> list() throws IOException {
+            List<String> result = new ArrayList<String>();
+            for (Enumeration<? extends ZipEntry> it = open().entries(); it.hasMoreElements();) {
+                ZipEntry entry = it.nextElement();
+                if (!entry.isDirectory()) {
+                    result.add(entry.getName());
+                }
+            }
+            closeEvicted();
+            return result;
+        }
+
+        private synchronized void evict() {
+            m_isEvicted = true;
+            closeEvicted();
+        }
+
+        private void closeEvicted() {
+            if (!m_isEvicted || m_zip == null) {
+                return;
+            }
+
+            try {
+                m_zip.close();
+            } catch (IOException ex) {
+                //Ignore
+            }
+            m_zip = null;
+        }
+    }
+
+    /**
+     * Song stored in a song pack
+     */
+    public static class Entry {
+        private final String m_key;
+        private final long m_size;
+        private final long m_lastModified;
+        private final Pack m_pack;
+        private final ZipEntry m_entry;
+        private final File m_file;
+
+        private Entry(String key, long size, long lastModified, Pack pack, ZipEntry entry, File file) {
+            m_key = key;
+            m_size = size;
+            m_lastModified = lastModified;
+            m_pack = pack;
+            m_entry = entry;
+            m_file = file;
+        }
+
+        /**
+         * The unique song key
+         *
+         * @return The key
+         */
+        public String getKey() {
+            return m_key;
+        }
+
+        /**
+         * The stored (compressed) song size
+         *
+         * @return The size
+         */
+        public long getSize() {
+            return m_size;
+        }
+
+        /**
+         * The song modification time
+         *
+         * @return The modification time
+         */
+        public long getLastModified() {
+            return m_lastModified;
+        }
+
+        /**
+         * Read the uncompressed song
+         *
+         * @return The MIDI file data
+         * @throws IOException When failed to read the song
+         */
+        public byte[] read() throws IOException {
+            if (m_pack != null) {
+                return m_pack.read(m_entry);
+            }
+
+            try (InputStream in = new GZIPInputStream(new FileInputStream(m_file), 65536)) {
+                return Utils.readFully(in, m_size * 4);
+            }
+        }
+    }
+
+    /**
+     * The open archives in the LRU order
+     */
+    private static final LinkedHashMap<String, Pack> s_packs = new LinkedHashMap<String, Pack>(16, 0.75f, true);
+
+    /**
+     * Is the file stored in a song pack
+     *
+     * @param file The file
+     * @return true if the file is a zip archive entry or a gzip compressed file
+     */
+    public static boolean isPacked(File file) {
+        return file != null && (getSeparator(file.getPath()) >= 0
+                || file.getName().toLowerCase().endsWith(GZIP_EXTENSION));
+    }
+
+    /**
+     * Is the file name a MIDI file name
+     *
+     * @param name The file name
+     * @return true if the name has a MIDI file extension
+     */
+    public static boolean isMidiFile(String name) {
+        final String lower = name.toLowerCase();
+        for (String extension : MIDI_EXTENSIONS) {
+            if (lower.endsWith(extension)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Is the file name a song name, a MIDI file or a gzip compressed MIDI file
+     *
+     * @param name The file name
+     * @return true if the file can be played
+     */
+    public static boolean isSong(String name) {
+        final String lower = name.toLowerCase();
+        return isMidiFile(lower.endsWith(GZIP_EXTENSION)
+                ? lower.substring(0, lower.length() - GZIP_EXTENSION.length()) : lower);
+    }
+
+    /**
+     * Is the file name a song pack archive name
+     *
+     * @param name The file name
+     * @return true if the file is a zip archive
+     */
+    public static boolean isArchive(String name) {
+        return name.toLowerCase().endsWith(ZIP_EXTENSION);
+    }
+
+    /**
+     * Get the song size
+     *
+     * @param file The file
+     * @return The stored song size, 0 if the song does not exist
+     */
+    public static long getLength(File file) {
+        if (!isPacked(file)) {
+            return file.length();
+        }
+
+        try {
+            Entry entry = getEntry(file);
+            return entry != null ? entry.getSize() : 0;
+        } catch (IOException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * Get the song modification time
+     *
+     * @param file The file
+     * @return The song modification time, 0 if the song does not exist
+     */
+    public static long getLastModified(File file) {
+        if (!isPacked(file)) {
+            return file.lastModified();
+        }
+
+        try {
+            Entry entry = getEntry(file);
+            return entry != null ? entry.getLastModified() : 0;
+        } catch (IOException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * Read the uncompressed song
+     *
+     * @param file The song file
+     * @return The MIDI file data, null if the song does not exist
+     * @throws IOException When failed to read the song
+     */
+    public static byte[] read(File file) throws IOException {
+        if (!isPacked(file)) {
+            return file.isFile() ? Files.readAllBytes(file.toPath()) : null;
+        }
+
+        Entry entry = getEntry(file);
+        return entry != null ? entry.read() : null;
+    }
+
+    /**
+     * Find the song
+     *
+     * @param file The song file
+     * @return The song or null if not found
+     * @throws IOException When failed to open the archive
+     */
+    public static Entry getEntry(File file) throws IOException {
+        final String path = file.getPath();
+        final int separator = getSeparator(path);
+        if (separator < 0) {
+            return file.isFile() ? new Entry(MidiParser.getCacheKey(file), file.length(),
+                    file.lastModified(), null, null, file) : null;
+        }
+
+        final File archive = new File(path.substring(0, separator));
+        final String name = path.substring(separator + ENTRY_SEPARATOR.length())
+                .replace(File.separatorChar, '/');
+        final Pack pack = getPack(archive);
+        if (pack == null) {
+            return null;
+        }
+
+        final ZipEntry entry = pack.getEntry(name);
+        if (entry == null || entry.isDirectory()) {
+            return null;
+        }
+
+        return new Entry(MidiParser.getCacheKey(archive) + ENTRY_SEPARATOR + name,
+                entry.getCompressedSize(), pack.m_lastModified, pack, entry, null);
+    }
+
+    /**
+     * List the files stored in the archive
+     *
+     * @param archive The zip archive
+     * @return The entry names
+     * @throws IOException When failed to open the archive
+     */
+    public static List<String> list(File archive) throws IOException {
+        final Pack pack = getPack(archive);
+        return pack != null ? pack.list() : new ArrayList<String>();
+    }
+
+    /**
+     * Number of the open archives
+     *
+     * @return The number of archives
+     */
+    public static int getOpenCount() {
+        synchronized (s_packs) {
+            return s_packs.size();
+        }
+    }
+
+    /**
+     * Close all open archives
+     */
+    public static void close() {
+        synchronized (s_packs) {
+            for (Pack pack : s_packs.values()) {
+                pack.evict();
+            }
+            s_packs.clear();
+        }
+    }
+
+    /**
+     * Get the open archive, the archive is reopened when the file changed
+     *
+     * @param archive The archive file
+     * @return The archive or null if the file does not exist
+     */
+    private static Pack getPack(File archive) {
+        if (!archive.isFile()) {
+            return null;
+        }
+
+        final String key = MidiParser.getCacheKey(archive);
+        final long size = archive.length();
+        final long lastModified = archive.lastModified();
+
+        synchronized (s_packs) {
+            Pack pack = s_packs.get(key);
+            if (pack != null && pack.m_size == size && pack.m_lastModified == lastModified) {
+                return pack;
+            }
+
+            if (pack != null) {
+                pack.evict();
+            }
+
+            pack = new Pack(archive, size, lastModified);
+            s_packs.put(key, pack);
+
+            Iterator<Map.Entry<String, Pack>> it = s_packs.entrySet().iterator();
+            while (s_packs.size() > MAX_OPEN && it.hasNext()) {
+                it.next().getValue().evict();
+                it.remove();
+            }
+
+            return pack;
+        }
+    }
+
+    /**
+     * Find the entry separator
+     *
+     * @param path The file path
+     * @return The separator index, -1 if not found
+     */
+    private static int getSeparator(String path) {
+        int result = path.indexOf(ENTRY_SEPARATOR);
+        if (result < 0 && File.separatorChar != '/') {
+            result = path.indexOf("!" + File.separatorChar);
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.midiparser;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The global tempo map. Converts ticks to time using the tempo
+ * segments of the whole file.
+ * @author SBPrime
+ */
+class TempoMap {
+
+    /**
+     * The default MIDI tempo (120 BPM) in microseconds per quarter note
+     */
+    static final int DEFAULT_TEMPO = 500000;
+
+    /**
+     * The resolution (ticks per quarter note)
+     */
+    private final int m_resolution;
+
+    /**
+     * The segment start ticks
+     */
+    private final long[] m_ticks;
+
+    /**
+     * The segment start times in microseconds
+     */
+    private final long[] m_micros;
+
+    /**
+     * The segment tempos in microseconds per quarter note
+     */
+    private final int[] m_tempos;
+
+    /**
+     * Create the tempo map using the tempo events from all tracks
+     *
+     * @param resolution The resolution
+     * @param tracks The tracks
+     */
+    TempoMap(int resolution, List<TrackEvents> tracks) {
+        m_resolution = Math.max(1, resolution);
+
+        int count = 0;
+        for (TrackEvents track : tracks) {
+            count += track.getTempoCount();
+        }
+
+        long[] ticks = new long[count];
+        int[] tempos = new int[count];
+        int idx = 0;
+        for (TrackEvents track : tracks) {
+            for (int i = 0; i < track.size() && idx < count; i++) {
+                if (track.getType(i) == TrackEvents.TEMPO) {
+                    ticks[idx] = track.getTick(i);
+                    tempos[idx] = track.getTempo(i);
+                    idx++;
+                }
+            }
+        }
+
+        //Stable sort by tick (the tempo events are usually already sorted)
+        for (int i = 1; i < count; i++) {
+            final long tick = ticks[i];
+            final int tempo = tempos[i];
+            int j = i - 1;
+            while (j >= 0 && ticks[j] > tick) {
+                ticks[j + 1] = ticks[j];
+                tempos[j + 1] = tempos[j];
+                j--;
+            }
+            ticks[j + 1] = tick;
+            tempos[j + 1] = tempo;
+        }
+
+        long[] segTicks = new long[count + 1];
+        long[] segMicros = new long[count + 1];
+        int[] segTempos = new int[count + 1];
+        segTicks[0] = 0;
+        segMicros[0] = 0;
+        segTempos[0] = DEFAULT_TEMPO;
+
+        int segments = 1;
+        for (int i = 0; i < count; i++) {
+            final int tempo = tempos[i];
+            final long tick = ticks[i];
+            if (tempo <= 0) {
+                continue;
+            }
+
+            final int last = segments - 1;
+            if (segTicks[last] == tick) {
+                //Tempo change on the same tick replaces the previous one
+                segTempos[last] = tempo;
+                continue;
+            }
+
+            segTicks[segments] = tick;
+            segMicros[segments] = segMicros[last]
+                    + (tick - segTicks[last]) * segTempos[last] / m_resolution;
+            segTempos[segments] = tempo;
+            segments++;
+        }
+
+        m_ticks = Arrays.copyOf(segTicks, segments);
+        m_micros = Arrays.copyOf(segMicros, segments);
+        m_tempos = Arrays.copyOf(segTempos, segments);
+    }
+
+    /**
+     * Number of tempo segments
+     *
+     * @return The number of segments
+     */
+    int size() {
+        return m_ticks.length;
+    }
+
+    /**
+     * Convert tick to microseconds
+     *
+     * @param tick The tick
+     * @return The time in microseconds
+     */
+    long toMicros(long tick) {
+        int idx = Arrays.binarySearch(m_ticks, tick);
+        if (idx < 0) {
+            idx = -idx - 2;
+        }
+
+        return m_micros[idx] + (tick - m_ticks[idx]) * m_tempos[idx] / m_resolution;
+    }
+
+    /**
+     * Convert tick to milliseconds (rounded to the nearest millisecond)
+     *
+     * @param tick The tick
+     * @return The time in milliseconds
+     */
+    long toMillis(long tick) {
+        return (toMicros(tick) + 500) / 1000;
+    }
+
+    /**
+     * Convert sorted ticks to milliseconds. The segments are walked
+     * once instead of searched for each tick.
+     *
+     * @param ticks The ticks in ascending order
+     * @param count Number of ticks to convert
+     * @return The times in milliseconds (rounded to the nearest millisecond)
+     */
+    long[] toMillis(long[] ticks, int count) {
+        final long[] result = new long[count];
+        final int last = m_ticks.length - 1;
+        int idx = 0;
+
+        for (int i = 0; i < count; i++) {
+            final long tick = ticks[i];
+            while (idx < last && m_ticks[idx + 1] <= tick) {
+                idx++;
+            }
+
+            final long micros = m_micros[idx] + (tick - m_ticks[idx]) * m_tempos[idx] / m_resolution;
+            result[i] = (micros + 500) / 1000;
+        }
+
+        return result;
+    }
+}
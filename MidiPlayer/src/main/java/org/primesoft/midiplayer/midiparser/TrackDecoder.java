@@ -0,0 +1,230 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.midiparser;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+
+/**
+ * Decodes the MIDI tracks and resolves the event times. Large files
+ * are processed on the common fork-join pool, one task per track.
+ * Both paths produce the same events.
+ * @author SBPrime
+ */
+class TrackDecoder {
+
+    /**
+     * The per track operation
+     */
+    private interface ITrackAction {
+        void run(int track) throws InvalidMidiDataException;
+    }
+
+    /**
+     * Runs the action on a range of tracks, splitting the range
+     * until a single track is left
+     */
+    private static class TrackTask extends RecursiveAction {
+        private final ITrackAction m_action;
+        private final InvalidMidiDataException[] m_errors;
+        private final int m_from;
+        private final int m_to;
+
+        private TrackTask(ITrackAction action, InvalidMidiDataException[] errors, int from, int to) {
+            m_action = action;
+            m_errors = errors;
+            m_from = from;
+            m_to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (m_to - m_from > 1) {
+                int mid = (m_from + m_to) >>> 1;
+                invokeAll(new TrackTask(m_action, m_errors, m_from, mid),
+                        new TrackTask(m_action, m_errors, mid, m_to));
+                return;
+            }
+
+            try {
+                m_action.run(m_from);
+            } catch (InvalidMidiDataException ex) {
+                m_errors[m_from] = ex;
+            }
+        }
+    }
+
+    /**
+     * Can the tracks be processed in parallel
+     *
+     * @param trackCount Number of tracks
+     * @param events The (estimated) number of events
+     * @param threshold The minimum number of events, negative to disable
+     * @return true if the parallel path should be used
+     */
+    static boolean isParallel(int trackCount, long events, long threshold) {
+        return threshold >= 0 && events >= threshold && trackCount > 1
+                && ForkJoinPool.getCommonPoolParallelism() > 1;
+    }
+
+    /**
+     * Decode all tracks of the SMF file
+     *
+     * @param reader The opened reader
+     * @param parallel Decode the tracks in parallel
+     * @return The decoded tracks in the file order
+     * @throws InvalidMidiDataException When the track data is invalid
+     */
+    static List<TrackEvents> decode(final SmfReader reader, boolean parallel) throws InvalidMidiDataException {
+        if (!parallel) {
+            MidiEventCollector collector = new MidiEventCollector();
+            reader.readTracks(collector);
+
+            return collector.getTracks();
+        }
+
+        final TrackEvents[] result = new TrackEvents[reader.getTrackCount()];
+        runAll(result.length, track -> {
+            MidiEventCollector collector = new MidiEventCollector();
+            reader.readTrack(track, collector);
+            result[track] = collector.getTracks().get(0);
+        });
+
+        return Arrays.asList(result);
+    }
+
+    /**
+     * Decode all tracks of the javax sequence
+     *
+     * @param sequence The sequence
+     * @param parallel Decode the tracks in parallel
+     * @return The decoded tracks in the sequence order
+     */
+    static List<TrackEvents> decode(Sequence sequence, boolean parallel) {
+        if (!parallel) {
+            MidiEventCollector collector = new MidiEventCollector();
+            SequenceReader.readTracks(sequence, collector);
+
+            return collector.getTracks();
+        }
+
+        final Track[] tracks = sequence.getTracks();
+        final TrackEvents[] result = new TrackEvents[tracks.length];
+        try {
+            runAll(result.length, track -> {
+                MidiEventCollector collector = new MidiEventCollector();
+                SequenceReader.readTrack(track, tracks[track], collector);
+                result[track] = collector.getTracks().get(0);
+            });
+        } catch (InvalidMidiDataException ex) {
+            //The sequence reader does not validate the data
+            throw new IllegalStateException(ex);
+        }
+
+        return Arrays.asList(result);
+    }
+
+    /**
+     * Count the events in the javax sequence
+     *
+     * @param sequence The sequence
+     * @return Number of events
+     */
+    static long getEventCount(Sequence sequence) {
+        long result = 0;
+        for (Track track : sequence.getTracks()) {
+            result += track.size();
+        }
+
+        return result;
+    }
+
+    /**
+     * Convert the event ticks of all tracks to milliseconds
+     *
+     * @param tracks The decoded tracks
+     * @param tempoMap The global tempo map
+     * @param parallel Convert the tracks in parallel
+     */
+    static void resolveMillis(final List<TrackEvents> tracks, final TempoMap tempoMap, boolean parallel) {
+        if (!parallel) {
+            for (TrackEvents track : tracks) {
+                track.resolveMillis(tempoMap);
+            }
+            return;
+        }
+
+        try {
+            runAll(tracks.size(), track -> tracks.get(track).resolveMillis(tempoMap));
+        } catch (InvalidMidiDataException ex) {
+            //Resolving the times does not read the MIDI data
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Run the action for all tracks on the common pool. When several tracks
+     * fail the error of the first one is reported, same as the sequential path.
+     *
+     * @param trackCount Number of tracks
+     * @param action The action
+     * @throws InvalidMidiDataException When the action failed
+     */
+    private static void runAll(int trackCount, ITrackAction action) throws InvalidMidiDataException {
+        if (trackCount == 0) {
+            return;
+        }
+
+        InvalidMidiDataException[] errors = new InvalidMidiDataException[trackCount];
+        ForkJoinPool.commonPool().invoke(new TrackTask(action, errors, 0, trackCount));
+
+        for (InvalidMidiDataException error : errors) {
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.midiparser;
+
+import java.util.Arrays;
+
+/**
+ * The decoded events of a single MIDI track stored in primitive columns.
+ * Events are stored in the tick order.
+ * @author SBPrime
+ */
+class TrackEvents {
+
+    static final int NOTE_ON = 0;
+
+    static final int PROGRAM_CHANGE = 1;
+
+    static final int CHANNEL_VOLUME = 2;
+
+    static final int TEMPO = 3;
+
+    private static final int INITIAL_SIZE = 256;
+
+    /**
+     * The event ticks
+     */
+    private long[] m_ticks;
+
+    /**
+     * The packed events (type, channel, data1, data2 or type, tempo)
+     */
+    private int[] m_events;
+
+    /**
+     * The event times in milliseconds, null until resolved
+     */
+    private long[] m_millis;
+
+    /**
+     * Number of events
+     */
+    private int m_size;
+
+    /**
+     * Number of tempo events
+     */
+    private int m_tempoCount;
+
+    TrackEvents() {
+        m_ticks = new long[INITIAL_SIZE];
+        m_events = new int[INITIAL_SIZE];
+        m_size = 0;
+    }
+
+    int size() {
+        return m_size;
+    }
+
+    int getTempoCount() {
+        return m_tempoCount;
+    }
+
+    long getTick(int idx) {
+        return m_ticks[idx];
+    }
+
+    long getMillis(int idx) {
+        return m_millis[idx];
+    }
+
+    int getType(int idx) {
+        return m_events[idx] >>> 24;
+    }
+
+    int getChannel(int idx) {
+        return (m_events[idx] >>> 16) & 0xff;
+    }
+
+    int getData1(int idx) {
+        return (m_events[idx] >>> 8) & 0xff;
+    }
+
+    int getData2(int idx) {
+        return m_events[idx] & 0xff;
+    }
+
+    int getTempo(int idx) {
+        return m_events[idx] & 0xffffff;
+    }
+
+    void addNoteOn(long tick, int channel, int key, int velocity) {
+        add(tick, pack(NOTE_ON, channel, key, velocity));
+    }
+
+    void addProgramChange(long tick, int channel, int program) {
+        add(tick, pack(PROGRAM_CHANGE, channel, program, 0));
+    }
+
+    void addChannelVolume(long tick, int channel, int volume) {
+        add(tick, pack(CHANNEL_VOLUME, channel, volume, 0));
+    }
+
+    void addTempo(long tick, int tempo) {
+        add(tick, (TEMPO << 24) | (tempo & 0xffffff));
+        m_tempoCount++;
+    }
+
+    /**
+     * Convert the event ticks to milliseconds
+     *
+     * @param tempoMap The global tempo map
+     */
+    void resolveMillis(TempoMap tempoMap) {
+        m_millis = tempoMap.toMillis(m_ticks, m_size);
+    }
+
+    private static int pack(int type, int channel, int data1, int data2) {
+        return (type << 24) | ((channel & 0xff) << 16) | ((data1 & 0xff) << 8) | (data2 & 0xff);
+    }
+
+    private void add(long tick, int event) {
+        if (m_size == m_ticks.length) {
+            m_ticks = Arrays.copyOf(m_ticks, m_size * 2);
+            m_events = Arrays.copyOf(m_events, m_size * 2);
+        }
+
+        m_ticks[m_size] = tick;
+        m_events[m_size] = event;
+        m_size++;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.midiparser;
+
+import java.util.List;
+
+/**
+ * Merges the decoded tracks in the tick order using a k-way merge.
+ * Events with the same tick are reported in the track order.
+ * @author SBPrime
+ */
+class TrackMerger {
+
+    /**
+     * Merge the tracks and resolve the notes
+     *
+     * @param tracks The decoded tracks with the event times resolved
+     * @param resolver The note resolver
+     */
+    static void merge(List<TrackEvents> tracks, NoteResolver resolver) {
+        final int count = tracks.size();
+        final TrackEvents[] events = tracks.toArray(new TrackEvents[0]);
+        final int[] positions = new int[count];
+
+        //Min-heap of track indices ordered by the next event tick
+        final int[] heap = new int[count];
+        int heapSize = 0;
+        for (int i = 0; i < count; i++) {
+            if (events[i].size() > 0) {
+                heap[heapSize] = i;
+                siftUp(heap, heapSize, events, positions);
+                heapSize++;
+            }
+        }
+
+        while (heapSize > 0) {
+            final int trackId = heap[0];
+            final TrackEvents track = events[trackId];
+            final int pos = positions[trackId];
+
+            dispatch(track, pos, resolver);
+
+            positions[trackId] = pos + 1;
+            if (pos + 1 >= track.size()) {
+                heapSize--;
+                heap[0] = heap[heapSize];
+            }
+            siftDown(heap, heapSize, events, positions);
+        }
+    }
+
+    /**
+     * Send the event to the resolver
+     *
+     * @param track The track
+     * @param idx The event index
+     * @param resolver The resolver
+     */
+    private static void dispatch(TrackEvents track, int idx, NoteResolver resolver) {
+        switch (track.getType(idx)) {
+            case TrackEvents.NOTE_ON:
+                resolver.noteOn(track.getMillis(idx),
+                        track.getChannel(idx), track.getData1(idx), track.getData2(idx));
+                break;
+            case TrackEvents.PROGRAM_CHANGE:
+                resolver.programChange(track.getChannel(idx), track.getData1(idx));
+                break;
+            case TrackEvents.CHANNEL_VOLUME:
+                resolver.channelVolume(track.getChannel(idx), track.getData1(idx));
+                break;
+        }
+    }
+
+    /**
+     * Is the next event of track a before the next event of track b
+     */
+    private static boolean isBefore(int a, int b, TrackEvents[] events, int[] positions) {
+        final long tickA = events[a].getTick(positions[a]);
+        final long tickB = events[b].getTick(positions[b]);
+
+        return tickA < tickB || (tickA == tickB && a < b);
+    }
+
+    private static void siftUp(int[] heap, int idx, TrackEvents[] events, int[] positions) {
+        final int value = heap[idx];
+        while (idx > 0) {
+            final int parent = (idx - 1) >>> 1;
+            if (!isBefore(value, heap[parent], events, positions)) {
+                break;
+            }
+            heap[idx] = heap[parent];
+            idx = parent;
+        }
+        heap[idx] = value;
+    }
+
+    private static void siftDown(int[] heap, int size, TrackEvents[] events, int[] positions) {
+        if (size == 0) {
+            return;
+        }
+
+        final int value = heap[0];
+        int idx = 0;
+        while (true) {
+            int child = 2 * idx + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && isBefore(heap[child + 1], heap[child], events, positions)) {
+                child++;
+            }
+            if (!isBefore(heap[child], value, events, positions)) {
+                break;
+            }
+            heap[idx] = heap[child];
+            idx = child;
+        }
+        heap[idx] = value;
+    }
+}
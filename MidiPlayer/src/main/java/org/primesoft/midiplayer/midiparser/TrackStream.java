@@ -0,0 +1,318 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.midiparser;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.primesoft.midiplayer.sound.INoteSink;
+
+/**
+ * Track that is played while the MIDI file is being parsed. The parser
+ * appends the compiled frames and the tracks play the available frames.
+ *
+ * The frames are stored in fixed size chunks that are never moved,
+ * only the parser thread adds the frames.
+ * @author SBPrime
+ */
+public class TrackStream implements IFrameSource {
+
+    private static final int CHUNK_BITS = 12;
+
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /**
+     * The frame waits in milliseconds
+     */
+    private volatile long[][] m_waits;
+
+    /**
+     * The frame end offsets (the index after the last note in the frame)
+     */
+    private volatile int[][] m_ends;
+
+    /**
+     * The note patch ids
+     */
+    private volatile short[][] m_patchIds;
+
+    /**
+     * The note pitches
+     */
+    private volatile float[][] m_pitches;
+
+    /**
+     * The note volumes
+     */
+    private volatile float[][] m_volumes;
+
+    /**
+     * The patches indexed by the patch id
+     */
+    private volatile String[] m_patches;
+
+    /**
+     * Number of available frames. Written after the frame data
+     * so the readers see the complete frames.
+     */
+    private volatile int m_frameCount;
+
+    /**
+     * Number of added notes
+     */
+    private volatile int m_noteCount;
+
+    /**
+     * The length of the available frames in milliseconds
+     */
+    private volatile long m_length;
+
+    /**
+     * Are all frames added
+     */
+    private volatile boolean m_isComplete;
+
+    /**
+     * Are the frames quantized to the server ticks
+     */
+    private volatile boolean m_isQuantized;
+
+    /**
+     * The length of the track that needs to be available
+     * before the track is ready to play
+     */
+    private final long m_preloadMillis;
+
+    /**
+     * Called when the track is ready to play
+     */
+    private Consumer<TrackStream> m_readyListener;
+
+    /**
+     * Create new track stream
+     *
+     * @param preloadMillis The length of the track (in milliseconds) that
+     * needs to be parsed before the track is ready to play
+     * @param readyListener Called on the parser thread when the track is ready to play
+     */
+    public TrackStream(long preloadMillis, Consumer<TrackStream> readyListener) {
+        m_preloadMillis = preloadMillis;
+        m_readyListener = readyListener;
+
+        m_waits = new long[0][];
+        m_ends = new int[0][];
+        m_patchIds = new short[0][];
+        m_pitches = new float[0][];
+        m_volumes = new float[0][];
+        m_patches = new String[0];
+    }
+
+    @Override
+    public int getFrameCount() {
+        return m_frameCount;
+    }
+
+    /**
+     * Get the number of available notes
+     *
+     * @return Number of notes
+     */
+    public int getNoteCount() {
+        return m_frameCount > 0 ? getEnd(m_frameCount - 1) : 0;
+    }
+
+    /**
+     * Get the length of the available frames
+     *
+     * @return The length in milliseconds
+     */
+    public long getLength() {
+        return m_length;
+    }
+
+    @Override
+    public boolean isComplete() {
+        return m_isComplete;
+    }
+
+    @Override
+    public long getWait(int frame) {
+        return m_waits[frame >> CHUNK_BITS][frame & CHUNK_MASK];
+    }
+
+    @Override
+    public int getTickWait(int frame) {
+        return CompiledTrack.toTicks(getWait(frame));
+    }
+
+    @Override
+    public boolean isQuantized() {
+        return m_isQuantized;
+    }
+
+    @Override
+    public int getNoteCount(int frame) {
+        return getEnd(frame) - (frame > 0 ? getEnd(frame - 1) : 0);
+    }
+
+    @Override
+    public void playFrame(int frame, Player player, Location location, INoteSink sink) {
+        final String[] patches = m_patches;
+        final short[][] patchIds = m_patchIds;
+        final float[][] pitches = m_pitches;
+        final float[][] volumes = m_volumes;
+
+        final int end = getEnd(frame);
+        for (int i = frame > 0 ? getEnd(frame - 1) : 0; i < end; i++) {
+            final int chunk = i >> CHUNK_BITS;
+            final int idx = i & CHUNK_MASK;
+            final int patchId = patchIds[chunk][idx];
+            final float volume = volumes[chunk][idx];
+            final float pitch = pitches[chunk][idx];
+            if (patchId < 0 || volume == 0 || pitch < 0 || pitch > 2) {
+                continue;
+            }
+
+            sink.play(player, location, patchId, patches[patchId], volume, pitch);
+        }
+    }
+
+    /**
+     * Add the compiled frames. The first frame wait is the delay
+     * after the last added frame.
+     *
+     * @param frames The frames to add
+     */
+    void append(CompiledTrack frames) {
+        final int frameCount = frames.getFrameCount();
+        int frame = m_frameCount;
+        int note = m_noteCount;
+        long length = m_length;
+
+        ensureCapacity(frame + frameCount, note + frames.getNoteCount());
+
+        final long[][] waits = m_waits;
+        final int[][] ends = m_ends;
+        final short[][] patchIds = m_patchIds;
+        final float[][] pitches = m_pitches;
+        final float[][] volumes = m_volumes;
+        int src = 0;
+        for (int i = 0; i < frameCount; i++, frame++) {
+            final long wait = frames.getWait(i);
+            final int size = frames.getNoteCount(i);
+            for (int j = 0; j < size; j++, src++, note++) {
+                final int chunk = note >> CHUNK_BITS;
+                final int idx = note & CHUNK_MASK;
+                patchIds[chunk][idx] = (short) frames.getPatchId(src);
+                pitches[chunk][idx] = frames.getPitch(src);
+                volumes[chunk][idx] = frames.getVolume(src);
+            }
+
+            waits[frame >> CHUNK_BITS][frame & CHUNK_MASK] = wait;
+            ends[frame >> CHUNK_BITS][frame & CHUNK_MASK] = note;
+            length += wait;
+        }
+
+        m_patches = NoteEntryTable.getPatches();
+        m_isQuantized = frames.isQuantized();
+        m_noteCount = note;
+        m_length = length;
+        m_frameCount = frame;
+
+        if (m_readyListener != null && length >= m_preloadMillis) {
+            Consumer<TrackStream> listener = m_readyListener;
+            m_readyListener = null;
+            listener.accept(this);
+        }
+    }
+
+    /**
+     * Mark the track as complete, no more frames will be added
+     */
+    void complete() {
+        m_readyListener = null;
+        m_isComplete = true;
+    }
+
+    private int getEnd(int frame) {
+        return m_ends[frame >> CHUNK_BITS][frame & CHUNK_MASK];
+    }
+
+    /**
+     * Allocate the chunks for the frames and notes
+     *
+     * @param frames The required number of frames
+     * @param notes The required number of notes
+     */
+    private void ensureCapacity(int frames, int notes) {
+        final int frameChunks = (frames + CHUNK_MASK) >> CHUNK_BITS;
+        if (frameChunks > m_waits.length) {
+            final long[][] waits = Arrays.copyOf(m_waits, frameChunks);
+            final int[][] ends = Arrays.copyOf(m_ends, frameChunks);
+            for (int i = m_waits.length; i < frameChunks; i++) {
+                waits[i] = new long[CHUNK_SIZE];
+                ends[i] = new int[CHUNK_SIZE];
+            }
+
+            m_waits = waits;
+            m_ends = ends;
+        }
+
+        final int noteChunks = (notes + CHUNK_MASK) >> CHUNK_BITS;
+        if (noteChunks > m_patchIds.length) {
+            final short[][] patchIds = Arrays.copyOf(m_patchIds, noteChunks);
+            final float[][] pitches = Arrays.copyOf(m_pitches, noteChunks);
+            final float[][] volumes = Arrays.copyOf(m_volumes, noteChunks);
+            for (int i = m_patchIds.length; i < noteChunks; i++) {
+                patchIds[i] = new short[CHUNK_SIZE];
+                pitches[i] = new float[CHUNK_SIZE];
+                volumes[i] = new float[CHUNK_SIZE];
+            }
+
+            m_patchIds = patchIds;
+            m_pitches = pitches;
+            m_volumes = volumes;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.sound;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+/**
+ * Counts the notes without playing them. Optionally records
+ * the first notes, used to test and measure the playback engine.
+ * @author SBPrime
+ */
+public class CountingNoteSink implements INoteSink {
+
+    /**
+     * The recorded note
+     */
+    public static class Note {
+        private final long m_batch;
+        private final Player m_listener;
+        private final Location m_location;
+        private final int m_patchId;
+        private final float m_volume;
+        private final float m_pitch;
+
+        private Note(long batch, Player listener, Location location, int patchId, float volume, float pitch) {
+            m_batch = batch;
+            m_listener = listener;
+            m_location = location;
+            m_patchId = patchId;
+            m_volume = volume;
+            m_pitch = pitch;
+        }
+
+        /**
+         * The number of the batch (flushes before the note)
+         *
+         * @return The batch number
+         */
+        public long getBatch() {
+            return m_batch;
+        }
+
+        public Player getListener() {
+            return m_listener;
+        }
+
+        public Location getLocation() {
+            return m_location;
+        }
+
+        public int getPatchId() {
+            return m_patchId;
+        }
+
+        public float getVolume() {
+            return m_volume;
+        }
+
+        public float getPitch() {
+            return m_pitch;
+        }
+    }
+
+    /**
+     * Maximum number of recorded notes
+     */
+    private final int m_recordLimit;
+
+    /**
+     * The recorded notes
+     */
+    private final List<Note> m_recorded;
+
+    private final AtomicLong m_notes = new AtomicLong();
+
+    private final AtomicLong m_batches = new AtomicLong();
+
+    public CountingNoteSink() {
+        this(0);
+    }
+
+    /**
+     * @param recordLimit Maximum number of recorded notes, 0 to only count the notes
+     */
+    public CountingNoteSink(int recordLimit) {
+        m_recordLimit = Math.max(0, recordLimit);
+        m_recorded = new ArrayList<Note>();
+    }
+
+    @Override
+    public void play(Player listener, Location location, int patchId, String patch, float volume, float pitch) {
+        m_notes.incrementAndGet();
+
+        if (m_recordLimit > 0) {
+            synchronized (m_recorded) {
+                if (m_recorded.size() < m_recordLimit) {
+                    m_recorded.add(new Note(m_batches.get(), listener,
+                            location != null ? location.clone() : null, patchId, volume, pitch));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void flush() {
+        m_batches.incrementAndGet();
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    /**
+     * Number of played notes
+     *
+     * @return Number of notes
+     */
+    public long getNotes() {
+        return m_notes.get();
+    }
+
+    /**
+     * Number of flushed batches
+     *
+     * @return Number of batches
+     */
+    public long getBatches() {
+        return m_batches.get();
+    }
+
+    /**
+     * Get the recorded notes
+     *
+     * @return The notes in the played order
+     */
+    public List<Note> getRecorded() {
+        synchronized (m_recorded) {
+            return new ArrayList<Note>(m_recorded);
+        }
+    }
+
+    /**
+     * Reset the counters and remove the recorded notes
+     */
+    public void clear() {
+        m_notes.set(0);
+        m_batches.set(0);
+        synchronized (m_recorded) {
+            m_recorded.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("counting (%1$s notes in %2$s batches)", m_notes.get(), m_batches.get());
+    }
+}
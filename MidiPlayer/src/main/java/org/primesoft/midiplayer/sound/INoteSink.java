@@ -0,0 +1,90 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.sound;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+/**
+ * Receives the notes played by the tracks. The notes played on a tick
+ * are a batch, the batch ends with flush. The sink is used by the server
+ * thread and the note dispatcher thread, each thread flushes its own notes.
+ * @author SBPrime
+ */
+public interface INoteSink {
+
+    /**
+     * Play the note
+     *
+     * @param listener The player that hears the note
+     * @param location The sound location
+     * @param patchId The patch id (see NoteEntryTable)
+     * @param patch The instrument patch
+     * @param volume The note volume
+     * @param pitch The note pitch
+     */
+    void play(Player listener, Location location, int patchId, String patch, float volume, float pitch);
+
+    /**
+     * End the batch, send the notes queued by the current thread
+     */
+    void flush();
+
+    /**
+     * Can the sink be used by the note dispatcher thread. The precise
+     * tracks are played on the server ticks when the sink is not thread safe.
+     *
+     * @return true if the sink can be used by any thread
+     */
+    default boolean isThreadSafe() {
+        return false;
+    }
+
+    /**
+     * Number of the notes that could not be played by the calling thread
+     * and were queued for the server thread
+     *
+     * @return The number of deferred notes
+     */
+    default long getDeferred() {
+        return 0;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.sound;
+
+import org.bukkit.Location;
+import org.bukkit.SoundCategory;
+import org.bukkit.entity.Player;
+
+/**
+ * Sends the notes as sound packets, the notes that can not
+ * be sent as packets are played by the fallback sink
+ * @author SBPrime
+ */
+public class PacketNoteSink implements INoteSink {
+
+    private final PacketSoundSender m_sender;
+
+    private final SoundCategory m_category;
+
+    private final INoteSink m_fallback;
+
+    public PacketNoteSink(PacketSoundSender sender, SoundCategory category, INoteSink fallback) {
+        m_sender = sender;
+        m_category = category;
+        m_fallback = fallback;
+    }
+
+    public PacketSoundSender getSender() {
+        return m_sender;
+    }
+
+    @Override
+    public void play(Player listener, Location location, int patchId, String patch, float volume, float pitch) {
+        if (!m_sender.play(listener, location, patchId, patch, m_category, volume, pitch)) {
+            m_fallback.play(listener, location, patchId, patch, volume, pitch);
+        }
+    }
+
+    @Override
+    public void flush() {
+        m_sender.flush();
+        m_fallback.flush();
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return m_fallback.isThreadSafe();
+    }
+
+    @Override
+    public long getDeferred() {
+        return m_fallback.getDeferred();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("packet (%1$s, %2$s packets in %3$s batches)",
+                m_sender.isEnabled() ? "enabled" : "disabled", m_sender.getPackets(), m_sender.getFlushes());
+    }
+}
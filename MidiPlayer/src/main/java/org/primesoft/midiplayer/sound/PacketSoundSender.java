@@ -0,0 +1,443 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.sound;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.bukkit.Location;
+import org.bukkit.Server;
+import org.bukkit.SoundCategory;
+import org.bukkit.entity.Player;
+import static org.primesoft.midiplayer.MidiPlayerMain.log;
+
+/**
+ * Sends the sound packets directly to the player connections.
+ * The server internals are resolved once to method handles, the sound
+ * keys are cached for each patch and all sounds sent to a player
+ * on a tick are written to the connection as one batch with a single
+ * flush. Written for the 1.15 server internals, when the internals
+ * are not recognised create returns null and the Bukkit API is used.
+ * @author SBPrime
+ */
+public class PacketSoundSender {
+
+    /**
+     * The sounds queued for a single player
+     */
+    private static class Batch {
+        /**
+         * The player channel, null if the player can not receive packets
+         */
+        private final Object m_channel;
+
+        private final Executor m_eventLoop;
+
+        private final ArrayList<Object> m_packets = new ArrayList<Object>();
+
+        /**
+         * The last sound location and its position object
+         */
+        private Location m_location;
+
+        private Object m_position;
+
+        private Batch(Object channel, Executor eventLoop) {
+            m_channel = channel;
+            m_eventLoop = eventLoop;
+        }
+    }
+
+    /**
+     * The sounds queued by a single thread
+     */
+    private static class Queue {
+        private final Map<Player, Batch> m_batches = new IdentityHashMap<Player, Batch>();
+
+        private Player m_lastPlayer;
+
+        private Batch m_lastBatch;
+    }
+
+    private static final Pattern SERVER_CLASS = Pattern.compile("org\\.bukkit\\.craftbukkit\\.([^\\.]+)\\.CraftServer");
+
+    /**
+     * The cached key of the patches that are not valid sound keys
+     */
+    private static final Object INVALID_KEY = new Object();
+
+    private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+
+    private final MethodHandle m_getHandle;
+
+    private final MethodHandle m_getConnection;
+
+    private final MethodHandle m_getNetworkManager;
+
+    private final MethodHandle m_getChannel;
+
+    private final MethodHandle m_getEventLoop;
+
+    private final MethodHandle m_isOpen;
+
+    private final MethodHandle m_write;
+
+    private final MethodHandle m_flush;
+
+    private final MethodHandle m_newKey;
+
+    private final MethodHandle m_newPosition;
+
+    private final MethodHandle m_newPacket;
+
+    /**
+     * The server sound categories indexed by the Bukkit category ordinal
+     */
+    private final Object[] m_categories;
+
+    /**
+     * The sound keys indexed by the patch id (benign race, the keys are immutable)
+     */
+    private volatile Object[] m_keys = new Object[0];
+
+    /**
+     * The queued sounds of each thread
+     */
+    private final ThreadLocal<Queue> m_queue = ThreadLocal.withInitial(Queue::new);
+
+    private final AtomicLong m_packets = new AtomicLong();
+
+    private final AtomicLong m_flushes = new AtomicLong();
+
+    private volatile boolean m_isEnabled = true;
+
+    /**
+     * Resolve the server internals
+     *
+     * @param server The server
+     * @return The sender or null if the server is not supported
+     */
+    public static PacketSoundSender create(Server server) {
+        final Matcher match = SERVER_CLASS.matcher(server.getClass().getName());
+        if (!match.matches()) {
+            log(Level.INFO, "Packet sounds: unknown server " + server.getClass().getName() + ", using the Bukkit API.");
+            return null;
+        }
+
+        final String version = match.group(1);
+        final String nms = "net.minecraft.server." + version + ".";
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            final Class<?> craftPlayer = Class.forName("org.bukkit.craftbukkit." + version + ".entity.CraftPlayer");
+            final Class<?> entityPlayer = Class.forName(nms + "EntityPlayer");
+            final Class<?> playerConnection = Class.forName(nms + "PlayerConnection");
+            final Class<?> networkManager = Class.forName(nms + "NetworkManager");
+            final Class<?> channel = Class.forName("io.netty.channel.Channel");
+            final Class<?> minecraftKey = Class.forName(nms + "MinecraftKey");
+            final Class<?> vec3D = Class.forName(nms + "Vec3D");
+            final Class<?> category = Class.forName(nms + "SoundCategory");
+            final Class<?> packet = Class.forName(nms + "PacketPlayOutCustomSoundEffect");
+
+            final Object[] categories = new Object[SoundCategory.values().length];
+            for (SoundCategory c : SoundCategory.values()) {
+                categories[c.ordinal()] = valueOf(category, c.name());
+            }
+
+            return new PacketSoundSender(
+                    lookup.unreflect(craftPlayer.getMethod("getHandle")).asType(GETTER),
+                    getter(lookup, entityPlayer, "playerConnection"),
+                    getter(lookup, playerConnection, "networkManager"),
+                    getter(lookup, networkManager, "channel"),
+                    lookup.unreflect(channel.getMethod("eventLoop")).asType(GETTER),
+                    lookup.unreflect(channel.getMethod("isOpen"))
+                            .asType(MethodType.methodType(boolean.class, Object.class)),
+                    lookup.unreflect(channel.getMethod("write", Object.class))
+                            .asType(MethodType.methodType(void.class, Object.class, Object.class)),
+                    lookup.unreflect(channel.getMethod("flush"))
+                            .asType(MethodType.methodType(void.class, Object.class)),
+                    lookup.unreflectConstructor(minecraftKey.getConstructor(String.class))
+                            .asType(MethodType.methodType(Object.class, String.class)),
+                    lookup.unreflectConstructor(vec3D.getConstructor(double.class, double.class, double.class))
+                            .asType(MethodType.methodType(Object.class, double.class, double.class, double.class)),
+                    lookup.unreflectConstructor(packet.getConstructor(minecraftKey, category, vec3D, float.class, float.class))
+                            .asType(MethodType.methodType(Object.class, Object.class, Object.class, Object.class, float.class, float.class)),
+                    categories);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            log(Level.INFO, "Packet sounds: unsupported server " + version + " (" + ex + "), using the Bukkit API.");
+            return null;
+        }
+    }
+
+    private static MethodHandle getter(MethodHandles.Lookup lookup, Class<?> c, String name)
+            throws ReflectiveOperationException {
+        final Field field = c.getDeclaredField(name);
+        field.setAccessible(true);
+        return lookup.unreflectGetter(field).asType(GETTER);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object valueOf(Class<?> enumClass, String name) {
+        return Enum.valueOf((Class) enumClass, name);
+    }
+
+    private PacketSoundSender(MethodHandle getHandle, MethodHandle getConnection,
+            MethodHandle getNetworkManager, MethodHandle getChannel,
+            MethodHandle getEventLoop, MethodHandle isOpen,
+            MethodHandle write, MethodHandle flush,
+            MethodHandle newKey, MethodHandle newPosition, MethodHandle newPacket,
+            Object[] categories) {
+        m_getHandle = getHandle;
+        m_getConnection = getConnection;
+        m_getNetworkManager = getNetworkManager;
+        m_getChannel = getChannel;
+        m_getEventLoop = getEventLoop;
+        m_isOpen = isOpen;
+        m_write = write;
+        m_flush = flush;
+        m_newKey = newKey;
+        m_newPosition = newPosition;
+        m_newPacket = newPacket;
+        m_categories = categories;
+    }
+
+    public boolean isEnabled() {
+        return m_isEnabled;
+    }
+
+    /**
+     * Number of sent sound packets
+     *
+     * @return Number of packets
+     */
+    public long getPackets() {
+        return m_packets.get();
+    }
+
+    /**
+     * Number of sent packet batches
+     *
+     * @return Number of flushes
+     */
+    public long getFlushes() {
+        return m_flushes.get();
+    }
+
+    /**
+     * Queue the sound, the sound is sent by flush
+     *
+     * @param player The player
+     * @param location The sound location
+     * @param patchId The patch id
+     * @param patch The instrument patch
+     * @param category The sound category
+     * @param volume The sound volume
+     * @param pitch The sound pitch
+     * @return false if the sound should be played using the Bukkit API
+     */
+    public boolean play(Player player, Location location, int patchId, String patch,
+            SoundCategory category, float volume, float pitch) {
+        if (!m_isEnabled) {
+            return false;
+        }
+
+        try {
+            final Batch batch = getBatch(player);
+            if (batch.m_channel == null) {
+                return false;
+            }
+
+            final Object key = getKey(patchId, patch);
+            if (key == null) {
+                return false;
+            }
+
+            if (batch.m_location != location) {
+                batch.m_location = location;
+                batch.m_position = (Object) m_newPosition.invokeExact(location.getX(), location.getY(), location.getZ());
+            }
+
+            batch.m_packets.add((Object) m_newPacket.invokeExact(key, m_categories[category.ordinal()],
+                    batch.m_position, volume, pitch));
+            return true;
+        } catch (Throwable ex) {
+            disable(ex);
+            return false;
+        }
+    }
+
+    /**
+     * Send the sounds queued by the current thread
+     */
+    public void flush() {
+        final Queue queue = m_queue.get();
+        if (queue.m_batches.isEmpty()) {
+            return;
+        }
+
+        for (Batch batch : queue.m_batches.values()) {
+            if (batch.m_channel == null || batch.m_packets.isEmpty()) {
+                continue;
+            }
+
+            final Object channel = batch.m_channel;
+            final Object[] packets = batch.m_packets.toArray();
+            try {
+                batch.m_eventLoop.execute(() -> send(channel, packets));
+            } catch (RuntimeException ex) {
+                //The event loop is shut down, the player is disconnected
+            }
+        }
+
+        queue.m_batches.clear();
+        queue.m_lastPlayer = null;
+        queue.m_lastBatch = null;
+    }
+
+    /**
+     * Write the packets and flush the channel (channel event loop)
+     *
+     * @param channel The player channel
+     * @param packets The packets
+     */
+    private void send(Object channel, Object[] packets) {
+        try {
+            if (!(boolean) m_isOpen.invokeExact(channel)) {
+                return;
+            }
+
+            for (Object packet : packets) {
+                m_write.invokeExact(channel, packet);
+            }
+            m_flush.invokeExact(channel);
+
+            m_packets.addAndGet(packets.length);
+            m_flushes.incrementAndGet();
+        } catch (Throwable ex) {
+            disable(ex);
+        }
+    }
+
+    private Batch getBatch(Player player) throws Throwable {
+        final Queue queue = m_queue.get();
+        if (queue.m_lastPlayer == player) {
+            return queue.m_lastBatch;
+        }
+
+        Batch batch = queue.m_batches.get(player);
+        if (batch == null) {
+            batch = createBatch(player);
+            queue.m_batches.put(player, batch);
+        }
+
+        queue.m_lastPlayer = player;
+        queue.m_lastBatch = batch;
+        return batch;
+    }
+
+    private Batch createBatch(Player player) throws Throwable {
+        final Object handle;
+        try {
+            handle = (Object) m_getHandle.invokeExact((Object) player);
+        } catch (ClassCastException ex) {
+            //Not a server player (for example a NPC plugin player)
+            return new Batch(null, null);
+        }
+
+        final Object connection = handle != null ? (Object) m_getConnection.invokeExact(handle) : null;
+        final Object networkManager = connection != null ? (Object) m_getNetworkManager.invokeExact(connection) : null;
+        final Object channel = networkManager != null ? (Object) m_getChannel.invokeExact(networkManager) : null;
+        if (channel == null) {
+            return new Batch(null, null);
+        }
+
+        return new Batch(channel, (Executor) (Object) m_getEventLoop.invokeExact(channel));
+    }
+
+    /**
+     * Get the cached sound key
+     *
+     * @param patchId The patch id
+     * @param patch The instrument patch
+     * @return The key, null if the patch is not a valid key
+     */
+    private Object getKey(int patchId, String patch) throws Throwable {
+        Object[] keys = m_keys;
+        if (patchId >= 0 && patchId < keys.length && keys[patchId] != null) {
+            final Object key = keys[patchId];
+            return key != INVALID_KEY ? key : null;
+        }
+
+        Object key;
+        try {
+            key = (Object) m_newKey.invokeExact(patch);
+        } catch (RuntimeException ex) {
+            //Invalid sound name, the Bukkit API reports it
+            key = INVALID_KEY;
+        }
+
+        if (patchId >= 0) {
+            if (patchId >= keys.length) {
+                keys = Arrays.copyOf(keys, Math.max(patchId + 1, keys.length * 2));
+                m_keys = keys;
+            }
+            keys[patchId] = key;
+        }
+
+        return key != INVALID_KEY ? key : null;
+    }
+
+    private void disable(Throwable ex) {
+        if (m_isEnabled) {
+            m_isEnabled = false;
+            log(Level.WARNING, "Packet sounds disabled, using the Bukkit API: " + ex);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.sound;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+/**
+ * Plays the notes using a sink that can only be used by the server
+ * thread. The notes played by the other threads are queued and
+ * played when the server thread flushes the sink.
+ * @author SBPrime
+ */
+public class ServerThreadNoteSink implements INoteSink {
+
+    /**
+     * The note played by other thread
+     */
+    private static class QueuedNote {
+        private final Player m_listener;
+        private final Location m_location;
+        private final int m_patchId;
+        private final String m_patch;
+        private final float m_volume;
+        private final float m_pitch;
+
+        private QueuedNote(Player listener, Location location, int patchId, String patch, float volume, float pitch) {
+            m_listener = listener;
+            m_location = location;
+            m_patchId = patchId;
+            m_patch = patch;
+            m_volume = volume;
+            m_pitch = pitch;
+        }
+    }
+
+    /**
+     * The sink used by the server thread
+     */
+    private final INoteSink m_sink;
+
+    /**
+     * The notes played by other threads
+     */
+    private final ConcurrentLinkedQueue<QueuedNote> m_queued;
+
+    /**
+     * Number of the queued notes
+     */
+    private final AtomicLong m_deferred;
+
+    public ServerThreadNoteSink(INoteSink sink) {
+        m_sink = sink;
+        m_queued = new ConcurrentLinkedQueue<QueuedNote>();
+        m_deferred = new AtomicLong();
+    }
+
+    @Override
+    public void play(Player listener, Location location, int patchId, String patch, float volume, float pitch) {
+        if (Bukkit.isPrimaryThread()) {
+            m_sink.play(listener, location, patchId, patch, volume, pitch);
+        } else {
+            m_queued.add(new QueuedNote(listener, location, patchId, patch, volume, pitch));
+            m_deferred.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void flush() {
+        if (!Bukkit.isPrimaryThread()) {
+            return;
+        }
+
+        QueuedNote note;
+        while ((note = m_queued.poll()) != null) {
+            if (note.m_listener.isOnline()) {
+                m_sink.play(note.m_listener, note.m_location, note.m_patchId, note.m_patch, note.m_volume, note.m_pitch);
+            }
+        }
+        m_sink.flush();
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    @Override
+    public long getDeferred() {
+        return m_deferred.get();
+    }
+
+    @Override
+    public String toString() {
+        return m_sink.toString();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.sound;
+
+import java.util.logging.Level;
+import org.bukkit.Server;
+import org.bukkit.SoundCategory;
+import static org.primesoft.midiplayer.MidiPlayerMain.log;
+
+/**
+ * The note sink used by the tracks
+ * @author SBPrime
+ */
+public class SoundPlayer {
+
+    /**
+     * The sink names used in the configuration
+     */
+    public static final String BUKKIT = "bukkit";
+
+    public static final String PACKET = "packet";
+
+    public static final String COUNTING = "counting";
+
+    public static final String NULL = "null";
+
+    /**
+     * The current sink
+     */
+    private static volatile INoteSink s_sink = new BukkitNoteSink(SoundCategory.MUSIC);
+
+    /**
+     * The current sink used by the note dispatcher thread
+     */
+    private static volatile INoteSink s_dispatcherSink = new ServerThreadNoteSink(s_sink);
+
+    /**
+     * Create the note sink
+     *
+     * @param name The sink name
+     * @param server The server
+     * @param category The sound category
+     * @return The sink, the Bukkit sink if the name is not known
+     */
+    public static INoteSink createSink(String name, Server server, SoundCategory category) {
+        final INoteSink bukkit = new BukkitNoteSink(category);
+        name = name != null ? name.trim() : "";
+
+        if (PACKET.equalsIgnoreCase(name)) {
+            final PacketSoundSender sender = PacketSoundSender.create(server);
+            return sender != null ? new PacketNoteSink(sender, category, new ServerThreadNoteSink(bukkit)) : bukkit;
+        } else if (COUNTING.equalsIgnoreCase(name)) {
+            return new CountingNoteSink();
+        } else if (NULL.equalsIgnoreCase(name)) {
+            return NullNoteSink.INSTANCE;
+        } else if (!BUKKIT.equalsIgnoreCase(name)) {
+            log(Level.WARNING, "Specified note sink not found! Using " + BUKKIT);
+        }
+
+        return bukkit;
+    }
+
+    public static INoteSink getSink() {
+        return s_sink;
+    }
+
+    /**
+     * Get the note sink used by the note dispatcher thread. The notes of
+     * the sinks that are not thread safe are played on the next server tick.
+     *
+     * @return The thread safe sink
+     */
+    public static INoteSink getDispatcherSink() {
+        return s_dispatcherSink;
+    }
+
+    /**
+     * Set the note sink, the notes queued in the old sink
+     * by the current thread are sent
+     *
+     * @param sink The new sink
+     */
+    public static void setSink(INoteSink sink) {
+        final INoteSink old = s_sink;
+        final INoteSink oldDispatcher = s_dispatcherSink;
+        sink = sink != null ? sink : NullNoteSink.INSTANCE;
+        s_sink = sink;
+        s_dispatcherSink = sink.isThreadSafe() ? sink : new ServerThreadNoteSink(sink);
+        old.flush();
+        if (oldDispatcher != old) {
+            oldDispatcher.flush();
+        }
+    }
+}
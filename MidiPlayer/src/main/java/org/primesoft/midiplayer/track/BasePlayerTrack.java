@@ -47,6 +47,8 @@ import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.bukkit.entity.Player;
+import org.primesoft.midiplayer.midiparser.CompiledTrack;
+import org.primesoft.midiplayer.midiparser.IFrameSource;
 import org.primesoft.midiplayer.midiparser.NoteFrame;
 
 /**
@@ -85,6 +87,30 @@ public abstract class BasePlayerTrack extends BaseTrack {
     }
     
     public BasePlayerTrack(Player[] initialPlayers, NoteFrame[] notes, boolean loop, boolean singleLocation) {
+        this(initialPlayers, CompiledTrack.compile(notes), loop, singleLocation);
+    }
+
+    public BasePlayerTrack(IFrameSource notes, boolean singleLocation) {
+        this(notes, false, singleLocation);
+    }
+
+    public BasePlayerTrack(IFrameSource notes, boolean loop, boolean singleLocation) {
+        this((Player[])null, notes, loop, singleLocation);
+    }
+
+    public BasePlayerTrack(Player[] initialPlayers, IFrameSource notes, boolean singleLocation) {
+        this(initialPlayers, notes, false, singleLocation);
+    }
+
+    public BasePlayerTrack(Player initialPlayer, IFrameSource notes, boolean singleLocation) {
+        this(initialPlayer, notes, false, singleLocation);
+    }
+
+    public BasePlayerTrack(Player initialPlayer, IFrameSource notes, boolean loop, boolean singleLocation) {
+        this(new Player[]{initialPlayer}, notes, loop, singleLocation);
+    }
+
+    public BasePlayerTrack(Player[] initialPlayers, IFrameSource notes, boolean loop, boolean singleLocation) {
         super(notes, loop, singleLocation);
 
         m_players = new HashSet<Player>();
@@ -43,9 +43,16 @@ package org.primesoft.midiplayer.track;
 import org.bukkit.Location;
 import org.bukkit.entity.Player;
 import org.primesoft.midiplayer.configuration.ConfigProvider;
+import org.primesoft.midiplayer.midiparser.CompiledTrack;
+import org.primesoft.midiplayer.midiparser.IFrameSource;
 import org.primesoft.midiplayer.midiparser.NoteFrame;
+import org.primesoft.midiplayer.sound.INoteSink;
+import org.primesoft.midiplayer.sound.SoundPlayer;
+import org.primesoft.midiplayer.utils.IClock;
 
 import java.util.Collection;
+import java.util.logging.Level;
+import static org.primesoft.midiplayer.MidiPlayerMain.log;
 
 /**
  * Basic music track for playing notes
@@ -53,26 +60,64 @@ import java.util.Collection;
  */
 public abstract class BaseTrack {
 
+    private final static long NANOS_PER_MILLI = 1000000;
+
     /**
-     * Legth of 1/2 tick in miliseconds
+     * Legth of 1/2 tick in nanoseconds
      */
-    private final static int HALF_TICK = 1000 / ConfigProvider.TICKS_PER_SECOND / 2;
+    private final static long HALF_TICK = NANOS_PER_MILLI * 1000 / ConfigProvider.TICKS_PER_SECOND / 2;
 
     /**
      * Number of miliseconds to wait before performing loop
      */
     private final static int LOOP_WAIT = 1000;
 
+    /**
+     * Number of server ticks to wait before performing loop
+     */
+    private final static int LOOP_TICKS = LOOP_WAIT * ConfigProvider.TICKS_PER_SECOND / 1000;
+
+    /**
+     * Time between the checks for the next parsed frame (in nanoseconds)
+     */
+    private final static long STALL_RETRY = 5 * NANOS_PER_MILLI;
+
+    /**
+     * Timing errors of the frames played on the server ticks
+     */
+    private final static TimingHistogram s_tickTiming = new TimingHistogram();
+
     /**
      * Music track notes
      */
-    private final NoteFrame[] m_notes;
+    private final IFrameSource m_notes;
 
     /**
-     * Current track wait time
+     * Server ticks to wait for the next frame (quantized tracks)
      */
     private long m_wait;
 
+    /**
+     * The track start time (IClock nanoseconds)
+     */
+    private long m_start;
+
+    /**
+     * Is the start time set
+     */
+    private boolean m_isStarted;
+
+    /**
+     * The next frame position from the track start in milliseconds
+     * (not used by the quantized tracks played on the server ticks)
+     */
+    private long m_position;
+
+    /**
+     * Are the frames quantized to the server ticks
+     */
+    private boolean m_isQuantized;
+
     /**
      * Is the track looped
      */
@@ -84,16 +129,85 @@ public abstract class BaseTrack {
     private int m_pos;
 
     /**
-     * Next note to play
+     * Is there a next frame to play
+     */
+    private volatile boolean m_hasNext;
+
+    /**
+     * Is the track waiting for the next frame to be parsed
      */
-    private NoteFrame m_nextNote;
+    private boolean m_isStalled;
     
     /**
      * Use the per player sound location
      */
     private final boolean m_perPlayerLocation;
 
+    /**
+     * The track slot in the track registry, -1 if not registered
+     */
+    private int m_slot = -1;
+
+    /**
+     * The track position in the deadline queue, -1 if not queued
+     */
+    private int m_queueIndex = -1;
+
+    /**
+     * The wake up deadline in the deadline queue
+     */
+    private long m_deadline;
+
+    /**
+     * The last server tick played by the track
+     */
+    private long m_tick;
+
+    /**
+     * Counts the server ticks when the track is played without the scheduler
+     */
+    private final TickCounter m_playTicks = new TickCounter();
+
+    /**
+     * Play the track on the note dispatcher thread
+     */
+    private boolean m_isPrecise;
+
+    /**
+     * Is the track played by the note dispatcher
+     */
+    private volatile boolean m_isDispatched;
+
+    /**
+     * Should the note dispatcher stop playing the track
+     */
+    private volatile boolean m_isStopped;
+
+    /**
+     * The last audience snapshot for the note dispatcher
+     */
+    private volatile TrackAudience m_audience;
+
+    /**
+     * What to do with the frames that do not fit the tick sound budget
+     */
+    private OverloadPolicy m_overloadPolicy = OverloadPolicy.DEFER;
+
+    /**
+     * The listeners of the current server tick
+     */
+    private TrackAudience m_tickAudience;
+
+    /**
+     * The online players snapshot of the current server tick
+     */
+    private ServerAudience m_serverAudience;
+
     protected BaseTrack(NoteFrame[] notes, boolean loop, boolean singleLocation) {
+        this(CompiledTrack.compile(notes), loop, singleLocation);
+    }
+
+    protected BaseTrack(IFrameSource notes, boolean loop, boolean singleLocation) {
         m_isLooped = loop;
         m_notes = notes;
         m_perPlayerLocation = !singleLocation;        
@@ -107,16 +221,70 @@ public abstract class BaseTrack {
      * Allows you to add the track once again to the player.
      */
     public final void rewind() {
+        m_isDispatched = false;
+        m_isStarted = false;
         m_pos = 0;
-        if (m_notes != null && m_notes.length > 0) {
-            m_nextNote = m_notes[0];
-            m_wait = m_nextNote.getWait();
+        m_isStalled = false;
+        m_wait = 0;
+        m_position = 0;
+        if (m_notes != null && m_notes.getFrameCount() > 0) {
+            m_hasNext = true;
+            m_isQuantized = m_notes.isQuantized();
+            if (m_isQuantized) {
+                m_wait = m_notes.getTickWait(0);
+            } else {
+                m_position = m_notes.getWait(0);
+            }
+        } else if (m_notes != null && !m_notes.isComplete()) {
+            m_hasNext = true;
+            m_isStalled = true;
         } else {
-            m_nextNote = null;
-            m_wait = 0;
+            m_hasNext = false;
+        }
+    }
+
+    /**
+     * Timing errors of the frames played on the server ticks
+     *
+     * @return The timing histogram
+     */
+    public static TimingHistogram getTickTiming() {
+        return s_tickTiming;
+    }
+
+    /**
+     * Play the track on the note dispatcher thread at the exact
+     * frame times instead of the server ticks. The track is played
+     * on the server ticks if the current note sink is not thread safe.
+     * Should be set before the track is played.
+     *
+     * @param precise Use the note dispatcher
+     */
+    public void setPrecise(boolean precise) {
+        m_isPrecise = precise && SoundPlayer.getSink().isThreadSafe();
+        if (precise && !m_isPrecise) {
+            log(Level.WARNING, "Precise timing requires a thread safe note sink (packet, counting or null), "
+                    + "the track is played on the server ticks");
         }
     }
 
+    public boolean isPrecise() {
+        return m_isPrecise;
+    }
+
+    /**
+     * Set what to do with the frames that do not fit the tick sound budget
+     *
+     * @param policy The overload policy
+     */
+    public void setOverloadPolicy(OverloadPolicy policy) {
+        m_overloadPolicy = policy != null ? policy : OverloadPolicy.DEFER;
+    }
+
+    public OverloadPolicy getOverloadPolicy() {
+        return m_overloadPolicy;
+    }
+
     /**
      * Get list of players that should hear the music
      *
@@ -138,38 +306,416 @@ public abstract class BaseTrack {
      */
     protected Location getLocation(Player player)  { return null; }
 
-    public void play(long delta) {
-        m_wait -= delta;
+    /**
+     * Play the notes. The quantized tracks advance by the server ticks
+     * counted by the wall time (see TickCounter) and play the frames
+     * that are due, the other tracks play all frames
+     * that are due within half a tick. The frame times are computed
+     * from the track start time, so the clock jitter does not accumulate.
+     *
+     * @param now The current time (IClock nanoseconds)
+     */
+    public void play(long now) {
+        if (!beginTick(now, m_playTicks.next(now), null)) {
+            return;
+        }
+
+        final INoteSink sink = SoundPlayer.getSink();
+        while (isDue(now)) {
+            playDue(now, sink);
+        }
+        endTick();
+        sink.flush();
+    }
+
+    /**
+     * Advance the track to the server tick. The quantized tracks
+     * count all ticks since the last call, so the track does not
+     * need to be advanced on the ticks without due frames.
+     *
+     * @param now The current time (IClock nanoseconds)
+     * @param tick The server tick number
+     * @param serverAudience The online players snapshot of the tick, null to take own snapshot
+     * @return Whether there are frames to play on this tick
+     */
+    boolean beginTick(long now, long tick, ServerAudience serverAudience) {
+        m_serverAudience = serverAudience;
+        if (!m_isStarted) {
+            m_start = now;
+            m_isStarted = true;
+            m_tick = tick - 1;
+        }
+
+        final long elapsed = tick - m_tick;
+        m_tick = tick;
+        if (m_isStalled) {
+            if (!resume(now)) {
+                return false;
+            }
+        } else if (m_isQuantized) {
+            m_wait -= elapsed;
+        }
+
+        return isDue(now);
+    }
+
+    /**
+     * Is the next frame due on this tick
+     *
+     * @param now The current time (IClock nanoseconds)
+     * @return Whether the next frame should be played
+     */
+    boolean isDue(long now) {
+        return m_hasNext && !m_isStalled
+                && (m_isQuantized ? m_wait <= 0 : getDue() - now <= HALF_TICK);
+    }
+
+    /**
+     * Is the track woken up by the time of the next frame
+     * instead of the server tick number
+     *
+     * @return true if the next frame time is known
+     */
+    boolean isTimed() {
+        return m_isStarted && m_hasNext && !m_isStalled && !m_isQuantized;
+    }
+
+    /**
+     * Get the time when the next frame becomes due
+     *
+     * @return The time (IClock nanoseconds)
+     */
+    long getWakeTime() {
+        return getDue() - HALF_TICK;
+    }
+
+    /**
+     * Get the server tick when the next frame becomes due.
+     * The stalled tracks check the parser on every tick.
+     *
+     * @return The server tick number
+     */
+    long getWakeTick() {
+        return m_tick + (m_isQuantized && !m_isStalled && m_wait > 1 ? m_wait : 1);
+    }
+
+    /**
+     * Get the number of sounds in the next frame
+     *
+     * @return The frame notes times the number of listeners
+     */
+    int getDueSounds() {
+        return m_notes.getNoteCount(m_pos) * getTickAudience().size();
+    }
+
+    /**
+     * Play the next frame
+     *
+     * @param now The current time (IClock nanoseconds)
+     * @param sink The note sink
+     */
+    void playDue(long now, INoteSink sink) {
+        if (!m_isQuantized) {
+            s_tickTiming.record((now - getDue()) / 1000);
+        }
+
+        getTickAudience().play(m_notes, m_pos, sink);
+
+        m_pos++;
+        next();
+    }
+
+    /**
+     * Skip the frames that are due on this tick
+     *
+     * @param now The current time (IClock nanoseconds)
+     * @return Number of skipped frames
+     */
+    int skipDue(long now) {
+        int result = 0;
+        while (isDue(now)) {
+            m_pos++;
+            next();
+            result++;
+        }
+
+        return result;
+    }
+
+    /**
+     * Finish the server tick, releases the listeners snapshot
+     */
+    void endTick() {
+        m_tickAudience = null;
+        m_serverAudience = null;
+    }
+
+    /**
+     * Does the track play to all online players. These tracks
+     * share the online players snapshot of the server tick.
+     *
+     * @return true if the track plays to the whole server
+     */
+    boolean isServerWide() {
+        return false;
+    }
+
+    /**
+     * Get the listeners for the current tick. The players are
+     * collected once per tick and only for the tracks that play.
+     *
+     * @return The listeners snapshot
+     */
+    private TrackAudience getTickAudience() {
+        TrackAudience result = m_tickAudience;
+        if (result == null) {
+            final ServerAudience serverAudience = m_serverAudience;
+            result = serverAudience != null && isServerWide()
+                    ? serverAudience.get(this) : captureAudience();
+            m_tickAudience = result;
+        }
 
+        return result;
+    }
+
+    /**
+     * Take the listeners snapshot. The offline players are skipped and
+     * the sound locations are taken once for the whole snapshot.
+     *
+     * @return The listeners snapshot
+     */
+    TrackAudience captureAudience() {
         final Collection<? extends Player> players = getPlayers();
-        final Location location = m_perPlayerLocation ? null : getLocation();
+        final Player[] audience = new Player[players.size()];
+        final Location[] locations = new Location[audience.length];
+        Location location = m_perPlayerLocation ? null : getLocation();
+        if (location != null) {
+            location = location.clone();
+        }
+
+        int count = 0;
+        for (Player p : players) {
+            if (p == null || !p.isOnline() || count == audience.length) {
+                continue;
+            }
 
-        while (m_wait <= HALF_TICK && m_nextNote != null) {
-            for (Player p : players) {
-                m_nextNote.play(p, m_perPlayerLocation ? getLocation(p) : location);
+            Location l = m_perPlayerLocation ? getLocation(p) : location;
+            if (l == null) {
+                l = p.getLocation();
+            } else if (m_perPlayerLocation) {
+                l = l.clone();
+            }
+
+            audience[count] = p;
+            locations[count] = l;
+            count++;
+        }
+
+        return new TrackAudience(audience, locations, count);
+    }
+
+    /**
+     * Take the audience snapshot for the note dispatcher (server thread)
+     *
+     * @param serverAudience The online players snapshot of the tick, null to take own snapshot
+     */
+    void updateAudience(ServerAudience serverAudience) {
+        m_audience = serverAudience != null && isServerWide()
+                ? serverAudience.get(this) : captureAudience();
+    }
+
+    /**
+     * Start playing on the note dispatcher thread. The dispatcher
+     * uses the millisecond positions for the quantized tracks too.
+     *
+     * @param now The current time (IClock nanoseconds)
+     */
+    void startDispatch(long now) {
+        m_start = now;
+        m_isStarted = true;
+        m_position = 0;
+        if (!m_isStalled && m_hasNext && m_pos < m_notes.getFrameCount()) {
+            m_position = m_notes.getWait(m_pos);
+        }
+    }
+
+    /**
+     * Play the frames that are due (note dispatcher thread)
+     *
+     * @param clock The clock
+     * @param timing The timing errors histogram
+     * @param sink The note sink
+     * @return The time of the next frame (IClock nanoseconds), Long.MAX_VALUE if finished
+     */
+    long dispatch(IClock clock, TimingHistogram timing, INoteSink sink) {
+        final TrackAudience audience = m_audience;
+        long now = clock.nanoTime();
+
+        if (m_isStalled) {
+            if (m_pos >= m_notes.getFrameCount() && !m_notes.isComplete()) {
+                return now + STALL_RETRY;
+            }
+
+            //The time spent waiting for the parser stretches the frame wait
+            m_isStalled = false;
+            m_start = now - m_position * NANOS_PER_MILLI;
+            nextDue();
+        }
+
+        while (m_hasNext && !m_isStalled && getDue() <= now) {
+            final long deferred = sink.getDeferred();
+            if (audience != null) {
+                audience.play(m_notes, m_pos, sink);
+            }
+
+            now = clock.nanoTime();
+            if (sink.getDeferred() == deferred) {
+                timing.record((now - getDue()) / 1000);
+            } else {
+                //The notes are played on the next server tick
+                timing.recordDeferred();
             }
 
             m_pos++;
-            if (m_pos < m_notes.length) {
-                m_nextNote = m_notes[m_pos];
-                m_wait += m_nextNote.getWait();
-            } else if (m_isLooped) {
-                m_pos %= m_notes.length;
-                m_nextNote = m_notes[m_pos];
-
-                m_wait += LOOP_WAIT;
+            nextDue();
+        }
+
+        if (!m_hasNext) {
+            return Long.MAX_VALUE;
+        }
+
+        return m_isStalled ? now + STALL_RETRY : getDue();
+    }
+
+    /**
+     * Move to the next frame (note dispatcher thread)
+     */
+    private void nextDue() {
+        final int frames = m_notes.getFrameCount();
+        if (m_pos < frames) {
+            m_position += m_notes.getWait(m_pos);
+        } else if (!m_notes.isComplete()) {
+            m_isStalled = true;
+        } else if (m_isLooped && m_pos > 0) {
+            m_pos %= frames;
+            m_position += LOOP_WAIT;
+        } else {
+            m_hasNext = false;
+        }
+    }
+
+    /**
+     * Get the next frame time
+     *
+     * @return The time (IClock nanoseconds)
+     */
+    private long getDue() {
+        return m_start + m_position * NANOS_PER_MILLI;
+    }
+
+    boolean isDispatched() {
+        return m_isDispatched;
+    }
+
+    void setDispatched(boolean dispatched) {
+        m_isDispatched = dispatched;
+    }
+
+    boolean isStopped() {
+        return m_isStopped;
+    }
+
+    void setStopped(boolean stopped) {
+        m_isStopped = stopped;
+    }
+
+    /**
+     * Finish the track after a playback error, the
+     * scheduler removes the finished tracks
+     */
+    void fail() {
+        m_hasNext = false;
+    }
+
+    /**
+     * Move to the next frame
+     */
+    private void next() {
+        if (m_pos < m_notes.getFrameCount()) {
+            if (m_pos == 0) {
+                m_isQuantized = m_notes.isQuantized();
+            }
+
+            if (m_isQuantized) {
+                m_wait += m_notes.getTickWait(m_pos);
+            } else {
+                m_position += m_notes.getWait(m_pos);
+            }
+        } else if (!m_notes.isComplete()) {
+            m_isStalled = true;
+        } else if (m_isLooped && m_pos > 0) {
+            m_pos %= m_notes.getFrameCount();
+
+            if (m_isQuantized) {
+                m_wait += LOOP_TICKS;
             } else {
-                m_nextNote = null;
+                m_position += LOOP_WAIT;
             }
+        } else {
+            m_hasNext = false;
         }
     }
 
+    /**
+     * Resume the stalled track if the next frame is available.
+     * The time spent waiting for the parser stretches the frame wait.
+     *
+     * @param now The current time (IClock nanoseconds)
+     * @return Whether the track can play
+     */
+    private boolean resume(long now) {
+        if (m_pos >= m_notes.getFrameCount() && !m_notes.isComplete()) {
+            return false;
+        }
+
+        m_isStalled = false;
+        m_wait = 0;
+        m_start = now - m_position * NANOS_PER_MILLI;
+        next();
+
+        return m_hasNext && !m_isStalled;
+    }
+
+    int getSlot() {
+        return m_slot;
+    }
+
+    void setSlot(int slot) {
+        m_slot = slot;
+    }
+
+    int getQueueIndex() {
+        return m_queueIndex;
+    }
+
+    void setQueueIndex(int queueIndex) {
+        m_queueIndex = queueIndex;
+    }
+
+    long getDeadline() {
+        return m_deadline;
+    }
+
+    void setDeadline(long deadline) {
+        m_deadline = deadline;
+    }
+
     /**
      * Is track finished
      *
      * @return Whether the track has finished playing or not
      */
     public boolean isFinished() {
-        return m_nextNote == null;
+        return !m_hasNext;
     }
 }
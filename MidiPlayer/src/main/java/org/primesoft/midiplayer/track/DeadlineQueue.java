@@ -0,0 +1,195 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.track;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of the tracks ordered by their wake up deadline.
+ * Each track stores its deadline and heap position, so a track is
+ * removed in logarithmic time. A track can be in a single queue only.
+ * Only used by the player thread.
+ * @author SBPrime
+ */
+class DeadlineQueue {
+
+    /**
+     * The heap
+     */
+    private BaseTrack[] m_heap;
+
+    /**
+     * Number of queued tracks
+     */
+    private int m_size;
+
+    DeadlineQueue() {
+        m_heap = new BaseTrack[16];
+    }
+
+    int size() {
+        return m_size;
+    }
+
+    /**
+     * Get the earliest deadline
+     *
+     * @return The deadline, Long.MAX_VALUE if the queue is empty
+     */
+    long peekDeadline() {
+        return m_size > 0 ? m_heap[0].getDeadline() : Long.MAX_VALUE;
+    }
+
+    /**
+     * Queue the track
+     *
+     * @param track The track
+     * @param deadline The track wake up deadline
+     */
+    void add(BaseTrack track, long deadline) {
+        if (m_size == m_heap.length) {
+            m_heap = Arrays.copyOf(m_heap, m_size * 2);
+        }
+
+        track.setDeadline(deadline);
+        siftUp(m_size++, track);
+    }
+
+    /**
+     * Remove the track with the earliest deadline
+     *
+     * @return The track, null if the queue is empty
+     */
+    BaseTrack poll() {
+        if (m_size == 0) {
+            return null;
+        }
+
+        final BaseTrack result = m_heap[0];
+        removeAt(0);
+        return result;
+    }
+
+    /**
+     * Remove the track if it is in this queue
+     *
+     * @param track The track
+     * @return Whether the track was removed
+     */
+    boolean remove(BaseTrack track) {
+        final int index = track.getQueueIndex();
+        if (index < 0 || index >= m_size || m_heap[index] != track) {
+            return false;
+        }
+
+        removeAt(index);
+        return true;
+    }
+
+    /**
+     * Remove all tracks
+     */
+    void clear() {
+        for (int i = 0; i < m_size; i++) {
+            m_heap[i].setQueueIndex(-1);
+            m_heap[i] = null;
+        }
+        m_size = 0;
+    }
+
+    private void removeAt(int index) {
+        final BaseTrack removed = m_heap[index];
+        final int last = --m_size;
+        final BaseTrack moved = m_heap[last];
+        m_heap[last] = null;
+        removed.setQueueIndex(-1);
+
+        if (index != last) {
+            siftDown(index, moved);
+            if (m_heap[index] == moved) {
+                siftUp(index, moved);
+            }
+        }
+    }
+
+    private void siftUp(int index, BaseTrack track) {
+        final long deadline = track.getDeadline();
+        while (index > 0) {
+            final int parent = (index - 1) >>> 1;
+            final BaseTrack p = m_heap[parent];
+            if (p.getDeadline() <= deadline) {
+                break;
+            }
+
+            m_heap[index] = p;
+            p.setQueueIndex(index);
+            index = parent;
+        }
+
+        m_heap[index] = track;
+        track.setQueueIndex(index);
+    }
+
+    private void siftDown(int index, BaseTrack track) {
+        final long deadline = track.getDeadline();
+        final int half = m_size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            BaseTrack c = m_heap[child];
+            final int right = child + 1;
+            if (right < m_size && m_heap[right].getDeadline() < c.getDeadline()) {
+                child = right;
+                c = m_heap[child];
+            }
+
+            if (deadline <= c.getDeadline()) {
+                break;
+            }
+
+            m_heap[index] = c;
+            c.setQueueIndex(index);
+            index = child;
+        }
+
+        m_heap[index] = track;
+        track.setQueueIndex(index);
+    }
+}
@@ -42,6 +42,7 @@ package org.primesoft.midiplayer.track;
 
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.primesoft.midiplayer.midiparser.IFrameSource;
 import org.primesoft.midiplayer.midiparser.NoteFrame;
 
 import java.util.Collection;
@@ -62,6 +63,18 @@ public class GlobalTrack extends BaseTrack {
         return m_plugin.getServer().getOnlinePlayers();
     }
 
+    /**
+     * The global tracks share the online players snapshot of the tick.
+     * The subclasses that change the players or the sound location
+     * take their own snapshot.
+     *
+     * @return true if the track uses the stock online players audience
+     */
+    @Override
+    boolean isServerWide() {
+        return getClass() == GlobalTrack.class;
+    }
+
     public GlobalTrack(JavaPlugin plugin, NoteFrame[] notes) {
         this(plugin, notes, false);
     }
@@ -70,4 +83,13 @@ public class GlobalTrack extends BaseTrack {
         super(notes, loop, true);
         m_plugin = plugin;
     }
+
+    public GlobalTrack(JavaPlugin plugin, IFrameSource notes) {
+        this(plugin, notes, false);
+    }
+
+    public GlobalTrack(JavaPlugin plugin, IFrameSource notes, boolean loop) {
+        super(notes, loop, true);
+        m_plugin = plugin;
+    }
 }
\ No newline at end of file
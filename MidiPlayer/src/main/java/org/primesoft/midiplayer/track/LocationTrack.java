@@ -42,6 +42,7 @@ package org.primesoft.midiplayer.track;
 
 import org.bukkit.Location;
 import org.bukkit.entity.Player;
+import org.primesoft.midiplayer.midiparser.IFrameSource;
 import org.primesoft.midiplayer.midiparser.NoteFrame;
 
 /**
@@ -83,6 +84,32 @@ public class LocationTrack extends BasePlayerTrack {
         
         m_location = location;
     }
+
+    public LocationTrack(Location location, IFrameSource notes) {
+        this(location, notes, false);
+    }
+
+    public LocationTrack(Location location, IFrameSource notes, boolean loop) {
+        this(location, (Player[])null, notes, loop);
+    }
+
+    public LocationTrack(Location location, Player[] initialPlayers, IFrameSource notes) {
+        this(location, initialPlayers, notes, false);
+    }
+
+    public LocationTrack(Location location, Player initialPlayer, IFrameSource notes) {
+        this(location, initialPlayer, notes, false);
+    }
+
+    public LocationTrack(Location location, Player initialPlayer, IFrameSource notes, boolean loop) {
+        this(location, new Player[]{initialPlayer}, notes, loop);
+    }
+
+    public LocationTrack(Location location, Player[] initialPlayers, IFrameSource notes, boolean loop) {
+        super(initialPlayers, notes, loop, true);
+        
+        m_location = location;
+    }
     
     
     public void setLocation(Location location) {
@@ -0,0 +1,233 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.track;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import org.primesoft.midiplayer.sound.INoteSink;
+import org.primesoft.midiplayer.sound.SoundPlayer;
+import org.primesoft.midiplayer.utils.IClock;
+import static org.primesoft.midiplayer.MidiPlayerMain.log;
+
+/**
+ * Plays the precise tracks on a dedicated thread at the exact frame
+ * times instead of the server ticks. The server thread only provides
+ * the audience snapshots of the tracks. The thread sleeps in real time,
+ * so the clock should follow System.nanoTime.
+ * @author SBPrime
+ */
+public class NoteDispatcher implements Runnable {
+
+    /**
+     * The tracks waiting to be started
+     */
+    private final ConcurrentLinkedQueue<BaseTrack> m_added;
+
+    /**
+     * The played tracks, only used by the dispatcher thread
+     */
+    private final List<BaseTrack> m_tracks;
+
+    /**
+     * The timing errors of the played frames
+     */
+    private final TimingHistogram m_timing;
+
+    /**
+     * The clock used to schedule the frames
+     */
+    private final IClock m_clock;
+
+    /**
+     * The dispatcher thread, started when the first track is added
+     */
+    private Thread m_thread;
+
+    /**
+     * Is the dispatcher running
+     */
+    private volatile boolean m_isRunning;
+
+    public NoteDispatcher(IClock clock) {
+        m_clock = clock;
+        m_added = new ConcurrentLinkedQueue<BaseTrack>();
+        m_tracks = new ArrayList<BaseTrack>();
+        m_timing = new TimingHistogram();
+        m_isRunning = true;
+    }
+
+    /**
+     * The timing errors of the frames played by the dispatcher
+     *
+     * @return The timing histogram
+     */
+    public TimingHistogram getTiming() {
+        return m_timing;
+    }
+
+    /**
+     * Update the track audience and start playing the track
+     * if it is not played yet (server thread)
+     *
+     * @param track The precise track
+     */
+    public void update(BaseTrack track) {
+        update(track, null);
+    }
+
+    /**
+     * Update the track audience and start playing the track
+     * if it is not played yet (server thread)
+     *
+     * @param track The precise track
+     * @param serverAudience The online players snapshot of the tick
+     */
+    void update(BaseTrack track, ServerAudience serverAudience) {
+        track.updateAudience(serverAudience);
+
+        if (!track.isDispatched() && !track.isFinished()) {
+            track.setDispatched(true);
+            track.setStopped(false);
+            add(track);
+        }
+    }
+
+    /**
+     * Stop playing the track (any thread)
+     *
+     * @param track The track to stop
+     */
+    public void remove(BaseTrack track) {
+        if (track.isDispatched()) {
+            track.setStopped(true);
+        }
+    }
+
+    /**
+     * Stop the dispatcher
+     */
+    public synchronized void stop() {
+        m_isRunning = false;
+        m_added.clear();
+
+        if (m_thread != null) {
+            m_thread.interrupt();
+            m_thread = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        final List<BaseTrack> tracks = m_tracks;
+        while (m_isRunning) {
+            BaseTrack added;
+            while ((added = m_added.poll()) != null) {
+                added.startDispatch(m_clock.nanoTime());
+                tracks.add(added);
+            }
+
+            final INoteSink sink = SoundPlayer.getDispatcherSink();
+            long next = Long.MAX_VALUE;
+            for (int i = tracks.size() - 1; i >= 0; i--) {
+                final BaseTrack track = tracks.get(i);
+                long due = Long.MAX_VALUE;
+                if (!track.isStopped()) {
+                    try {
+                        due = track.dispatch(m_clock, m_timing, sink);
+                    } catch (RuntimeException ex) {
+                        log(Level.WARNING, "Error playing a precise track, track stopped: " + ex);
+                        track.fail();
+                    }
+                }
+
+                if (due == Long.MAX_VALUE) {
+                    //Finished, failed or stopped
+                    final int last = tracks.size() - 1;
+                    tracks.set(i, tracks.get(last));
+                    tracks.remove(last);
+                    track.setDispatched(false);
+                } else {
+                    next = Math.min(next, due);
+                }
+            }
+
+            sink.flush();
+
+            if (!m_added.isEmpty()) {
+                continue;
+            }
+
+            if (next == Long.MAX_VALUE) {
+                LockSupport.park(this);
+            } else {
+                final long wait = next - m_clock.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(this, wait);
+                }
+            }
+        }
+
+        tracks.clear();
+    }
+
+    /**
+     * Queue the track and wake the dispatcher thread
+     *
+     * @param track The track to start
+     */
+    private synchronized void add(BaseTrack track) {
+        if (!m_isRunning) {
+            return;
+        }
+
+        m_added.add(track);
+        if (m_thread == null) {
+            m_thread = new Thread(this, "MidiPlayer note dispatcher");
+            m_thread.setDaemon(true);
+            m_thread.start();
+        } else {
+            LockSupport.unpark(m_thread);
+        }
+    }
+}
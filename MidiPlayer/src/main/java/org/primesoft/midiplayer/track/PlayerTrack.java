@@ -41,6 +41,7 @@
 package org.primesoft.midiplayer.track;
 
 import org.bukkit.entity.Player;
+import org.primesoft.midiplayer.midiparser.IFrameSource;
 import org.primesoft.midiplayer.midiparser.NoteFrame;
 
 /**
@@ -74,4 +75,28 @@ public class PlayerTrack extends BasePlayerTrack {
     public PlayerTrack(Player[] initialPlayers, NoteFrame[] notes, boolean loop) {
         super(initialPlayers, notes, loop, false);
     }
+
+    public PlayerTrack(IFrameSource notes) {
+        this(notes, false);
+    }
+
+    public PlayerTrack(IFrameSource notes, boolean loop) {
+        this((Player[])null, notes, loop);
+    }
+
+    public PlayerTrack(Player[] initialPlayers, IFrameSource notes) {
+        this(initialPlayers, notes, false);
+    }
+
+    public PlayerTrack(Player initialPlayer, IFrameSource notes) {
+        this(initialPlayer, notes, false);
+    }
+
+    public PlayerTrack(Player initialPlayer, IFrameSource notes, boolean loop) {
+        this(new Player[]{initialPlayer}, notes, loop);
+    }
+
+    public PlayerTrack(Player[] initialPlayers, IFrameSource notes, boolean loop) {
+        super(initialPlayers, notes, loop, false);
+    }
 }
@@ -0,0 +1,240 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.track;
+
+import org.primesoft.midiplayer.utils.IClock;
+
+/**
+ * The engine wide limit of the sounds played on a single server tick.
+ * The budget is shared by all tracks played on the server ticks,
+ * the tracks played by the note dispatcher are not limited.
+ * @author SBPrime
+ */
+public class SoundBudget {
+
+    /**
+     * Default maximum number of sounds per tick, no limit
+     */
+    public static final int DEFAULT_MAX_SOUNDS = 0;
+
+    /**
+     * The clock used to measure the tick time
+     */
+    private final IClock m_clock;
+
+    /**
+     * Maximum number of sounds per tick, 0 for no limit
+     */
+    private volatile int m_maxSounds;
+
+    /**
+     * Maximum time spent playing the notes per tick (in nanoseconds), 0 for no limit
+     */
+    private volatile long m_maxNanos;
+
+    /**
+     * The tick start time (IClock nanoseconds)
+     */
+    private long m_tickStart;
+
+    /**
+     * Number of sounds played on the current tick
+     */
+    private int m_tickSounds;
+
+    /**
+     * Is the budget for the current tick used up
+     */
+    private boolean m_isExhausted;
+
+    /**
+     * Was a frame refused on the current tick
+     */
+    private boolean m_isLimited;
+
+    private volatile long m_sounds;
+
+    private volatile long m_deferred;
+
+    private volatile long m_dropped;
+
+    private volatile long m_exhaustedTicks;
+
+    public SoundBudget(IClock clock) {
+        m_clock = clock;
+        m_maxSounds = DEFAULT_MAX_SOUNDS;
+    }
+
+    /**
+     * Set the budget limits
+     *
+     * @param maxSounds Maximum number of sounds per tick, 0 for no limit
+     * @param maxNanos Maximum time spent playing the notes per tick
+     * (in nanoseconds), 0 for no limit
+     */
+    public void configure(int maxSounds, long maxNanos) {
+        m_maxSounds = Math.max(0, maxSounds);
+        m_maxNanos = Math.max(0, maxNanos);
+    }
+
+    public int getMaxSounds() {
+        return m_maxSounds;
+    }
+
+    public long getMaxNanos() {
+        return m_maxNanos;
+    }
+
+    /**
+     * Total number of played sounds
+     *
+     * @return Number of sounds
+     */
+    public long getSounds() {
+        return m_sounds;
+    }
+
+    /**
+     * Number of times a track frame was deferred to the next tick
+     *
+     * @return Number of deferred frames
+     */
+    public long getDeferred() {
+        return m_deferred;
+    }
+
+    /**
+     * Number of track frames dropped because the budget was used up
+     *
+     * @return Number of dropped frames
+     */
+    public long getDropped() {
+        return m_dropped;
+    }
+
+    /**
+     * Number of ticks on which the budget refused a frame
+     *
+     * @return Number of ticks
+     */
+    public long getExhaustedTicks() {
+        return m_exhaustedTicks;
+    }
+
+    /**
+     * Start the server tick
+     *
+     * @param now The tick start time (IClock nanoseconds)
+     */
+    void startTick(long now) {
+        m_tickStart = now;
+        m_tickSounds = 0;
+        m_isExhausted = false;
+        m_isLimited = false;
+    }
+
+    boolean isExhausted() {
+        return m_isExhausted;
+    }
+
+    /**
+     * Was a frame refused on the current tick
+     *
+     * @return true if the budget limited the tick
+     */
+    boolean isLimited() {
+        return m_isLimited;
+    }
+
+    /**
+     * Reserve the sounds of a single frame. The first frame of the tick
+     * is always played, so the tracks advance even with a tight budget.
+     * A frame that does not fit the remaining sounds is refused, the
+     * smaller frames can still be played. The budget is used up when
+     * no sounds remain or the tick time is over.
+     *
+     * @param sounds Number of sounds in the frame
+     * @return Whether the frame can be played on this tick
+     */
+    boolean tryAcquire(int sounds) {
+        if (m_isExhausted) {
+            return false;
+        }
+
+        if (m_tickSounds > 0) {
+            final int maxSounds = m_maxSounds;
+            final long maxNanos = m_maxNanos;
+            if ((maxSounds > 0 && m_tickSounds >= maxSounds)
+                    || (maxNanos > 0 && m_clock.nanoTime() - m_tickStart >= maxNanos)) {
+                m_isExhausted = true;
+                limit();
+                return false;
+            }
+
+            if (maxSounds > 0 && m_tickSounds + sounds > maxSounds) {
+                limit();
+                return false;
+            }
+        }
+
+        m_tickSounds += sounds;
+        m_sounds += sounds;
+        return true;
+    }
+
+    /**
+     * Count the tick as limited
+     */
+    private void limit() {
+        if (!m_isLimited) {
+            m_isLimited = true;
+            m_exhaustedTicks++;
+        }
+    }
+
+    void addDeferred() {
+        m_deferred++;
+    }
+
+    void addDropped(int frames) {
+        m_dropped += frames;
+    }
+}
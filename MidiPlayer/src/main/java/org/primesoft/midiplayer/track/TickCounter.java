@@ -0,0 +1,106 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.track;
+
+import org.primesoft.midiplayer.configuration.ConfigProvider;
+
+/**
+ * Counts the server ticks for the quantized tracks by the wall time.
+ * A late tick counts all tick periods that passed and the ticks that
+ * the lagging server runs back to back to catch up do not advance
+ * the count, so the quantized tracks keep their tempo instead of
+ * following the server. The count is rounded to the nearest tick
+ * period, so the tick jitter does not move the count.
+ * @author SBPrime
+ */
+final class TickCounter {
+
+    /**
+     * Length of the server tick in nanoseconds
+     */
+    private final static long TICK_NANOS = 1000000000L / ConfigProvider.TICKS_PER_SECOND;
+
+    /**
+     * The current tick number
+     */
+    private long m_tick;
+
+    /**
+     * The time of the first tick (IClock nanoseconds)
+     */
+    private long m_start;
+
+    /**
+     * Was the first tick counted
+     */
+    private boolean m_isStarted;
+
+    /**
+     * Get the current tick number
+     *
+     * @return The tick number
+     */
+    long get() {
+        return m_tick;
+    }
+
+    /**
+     * Count the server tick. The count is the number of tick periods
+     * since the first tick, it does not go back when a tick comes early.
+     *
+     * @param now The current time (IClock nanoseconds)
+     * @return The tick number
+     */
+    long next(long now) {
+        if (!m_isStarted) {
+            m_isStarted = true;
+            m_start = now;
+            return ++m_tick;
+        }
+
+        final long tick = 1 + (now - m_start + TICK_NANOS / 2) / TICK_NANOS;
+        if (tick > m_tick) {
+            m_tick = tick;
+        }
+
+        return m_tick;
+    }
+}
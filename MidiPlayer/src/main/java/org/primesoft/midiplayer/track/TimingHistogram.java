@@ -0,0 +1,164 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.track;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of the note timing errors (the difference between the time
+ * when the frame was played and the time when it should be played)
+ * @author SBPrime
+ */
+public class TimingHistogram {
+
+    /**
+     * The bucket upper bounds in microseconds, the last bucket is unbounded
+     */
+    private static final long[] BOUNDS = new long[]{250, 500, 1000, 2000, 5000, 10000, 25000, 50000};
+
+    private static final String[] LABELS = new String[]{
+        "<0.25ms", "<0.5ms", "<1ms", "<2ms", "<5ms", "<10ms", "<25ms", "<50ms", ">=50ms"
+    };
+
+    /**
+     * Number of frames in each bucket
+     */
+    private final AtomicLongArray m_counts = new AtomicLongArray(BOUNDS.length + 1);
+
+    /**
+     * Number of frames that were deferred to the server tick
+     */
+    private final AtomicLong m_deferred = new AtomicLong();
+
+    /**
+     * Record the played frame
+     *
+     * @param errorMicros The timing error in microseconds (early or late)
+     */
+    public void record(long errorMicros) {
+        final long error = Math.abs(errorMicros);
+        int bucket = 0;
+        while (bucket < BOUNDS.length && error >= BOUNDS[bucket]) {
+            bucket++;
+        }
+
+        m_counts.incrementAndGet(bucket);
+    }
+
+    /**
+     * Record the frame that was not played at the recorded time because
+     * its notes were queued for the server tick. The deferred frames
+     * are not included in the histogram.
+     */
+    public void recordDeferred() {
+        m_deferred.incrementAndGet();
+    }
+
+    /**
+     * Number of frames deferred to the server tick
+     *
+     * @return The number of frames
+     */
+    public long getDeferred() {
+        return m_deferred.get();
+    }
+
+    /**
+     * Number of recorded frames
+     *
+     * @return The number of frames
+     */
+    public long getCount() {
+        long result = 0;
+        for (int i = 0; i < m_counts.length(); i++) {
+            result += m_counts.get(i);
+        }
+
+        return result;
+    }
+
+    /**
+     * Number of frames in the bucket
+     *
+     * @param bucket The bucket index
+     * @return The number of frames
+     */
+    public long getCount(int bucket) {
+        return m_counts.get(bucket);
+    }
+
+    public int getBucketCount() {
+        return m_counts.length();
+    }
+
+    public String getLabel(int bucket) {
+        return LABELS[bucket];
+    }
+
+    /**
+     * Format the non empty buckets
+     *
+     * @return The histogram text
+     */
+    @Override
+    public String toString() {
+        final long total = getCount();
+        if (total == 0) {
+            return "no frames";
+        }
+
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < m_counts.length(); i++) {
+            final long count = m_counts.get(i);
+            if (count == 0) {
+                continue;
+            }
+
+            if (result.length() > 0) {
+                result.append(", ");
+            }
+            result.append(String.format("%1$s: %2$.1f%%", LABELS[i], count * 100.0 / total));
+        }
+
+        return result.toString();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.track;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.primesoft.midiplayer.midiparser.IFrameSource;
+import org.primesoft.midiplayer.sound.INoteSink;
+
+/**
+ * The players that hear the track and the sound locations. The snapshot
+ * is taken once on the server thread, it contains only the online
+ * players and is used by the scheduler and the note dispatcher thread.
+ * @author SBPrime
+ */
+class TrackAudience {
+    private final Player[] m_players;
+
+    private final Location[] m_locations;
+
+    private final int m_size;
+
+    /**
+     * @param players The players that should hear the track
+     * @param locations The sound location for each player
+     * @param size The number of players
+     */
+    TrackAudience(Player[] players, Location[] locations, int size) {
+        m_players = players;
+        m_locations = locations;
+        m_size = size;
+    }
+
+    /**
+     * Get the number of players
+     *
+     * @return Number of players
+     */
+    int size() {
+        return m_size;
+    }
+
+    /**
+     * Play the frame to the audience
+     *
+     * @param notes The track notes
+     * @param frame The frame to play
+     * @param sink The note sink
+     */
+    void play(IFrameSource notes, int frame, INoteSink sink) {
+        final Player[] players = m_players;
+        final Location[] locations = m_locations;
+        for (int i = 0; i < m_size; i++) {
+            notes.playFrame(frame, players[i], locations[i], sink);
+        }
+    }
+}
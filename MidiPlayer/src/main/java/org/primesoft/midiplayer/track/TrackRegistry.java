@@ -0,0 +1,213 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.track;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * The playing tracks. Tracks can be added and removed from any thread,
+ * the requests are queued and applied by the player thread at the
+ * start of the tick. The player thread iterates the tracks without
+ * locking or allocating, each track knows its slot so it is removed
+ * in constant time.
+ * @author SBPrime
+ */
+public class TrackRegistry {
+
+    /**
+     * Queued add or remove request
+     */
+    private static class Request {
+        private final BaseTrack m_track;
+        private final boolean m_isAdd;
+
+        private Request(BaseTrack track, boolean isAdd) {
+            m_track = track;
+            m_isAdd = isAdd;
+        }
+    }
+
+    /**
+     * The queued requests
+     */
+    private final ConcurrentLinkedQueue<Request> m_requests;
+
+    /**
+     * The tracks, only used by the player thread
+     */
+    private BaseTrack[] m_tracks;
+
+    /**
+     * Number of tracks
+     */
+    private volatile int m_size;
+
+    public TrackRegistry() {
+        m_requests = new ConcurrentLinkedQueue<Request>();
+        m_tracks = new BaseTrack[16];
+    }
+
+    /**
+     * Queue the track to be added (any thread)
+     *
+     * @param track The track to add
+     */
+    public void add(BaseTrack track) {
+        m_requests.add(new Request(track, true));
+    }
+
+    /**
+     * Queue the track to be removed (any thread)
+     *
+     * @param track The track to remove
+     */
+    public void remove(BaseTrack track) {
+        m_requests.add(new Request(track, false));
+    }
+
+    /**
+     * Number of tracks after the last applied requests
+     *
+     * @return The number of tracks
+     */
+    public int size() {
+        return m_size;
+    }
+
+    /**
+     * Are there no tracks and no queued requests
+     *
+     * @return true if there is nothing to play
+     */
+    public boolean isIdle() {
+        return m_size == 0 && m_requests.isEmpty();
+    }
+
+    /**
+     * Apply the queued requests (player thread)
+     *
+     * @param onAdded Called for each added track
+     * @param onRemoved Called for each removed track
+     */
+    public void applyPending(Consumer<BaseTrack> onAdded, Consumer<BaseTrack> onRemoved) {
+        Request request;
+        while ((request = m_requests.poll()) != null) {
+            final BaseTrack track = request.m_track;
+            if (request.m_isAdd) {
+                if (insert(track)) {
+                    onAdded.accept(track);
+                }
+            } else if (delete(track)) {
+                onRemoved.accept(track);
+            }
+        }
+    }
+
+    /**
+     * Get the track (player thread)
+     *
+     * @param slot The track slot
+     * @return The track
+     */
+    public BaseTrack get(int slot) {
+        return m_tracks[slot];
+    }
+
+    /**
+     * Remove the track from the slot (player thread). The last track
+     * is moved to the slot, so the tracks should be iterated from the end
+     * when they are removed during the iteration.
+     *
+     * @param slot The track slot
+     */
+    public void removeAt(int slot) {
+        final int last = m_size - 1;
+        final BaseTrack track = m_tracks[slot];
+        final BaseTrack moved = m_tracks[last];
+
+        m_tracks[slot] = moved;
+        moved.setSlot(slot);
+        m_tracks[last] = null;
+        track.setSlot(-1);
+
+        m_size = last;
+    }
+
+    /**
+     * Remove all tracks and the queued requests (player thread)
+     */
+    public void clear() {
+        m_requests.clear();
+        for (int i = 0; i < m_size; i++) {
+            m_tracks[i].setSlot(-1);
+            m_tracks[i] = null;
+        }
+        m_size = 0;
+    }
+
+    private boolean insert(BaseTrack track) {
+        if (track.getSlot() >= 0) {
+            return false;
+        }
+
+        final int size = m_size;
+        if (size == m_tracks.length) {
+            m_tracks = Arrays.copyOf(m_tracks, size * 2);
+        }
+
+        m_tracks[size] = track;
+        track.setSlot(size);
+        m_size = size + 1;
+        return true;
+    }
+
+    private boolean delete(BaseTrack track) {
+        final int slot = track.getSlot();
+        if (slot < 0 || slot >= m_size || m_tracks[slot] != track) {
+            return false;
+        }
+
+        removeAt(slot);
+        return true;
+    }
+}
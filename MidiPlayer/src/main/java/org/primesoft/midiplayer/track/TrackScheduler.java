@@ -0,0 +1,301 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.track;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+import org.primesoft.midiplayer.sound.INoteSink;
+import org.primesoft.midiplayer.sound.SoundPlayer;
+
+/**
+ * Plays the tracks on the server ticks within the tick sound budget.
+ * The tracks wait in the deadline queues until their next frame is due,
+ * so the tracks without due frames are not touched on the tick.
+ * The due tracks play one frame per round in the registry slot order,
+ * so a dense track cannot use up the whole budget. A frame that does not
+ * fit waits and the other tracks continue. When the budget limits the
+ * tick, the next tick continues after the last played track.
+ * @author SBPrime
+ */
+public class TrackScheduler {
+
+    /**
+     * All playing music tracks
+     */
+    private final TrackRegistry m_tracks;
+
+    /**
+     * Plays the precise tracks between the server ticks
+     */
+    private final NoteDispatcher m_dispatcher;
+
+    /**
+     * The tick sound budget
+     */
+    private final SoundBudget m_budget;
+
+    /**
+     * The tracks waiting for a server tick (quantized, stalled,
+     * new and precise tracks)
+     */
+    private final DeadlineQueue m_ticked;
+
+    /**
+     * The tracks waiting for the next frame time
+     */
+    private final DeadlineQueue m_timed;
+
+    /**
+     * The online players snapshot shared by the global tracks
+     */
+    private final ServerAudience m_serverAudience;
+
+    private final Consumer<BaseTrack> m_onAdded;
+
+    private final Consumer<BaseTrack> m_onRemoved;
+
+    /**
+     * The tracks played on the current tick
+     */
+    private BaseTrack[] m_due;
+
+    /**
+     * The server tick counter
+     */
+    private final TickCounter m_ticks;
+
+    /**
+     * The ordered due tracks
+     */
+    private BaseTrack[] m_ordered;
+
+    /**
+     * The due tracks sort keys
+     */
+    private long[] m_keys;
+
+    /**
+     * The due tracks that did not fit the budget
+     */
+    private boolean[] m_refused;
+
+    /**
+     * The registry slot of the track that starts the next tick
+     */
+    private int m_firstSlot;
+
+    public TrackScheduler(TrackRegistry tracks, NoteDispatcher dispatcher, SoundBudget budget) {
+        m_tracks = tracks;
+        m_dispatcher = dispatcher;
+        m_budget = budget;
+        m_ticked = new DeadlineQueue();
+        m_timed = new DeadlineQueue();
+        m_serverAudience = new ServerAudience();
+        m_ticks = new TickCounter();
+        m_due = new BaseTrack[16];
+        m_ordered = new BaseTrack[16];
+        m_keys = new long[16];
+        m_refused = new boolean[16];
+        m_onAdded = track -> m_ticked.add(track, m_ticks.get());
+        m_onRemoved = track -> {
+            if (!m_ticked.remove(track)) {
+                m_timed.remove(track);
+            }
+        };
+    }
+
+    /**
+     * Play the server tick
+     *
+     * @param now The current time (IClock nanoseconds)
+     */
+    public void tick(long now) {
+        final TrackRegistry tracks = m_tracks;
+        final SoundBudget budget = m_budget;
+        final ServerAudience serverAudience = m_serverAudience;
+        final long tick = m_ticks.next(now);
+        tracks.applyPending(m_onAdded, m_onRemoved);
+        budget.startTick(now);
+        final INoteSink sink = SoundPlayer.getSink();
+
+        int count = 0;
+        while (m_ticked.peekDeadline() <= tick) {
+            count = addDue(count, m_ticked.poll());
+        }
+        while (m_timed.peekDeadline() <= now) {
+            count = addDue(count, m_timed.poll());
+        }
+
+        final BaseTrack[] due = orderDue(count, tracks.size());
+        final boolean[] refused = m_refused;
+        int dueCount = 0;
+        for (int i = 0; i < count; i++) {
+            final BaseTrack track = due[i];
+            refused[i] = false;
+            if (track.isPrecise()) {
+                m_dispatcher.update(track, serverAudience);
+            } else if (track.beginTick(now, tick, serverAudience)) {
+                dueCount++;
+            }
+        }
+
+        int lastPlayed = -1;
+        while (dueCount > 0 && !budget.isExhausted()) {
+            dueCount = 0;
+            for (int i = 0; i < count && !budget.isExhausted(); i++) {
+                final BaseTrack track = due[i];
+                if (refused[i] || track.isPrecise() || !track.isDue(now)) {
+                    continue;
+                }
+
+                if (!budget.tryAcquire(track.getDueSounds())) {
+                    //Only this track waits, the smaller frames might still fit
+                    refused[i] = true;
+                    continue;
+                }
+
+                track.playDue(now, sink);
+                lastPlayed = i;
+                if (track.isDue(now)) {
+                    dueCount++;
+                }
+            }
+        }
+
+        final BaseTrack lastTrack = budget.isLimited() && lastPlayed >= 0 ? due[lastPlayed] : null;
+        final int lastSlot = lastTrack != null ? lastTrack.getSlot() : -1;
+
+        for (int i = 0; i < count; i++) {
+            final BaseTrack track = due[i];
+            due[i] = null;
+            if (!track.isPrecise()) {
+                if (track.isDue(now)) {
+                    if (track.getOverloadPolicy() == OverloadPolicy.DROP) {
+                        budget.addDropped(track.skipDue(now));
+                    } else {
+                        budget.addDeferred();
+                    }
+                }
+                track.endTick();
+            }
+
+            if (track.isFinished()) {
+                tracks.removeAt(track.getSlot());
+            } else if (track.isPrecise()) {
+                m_ticked.add(track, tick + 1);
+            } else if (track.isTimed()) {
+                m_timed.add(track, track.getWakeTime());
+            } else {
+                m_ticked.add(track, track.getWakeTick());
+            }
+        }
+
+        if (lastTrack != null) {
+            //The next tick continues after the last played track, the removed
+            //tracks move other tracks, so the slot is taken after the removals.
+            //When the track finished the track moved to its slot is next.
+            final int slot = lastTrack.getSlot();
+            m_firstSlot = slot >= 0 ? slot + 1 : lastSlot;
+        }
+
+        serverAudience.clear();
+        sink.flush();
+
+        //The notes that the note dispatcher could not play on its thread
+        final INoteSink dispatcherSink = SoundPlayer.getDispatcherSink();
+        if (dispatcherSink != sink) {
+            dispatcherSink.flush();
+        }
+    }
+
+    /**
+     * Remove all tracks (player thread)
+     */
+    public void clear() {
+        m_ticked.clear();
+        m_timed.clear();
+        m_tracks.clear();
+    }
+
+    /**
+     * Order the due tracks by the registry slot, starting with the
+     * first slot. The slot of a track does not depend on the order
+     * in which the deadline queues return the tracks.
+     *
+     * @param count Number of due tracks
+     * @param size Number of registered tracks
+     * @return The ordered due tracks
+     */
+    private BaseTrack[] orderDue(int count, int size) {
+        final BaseTrack[] due = m_due;
+        final long[] keys = m_keys;
+        final int first = m_firstSlot < size ? m_firstSlot : 0;
+        for (int i = 0; i < count; i++) {
+            final int slot = due[i].getSlot();
+            final long order = slot >= first ? slot - first : slot - first + size;
+            keys[i] = order << 32 | i;
+        }
+        Arrays.sort(keys, 0, count);
+
+        final BaseTrack[] ordered = m_ordered;
+        for (int i = 0; i < count; i++) {
+            ordered[i] = due[(int) keys[i]];
+        }
+        for (int i = 0; i < count; i++) {
+            due[i] = ordered[i];
+            ordered[i] = null;
+        }
+
+        return due;
+    }
+
+    private int addDue(int count, BaseTrack track) {
+        if (count == m_due.length) {
+            m_due = Arrays.copyOf(m_due, count * 2);
+            m_ordered = new BaseTrack[count * 2];
+            m_keys = new long[count * 2];
+            m_refused = new boolean[count * 2];
+        }
+
+        m_due[count] = track;
+        return count + 1;
+    }
+}
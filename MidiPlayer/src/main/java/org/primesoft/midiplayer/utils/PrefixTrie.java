@@ -0,0 +1,322 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Case insensitive prefix tree of strings. Each node knows the number of
+ * strings below it, so the prefix lookups and the paging only visit
+ * the returned strings.
+ * @author SBPrime
+ */
+public class PrefixTrie {
+
+    private static final char[] NO_KEYS = new char[0];
+
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private static class Node {
+        /**
+         * The child edges, sorted
+         */
+        private char[] m_keys = NO_KEYS;
+
+        private Node[] m_children = NO_CHILDREN;
+
+        private int m_childCount;
+
+        /**
+         * The string ending in this node
+         */
+        private String m_value;
+
+        /**
+         * Number of strings in this subtree
+         */
+        private int m_count;
+
+        private Node get(char key) {
+            final int idx = Arrays.binarySearch(m_keys, 0, m_childCount, key);
+            return idx >= 0 ? m_children[idx] : null;
+        }
+
+        private Node getOrAdd(char key) {
+            int idx = Arrays.binarySearch(m_keys, 0, m_childCount, key);
+            if (idx >= 0) {
+                return m_children[idx];
+            }
+
+            idx = -idx - 1;
+            if (m_childCount == m_keys.length) {
+                final int size = Math.max(2, m_childCount * 2);
+                m_keys = Arrays.copyOf(m_keys, size);
+                m_children = Arrays.copyOf(m_children, size);
+            }
+
+            System.arraycopy(m_keys, idx, m_keys, idx + 1, m_childCount - idx);
+            System.arraycopy(m_children, idx, m_children, idx + 1, m_childCount - idx);
+            m_keys[idx] = key;
+            m_children[idx] = new Node();
+            m_childCount++;
+
+            return m_children[idx];
+        }
+
+        private void remove(char key) {
+            final int idx = Arrays.binarySearch(m_keys, 0, m_childCount, key);
+            if (idx < 0) {
+                return;
+            }
+
+            m_childCount--;
+            System.arraycopy(m_keys, idx + 1, m_keys, idx, m_childCount - idx);
+            System.arraycopy(m_children, idx + 1, m_children, idx, m_childCount - idx);
+            m_children[m_childCount] = null;
+        }
+    }
+
+    private final Node m_root = new Node();
+
+    /**
+     * Number of strings
+     *
+     * @return The number of strings
+     */
+    public int size() {
+        return m_root.m_count;
+    }
+
+    /**
+     * Remove all strings
+     */
+    public void clear() {
+        m_root.m_keys = NO_KEYS;
+        m_root.m_children = NO_CHILDREN;
+        m_root.m_childCount = 0;
+        m_root.m_value = null;
+        m_root.m_count = 0;
+    }
+
+    /**
+     * Add the string. A string that differs only in the case is replaced.
+     *
+     * @param value The string to add
+     * @return true if the string was added, false if it was replaced
+     */
+    public boolean put(String value) {
+        final String key = toKey(value);
+        final Node existing = find(key);
+        if (existing != null && existing.m_value != null) {
+            existing.m_value = value;
+            return false;
+        }
+
+        Node node = m_root;
+        node.m_count++;
+        for (int i = 0; i < key.length(); i++) {
+            node = node.getOrAdd(key.charAt(i));
+            node.m_count++;
+        }
+        node.m_value = value;
+
+        return true;
+    }
+
+    /**
+     * Remove the string
+     *
+     * @param value The string to remove (case insensitive)
+     * @return true if the string was removed
+     */
+    public boolean remove(String value) {
+        final String key = toKey(value);
+        final Node[] path = new Node[key.length() + 1];
+        Node node = m_root;
+        path[0] = node;
+        for (int i = 0; i < key.length() && node != null; i++) {
+            node = node.get(key.charAt(i));
+            path[i + 1] = node;
+        }
+
+        if (node == null || node.m_value == null) {
+            return false;
+        }
+
+        node.m_value = null;
+        for (Node n : path) {
+            n.m_count--;
+        }
+
+        for (int i = key.length(); i > 0; i--) {
+            if (path[i].m_count == 0) {
+                path[i - 1].remove(key.charAt(i - 1));
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Does the trie contain the string
+     *
+     * @param value The string (case insensitive)
+     * @return The stored string or null if not found
+     */
+    public String get(String value) {
+        final Node node = find(toKey(value));
+        return node != null ? node.m_value : null;
+    }
+
+    /**
+     * Count the strings starting with the prefix
+     *
+     * @param prefix The prefix (case insensitive)
+     * @return Number of strings
+     */
+    public int count(String prefix) {
+        final Node node = find(toKey(prefix));
+        return node != null ? node.m_count : 0;
+    }
+
+    /**
+     * Find the strings starting with the prefix, in the key order
+     *
+     * @param prefix The prefix (case insensitive)
+     * @param offset Number of strings to skip
+     * @param limit The maximum number of strings
+     * @return The found strings
+     */
+    public List<String> find(String prefix, int offset, int limit) {
+        final List<String> result = new ArrayList<String>();
+        final Node node = find(toKey(prefix));
+        if (node != null && limit > 0) {
+            collect(node, Math.max(0, offset), limit, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Complete the prefix. The strings that continue with the separator
+     * after the prefix are collapsed to a single entry ending with the separator.
+     *
+     * @param prefix The prefix (case insensitive)
+     * @param separator The separator
+     * @param limit The maximum number of completions
+     * @return The completions in the key order
+     */
+    public List<String> complete(String prefix, char separator, int limit) {
+        final List<String> result = new ArrayList<String>();
+        final String key = toKey(prefix);
+        final Node node = find(key);
+        if (node != null && limit > 0) {
+            complete(node, key.length(), Character.toLowerCase(separator), limit, result);
+        }
+
+        return result;
+    }
+
+    private Node find(String key) {
+        Node node = m_root;
+        for (int i = 0; i < key.length() && node != null; i++) {
+            node = node.get(key.charAt(i));
+        }
+
+        return node;
+    }
+
+    /**
+     * Collect the subtree strings
+     *
+     * @return The remaining offset
+     */
+    private static int collect(Node node, int offset, int limit, List<String> result) {
+        if (node.m_value != null) {
+            if (offset > 0) {
+                offset--;
+            } else {
+                result.add(node.m_value);
+            }
+        }
+
+        for (int i = 0; i < node.m_childCount && result.size() < limit; i++) {
+            final Node child = node.m_children[i];
+            if (offset >= child.m_count) {
+                offset -= child.m_count;
+            } else {
+                offset = collect(child, offset, limit, result);
+            }
+        }
+
+        return offset;
+    }
+
+    private static void complete(Node node, int depth, char separator, int limit, List<String> result) {
+        if (node.m_value != null) {
+            result.add(node.m_value);
+        }
+
+        for (int i = 0; i < node.m_childCount && result.size() < limit; i++) {
+            final Node child = node.m_children[i];
+            if (node.m_keys[i] == separator) {
+                result.add(firstValue(child).substring(0, depth + 1));
+            } else {
+                complete(child, depth + 1, separator, limit, result);
+            }
+        }
+    }
+
+    private static String firstValue(Node node) {
+        while (node.m_value == null) {
+            node = node.m_children[0];
+        }
+
+        return node.m_value;
+    }
+
+    private static String toKey(String value) {
+        return value.toLowerCase(Locale.ROOT);
+    }
+}
@@ -40,6 +40,13 @@
  */
 package org.primesoft.midiplayer.utils;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Set;
 
 /**
@@ -48,6 +55,23 @@ import java.util.Set;
  */
 public class Utils {
 
+    /**
+     * Resolve the file name inside the folder
+     *
+     * @param folder The folder
+     * @param name The file name, might contain subfolders
+     * @return The file or null if the file is outside of the folder
+     */
+    public static File getFile(File folder, String name) {
+        try {
+            final File base = folder.getCanonicalFile();
+            final File result = new File(base, name).getCanonicalFile();
+            return result.toPath().startsWith(base.toPath()) && !result.equals(base) ? result : null;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
     /**
      * Try to parse a string
      *
@@ -89,4 +113,89 @@ public class Utils {
         }
         return false;
     }
+
+    /**
+     * Create the SHA-1 digest
+     *
+     * @return New digest instance
+     */
+    public static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            //SHA-1 is required to be supported by every Java platform
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Add the text line to the digest
+     *
+     * @param digest The digest to update
+     * @param line The line to add
+     */
+    public static void updateDigest(MessageDigest digest, String line) {
+        if (digest == null || line == null) {
+            return;
+        }
+
+        digest.update(line.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) '\n');
+    }
+
+    /**
+     * Convert bytes to a hex string
+     *
+     * @param data The bytes to convert
+     * @return The hex string
+     */
+    public static String toHex(byte[] data) {
+        final char[] digits = "0123456789abcdef".toCharArray();
+        final char[] result = new char[data.length * 2];
+        for (int i = 0; i < data.length; i++) {
+            result[i * 2] = digits[(data[i] >> 4) & 0xf];
+            result[i * 2 + 1] = digits[data[i] & 0xf];
+        }
+
+        return new String(result);
+    }
+
+    /**
+     * Read all bytes from the stream
+     *
+     * @param in The stream to read
+     * @param sizeHint The expected number of bytes, 0 if not known
+     * @return The read bytes
+     * @throws IOException When failed to read the stream
+     */
+    public static byte[] readFully(InputStream in, long sizeHint) throws IOException {
+        if (sizeHint > Integer.MAX_VALUE - 8) {
+            throw new IOException("Stream too large");
+        }
+
+        byte[] result = new byte[Math.max(8192, (int) sizeHint)];
+        int size = 0;
+        while (true) {
+            if (size == result.length) {
+                //Do not grow the buffer when the size hint was exact
+                int next = in.read();
+                if (next < 0) {
+                    break;
+                }
+                if (size > Integer.MAX_VALUE / 2) {
+                    throw new IOException("Stream too large");
+                }
+                result = Arrays.copyOf(result, size * 2);
+                result[size++] = (byte) next;
+            }
+
+            int read = in.read(result, size, result.length - size);
+            if (read < 0) {
+                break;
+            }
+            size += read;
+        }
+
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
 }
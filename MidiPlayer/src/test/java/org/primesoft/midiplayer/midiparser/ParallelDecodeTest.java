@@ -0,0 +1,171 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.midiparser;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import javax.sound.midi.InvalidMidiDataException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.primesoft.midiplayer.instruments.MapFileParser;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the parallel track decoding produces the same
+ * tracks as the sequential decoding
+ * @author SBPrime
+ */
+public class ParallelDecodeTest {
+
+    @Before
+    public void setUp() {
+        assertTrue(MapFileParser.loadDefaultMap());
+        assertTrue(MapFileParser.loadDefaultDrumMap());
+        MidiParser.setReducer(null);
+        MidiParser.setTickQuantized(false);
+    }
+
+    @After
+    public void tearDown() {
+        MidiParser.setTickQuantized(false);
+    }
+
+    @Test
+    public void constantTempo() throws Exception {
+        assertSameTrack(new SmfGenerator(8, 4, 200, 0, 1).generate());
+    }
+
+    @Test
+    public void tempoChanges() throws Exception {
+        //The tempo changes are stored in the conductor track and
+        //apply to the notes decoded from the other track chunks
+        assertSameTrack(new SmfGenerator(8, 4, 200, 3, 2).generate());
+        assertSameTrack(new SmfGenerator(16, 7, 150, 1, 3).generate());
+    }
+
+    @Test
+    public void runningStatus() throws Exception {
+        final byte[] data = new SmfGenerator(8, 4, 200, 3, 4, true).generate();
+        final byte[] explicit = new SmfGenerator(8, 4, 200, 3, 4).generate();
+        assertTrue(data.length < explicit.length);
+        assertSameTrack(data);
+
+        //Running status starts at the beginning of each track chunk
+        //and gives the same notes as the explicit status bytes
+        assertSameTrack(parse(explicit, false), parse(data, true));
+    }
+
+    @Test
+    public void quantized() throws Exception {
+        MidiParser.setTickQuantized(true);
+        assertSameTrack(new SmfGenerator(8, 4, 200, 3, 5).generate());
+    }
+
+    @Test
+    public void missingStatusAtChunkStart() throws Exception {
+        //The running status of the previous chunk must not be used
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{'M', 'T', 'h', 'd', 0, 0, 0, 6, 0, 1, 0, 2, 0x01, (byte) 0xe0});
+        writeTrack(out, new byte[]{0, (byte) 0x90, 60, 100, 0x60, 60, 0, 0, (byte) 0xff, 0x2f, 0});
+        writeTrack(out, new byte[]{0, 62, 100, 0x60, 62, 0, 0, (byte) 0xff, 0x2f, 0});
+        final byte[] data = out.toByteArray();
+
+        assertInvalid(data, false);
+        assertInvalid(data, true);
+    }
+
+    private static void assertSameTrack(byte[] data) throws Exception {
+        assertSameTrack(parse(data, false), parse(data, true));
+    }
+
+    private static void assertSameTrack(CompiledTrack expected, CompiledTrack actual) {
+        assertEquals("frames", expected.getFrameCount(), actual.getFrameCount());
+        assertEquals("notes", expected.getNoteCount(), actual.getNoteCount());
+        assertEquals("quantized", expected.isQuantized(), actual.isQuantized());
+
+        for (int i = 0; i < expected.getFrameCount(); i++) {
+            assertEquals("wait of frame " + i, expected.getWait(i), actual.getWait(i));
+            assertEquals("tick wait of frame " + i, expected.getTickWait(i), actual.getTickWait(i));
+            assertEquals("notes of frame " + i, expected.getNoteCount(i), actual.getNoteCount(i));
+        }
+
+        for (int i = 0; i < expected.getNoteCount(); i++) {
+            assertEquals("patch of note " + i, expected.getPatchId(i), actual.getPatchId(i));
+            assertEquals("pitch of note " + i, expected.getPitch(i), actual.getPitch(i), 0);
+            assertEquals("volume of note " + i, expected.getVolume(i), actual.getVolume(i), 0);
+        }
+    }
+
+    private static CompiledTrack parse(byte[] data, boolean parallel) throws Exception {
+        NoteTrack track = MidiParser.parseSmf(SmfReader.open(ByteBuffer.wrap(data)), parallel, null);
+        assertNotNull(track);
+        assertFalse(track.getMessage(), track.isError());
+        assertTrue(track.getTrack().getFrameCount() > 0);
+
+        return track.getTrack();
+    }
+
+    private static void assertInvalid(byte[] data, boolean parallel) throws Exception {
+        try {
+            MidiParser.parseSmf(SmfReader.open(ByteBuffer.wrap(data)), parallel, null);
+            fail("The missing status byte was not detected");
+        } catch (InvalidMidiDataException ex) {
+            //Expected
+        }
+    }
+
+    private static void writeTrack(ByteArrayOutputStream out, byte[] data) {
+        out.write('M');
+        out.write('T');
+        out.write('r');
+        out.write('k');
+        out.write(0);
+        out.write(0);
+        out.write(0);
+        out.write(data.length);
+        out.write(data, 0, data.length);
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.midiparser;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+/**
+ * Deterministic generator of synthetic standard MIDI files used by
+ * the tests and the benchmarks. The generated file is a format 1 file with a conductor
+ * track containing the tempo changes and a number of note tracks.
+ * @author SBPrime
+ */
+public final class SmfGenerator {
+    /**
+     * The generated file resolution (ticks per quarter note)
+     */
+    static final int RESOLUTION = 480;
+
+    /**
+     * The number of note tracks
+     */
+    private final int m_tracks;
+
+    /**
+     * The number of notes per beat in each track
+     */
+    private final int m_notesPerBeat;
+
+    /**
+     * The song length in beats
+     */
+    private final int m_beats;
+
+    /**
+     * The number of beats between tempo changes, 0 for a constant tempo
+     */
+    private final int m_tempoInterval;
+
+    /**
+     * The random seed
+     */
+    private final long m_seed;
+
+    /**
+     * Use running status, the note off events are written as note on
+     * events with zero velocity
+     */
+    private final boolean m_runningStatus;
+
+    public SmfGenerator(int tracks, int notesPerBeat, int beats, int tempoInterval, long seed) {
+        this(tracks, notesPerBeat, beats, tempoInterval, seed, false);
+    }
+
+    public SmfGenerator(int tracks, int notesPerBeat, int beats, int tempoInterval, long seed,
+            boolean runningStatus) {
+        if (tracks < 1 || notesPerBeat < 1 || notesPerBeat > RESOLUTION || beats < 1 || tempoInterval < 0) {
+            throw new IllegalArgumentException("Invalid generator parameters");
+        }
+
+        m_tracks = tracks;
+        m_notesPerBeat = notesPerBeat;
+        m_beats = beats;
+        m_tempoInterval = tempoInterval;
+        m_seed = seed;
+        m_runningStatus = runningStatus;
+    }
+
+    /**
+     * Generate the MIDI file. The same parameters always
+     * produce the same file.
+     * @return The MIDI file content
+     */
+    public byte[] generate() {
+        Random random = new Random(m_seed);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        out.write('M');
+        out.write('T');
+        out.write('h');
+        out.write('d');
+        writeInt(out, 6);
+        writeShort(out, 1);
+        writeShort(out, m_tracks + 1);
+        writeShort(out, RESOLUTION);
+
+        writeChunk(out, conductorTrack(random));
+        for (int i = 0; i < m_tracks; i++) {
+            writeChunk(out, noteTrack(random, i));
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Create the conductor track with the tempo changes
+     * @param random The random generator
+     * @return The track data
+     */
+    private byte[] conductorTrack(Random random) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        writeTempo(out, 0, 120);
+        if (m_tempoInterval > 0) {
+            int interval = m_tempoInterval * RESOLUTION;
+            for (int beat = m_tempoInterval; beat < m_beats; beat += m_tempoInterval) {
+                writeTempo(out, interval, 60 + random.nextInt(121));
+            }
+        }
+
+        writeEnd(out, 0);
+        return out.toByteArray();
+    }
+
+    /**
+     * Create the note track. Each track uses its own channel, which
+     * includes the drum channel for larger track counts.
+     * @param random The random generator
+     * @param track The track number
+     * @return The track data
+     */
+    private byte[] noteTrack(Random random, int track) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int channel = track & 0xf;
+
+        writeVarInt(out, 0);
+        out.write(0xc0 | channel);
+        out.write(random.nextInt(128));
+
+        writeVarInt(out, 0);
+        out.write(0xb0 | channel);
+        out.write(7);
+        out.write(64 + random.nextInt(64));
+
+        int step = RESOLUTION / m_notesPerBeat;
+        int notes = m_beats * m_notesPerBeat;
+        int noteOff = (m_runningStatus ? 0x90 : 0x80) | channel;
+        int status = -1;
+        int key = -1;
+        int wait = 0;
+        for (int i = 0; i < notes; i++) {
+            if (key >= 0) {
+                writeVarInt(out, wait);
+                status = writeStatus(out, noteOff, status);
+                out.write(key);
+                out.write(0);
+                wait = 0;
+            }
+
+            key = 36 + random.nextInt(60);
+            writeVarInt(out, wait);
+            status = writeStatus(out, 0x90 | channel, status);
+            out.write(key);
+            out.write(1 + random.nextInt(127));
+            wait = step;
+        }
+
+        if (key >= 0) {
+            writeVarInt(out, wait);
+            writeStatus(out, noteOff, status);
+            out.write(key);
+            out.write(0);
+            wait = 0;
+        }
+
+        writeEnd(out, wait);
+        return out.toByteArray();
+    }
+
+    /**
+     * Write the status byte, the byte is omitted when running status
+     * is used and the status did not change
+     * @param out The output
+     * @param status The event status
+     * @param last The last written status
+     * @return The running status
+     */
+    private int writeStatus(ByteArrayOutputStream out, int status, int last) {
+        if (!m_runningStatus || status != last) {
+            out.write(status);
+        }
+
+        return status;
+    }
+
+    private static void writeTempo(ByteArrayOutputStream out, int delta, int bpm) {
+        int mpq = 60000000 / bpm;
+
+        writeVarInt(out, delta);
+        out.write(0xff);
+        out.write(0x51);
+        out.write(3);
+        out.write((mpq >> 16) & 0xff);
+        out.write((mpq >> 8) & 0xff);
+        out.write(mpq & 0xff);
+    }
+
+    private static void writeEnd(ByteArrayOutputStream out, int delta) {
+        writeVarInt(out, delta);
+        out.write(0xff);
+        out.write(0x2f);
+        out.write(0);
+    }
+
+    private static void writeChunk(ByteArrayOutputStream out, byte[] data) {
+        out.write('M');
+        out.write('T');
+        out.write('r');
+        out.write('k');
+        writeInt(out, data.length);
+        out.write(data, 0, data.length);
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        int buffer = value & 0x7f;
+        while ((value >>>= 7) != 0) {
+            buffer = (buffer << 8) | 0x80 | (value & 0x7f);
+        }
+
+        while (true) {
+            out.write(buffer & 0xff);
+            if ((buffer & 0x80) == 0) {
+                return;
+            }
+            buffer >>>= 8;
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write((value >> 24) & 0xff);
+        out.write((value >> 16) & 0xff);
+        out.write((value >> 8) & 0xff);
+        out.write(value & 0xff);
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write((value >> 8) & 0xff);
+        out.write(value & 0xff);
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * MidiPlayer a plugin that allows you to play custom music.
+ * Copyright (c) 2014, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) MidiPlayer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.midiplayer.track;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.Server;
+import org.bukkit.entity.Player;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.primesoft.midiplayer.configuration.ConfigProvider;
+import org.primesoft.midiplayer.midiparser.IFrameSource;
+import org.primesoft.midiplayer.sound.INoteSink;
+import org.primesoft.midiplayer.sound.NullNoteSink;
+import org.primesoft.midiplayer.sound.SoundPlayer;
+import org.primesoft.midiplayer.utils.IClock;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the track timing on the server ticks using a fake clock
+ * @author SBPrime
+ */
+public class TrackTimingTest {
+
+    private final static long NANOS_PER_MILLI = 1000000;
+
+    private final static long TICK = 1000 * NANOS_PER_MILLI / ConfigProvider.TICKS_PER_SECOND;
+
+    private final static long HALF_TICK = TICK / 2;
+
+    /**
+     * The clock moved by the test
+     */
+    private static class FakeClock implements IClock {
+
+        private long m_now = 1000 * TICK;
+
+        @Override
+        public long nanoTime() {
+            return m_now;
+        }
+
+        void set(long now) {
+            m_now = now;
+        }
+    }
+
+    /**
+     * Frames with a constant wait that record the time they were played at
+     */
+    private static class RecordingSource implements IFrameSource {
+
+        private final IClock m_clock;
+
+        private final int m_count;
+
+        private final long m_wait;
+
+        private final int m_tickWait;
+
+        private final boolean m_isQuantized;
+
+        private final List<Long> m_played = new ArrayList<>();
+
+        RecordingSource(IClock clock, int count, long wait, int tickWait, boolean quantized) {
+            m_clock = clock;
+            m_count = count;
+            m_wait = wait;
+            m_tickWait = tickWait;
+            m_isQuantized = quantized;
+        }
+
+        @Override
+        public int getFrameCount() {
+            return m_count;
+        }
+
+        @Override
+        public long getWait(int frame) {
+            return m_wait;
+        }
+
+        @Override
+        public int getTickWait(int frame) {
+            return m_tickWait;
+        }
+
+        @Override
+        public boolean isQuantized() {
+            return m_isQuantized;
+        }
+
+        @Override
+        public int getNoteCount(int frame) {
+            return 1;
+        }
+
+        @Override
+        public void playFrame(int frame, Player player, Location location, INoteSink sink) {
+            assertEquals(m_played.size(), frame);
+            m_played.add(m_clock.nanoTime());
+        }
+
+        @Override
+        public boolean isComplete() {
+            return true;
+        }
+
+        int getPlayed() {
+            return m_played.size();
+        }
+    }
+
+    private FakeClock m_clock;
+
+    private TrackRegistry m_tracks;
+
+    private TrackScheduler m_scheduler;
+
+    @BeforeClass
+    public static void setUpServer() {
+        //The server thread note sink checks the server thread
+        if (Bukkit.getServer() == null) {
+            Bukkit.setServer((Server) Proxy.newProxyInstance(Server.class.getClassLoader(),
+                    new Class<?>[]{Server.class}, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "isPrimaryThread":
+                                return true;
+                            case "getLogger":
+                                return Logger.getLogger(TrackTimingTest.class.getName());
+                            case "getOnlinePlayers":
+                                return Collections.emptyList();
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "equals":
+                                return proxy == args[0];
+                            default:
+                                return method.getReturnType() == String.class ? "test" : null;
+                        }
+                    }));
+        }
+
+        SoundPlayer.setSink(NullNoteSink.INSTANCE);
+    }
+
+    @Before
+    public void setUp() {
+        m_clock = new FakeClock();
+        m_tracks = new TrackRegistry();
+        m_scheduler = new TrackScheduler(m_tracks, new NoteDispatcher(m_clock), new SoundBudget(m_clock));
+    }
+
+    @Test
+    public void timedTrackFollowsTheClock() {
+        final RecordingSource source = new RecordingSource(m_clock, 400, 30, 0, false);
+        m_tracks.add(createTrack(source));
+
+        //The frame times do not drift with the tick jitter
+        final Random random = new Random(1);
+        final long start = m_clock.nanoTime();
+        for (int i = 0; i < 300; i++) {
+            final long now = start + i * TICK + (i > 0 ? jitter(random, 20) : 0);
+            tick(now);
+            assertEquals(countDue(source, start, now + HALF_TICK), source.getPlayed());
+        }
+    }
+
+    @Test
+    public void timedTrackCatchesUpUnderLag() {
+        final RecordingSource source = new RecordingSource(m_clock, 400, 30, 0, false);
+        m_tracks.add(createTrack(source));
+
+        //The late ticks play all frames that became due
+        final long start = m_clock.nanoTime();
+        long now = start;
+        for (int i = 0; i < 200; i++) {
+            tick(now);
+            assertEquals(countDue(source, start, now + HALF_TICK), source.getPlayed());
+            now += i >= 50 && i < 60 ? 5 * TICK : TICK;
+        }
+    }
+
+    @Test
+    public void quantizedTrackPlaysOnTheTicks() {
+        final RecordingSource source = new RecordingSource(m_clock, 400, 100, 2, true);
+        m_tracks.add(createTrack(source));
+
+        //The tick jitter does not move the frames to other ticks
+        final Random random = new Random(2);
+        final long start = m_clock.nanoTime();
+        for (int i = 0; i < 300; i++) {
+            tick(start + i * TICK + (i > 0 ? jitter(random, 20) : 0));
+            assertEquals(Math.min((i + 1) / 2, source.getFrameCount()), source.getPlayed());
+        }
+    }
+
+    @Test
+    public void quantizedTrackCatchesUpUnderLag() {
+        final RecordingSource source = new RecordingSource(m_clock, 400, 100, 2, true);
+        m_tracks.add(createTrack(source));
+
+        //The lagging server runs the missed ticks back to back,
+        //the track follows the wall time and does not run ahead
+        final long start = m_clock.nanoTime();
+        long now = start;
+        for (int i = 0; i < 200; i++) {
+            tick(now);
+            assertEquals((getWallTick(start, now) + 1) / 2, source.getPlayed());
+            if (i >= 50 && i < 60) {
+                now += 4 * TICK;
+            } else if (i >= 60 && i < 90) {
+                now += NANOS_PER_MILLI;
+            } else {
+                now += TICK;
+            }
+        }
+    }
+
+    private void tick(long now) {
+        m_clock.set(now);
+        m_scheduler.tick(now);
+    }
+
+    private static BaseTrack createTrack(IFrameSource source) {
+        final Player player = (Player) Proxy.newProxyInstance(Player.class.getClassLoader(),
+                new Class<?>[]{Player.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isOnline":
+                            return true;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return null;
+                    }
+                });
+
+        return new GlobalTrack(null, source) {
+            @Override
+            protected Collection<? extends Player> getPlayers() {
+                return Collections.singletonList(player);
+            }
+        };
+    }
+
+    /**
+     * Get the number of frames due at the time
+     *
+     * @param source The frames
+     * @param start The track start time
+     * @param time The time
+     * @return Number of due frames
+     */
+    private static int countDue(RecordingSource source, long start, long time) {
+        final long due = (time - start) / (source.getWait(0) * NANOS_PER_MILLI);
+        return (int) Math.min(due, source.getFrameCount());
+    }
+
+    /**
+     * Get the number of tick periods since the first tick
+     *
+     * @param start The first tick time
+     * @param now The current time
+     * @return The tick periods rounded to the nearest tick
+     */
+    private static long getWallTick(long start, long now) {
+        return (now - start + HALF_TICK) / TICK;
+    }
+
+    private static long jitter(Random random, long maxMillis) {
+        return (random.nextInt((int) (2 * maxMillis + 1)) - maxMillis) * NANOS_PER_MILLI;
+    }
+}